@@ -2,17 +2,29 @@ package edj;
 
 import static edj.BufferUtils.lineNumToIndex;
 
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import edu.snow.kylern.Collections.GapList;
 
 /**
  * Place for code that is common to all List<String>-based implementations of BufferPrimse
  * @author Ian Darwin
  */
-public abstract class AbstractBufferPrims implements BufferPrims {
+public abstract class AbstractBufferPrims implements DigestHolder {
 	
-	protected List<String> buffer = new ArrayList<>();
+	/**
+	 * The lines. A GapList, since edits cluster around the current line:
+	 * its gap follows the edits, so nearby inserts and deletes don't
+	 * shift the whole tail of the buffer.
+	 */
+	protected List<String> buffer = new GapList<>();
 
 	/** 
 	 * The line number is a human-centric line number, e.g., 
@@ -23,6 +35,64 @@ public abstract class AbstractBufferPrims implements BufferPrims {
 	 * buffer.set(lineNumToIndex(lineNum), newText);
 	 */
 	protected int current = NO_NUM;
+
+	/** If non-null, lines read in or inserted are shared through this pool */
+	protected LineInterner interner;
+
+	public LineInterner getInterner() {
+		return interner;
+	}
+
+	public void setInterner(LineInterner interner) {
+		this.interner = interner;
+	}
+
+	/** Return the pooled copy of the line, or the line itself if not interning */
+	protected String intern(String line) {
+		return interner == null ? line : interner.intern(line);
+	}
+
+	/** Return the lines, pooled, or the list itself if not interning */
+	protected List<String> intern(List<String> lines) {
+		if (interner == null) {
+			return lines;
+		}
+		List<String> pooled = new ArrayList<>(lines.size());
+		for (String line : lines) {
+			pooled.add(interner.intern(line));
+		}
+		return pooled;
+	}
+
+	/** What the buffer held when last read from or written to a file */
+	protected LineBlockDigest savedDigest;
+
+	@Override
+	public LineBlockDigest getSavedDigest() {
+		return savedDigest;
+	}
+
+	@Override
+	public void setSavedDigest(LineBlockDigest digest) {
+		savedDigest = digest;
+	}
+
+	/**
+	 * Read all the lines of a file for readBuffer, in parallel where possible.
+	 * If the buffer is to hold just these lines, note their digest, so that
+	 * unchanged blocks can be copied from the file on saving.
+	 */
+	protected List<String> loadFile(String fileName, boolean replacing) {
+		try {
+			return replacing ?
+				LineBlockDigest.readWithDigest(Paths.get(fileName), this::intern, this::setSavedDigest) :
+				ParallelLineLoader.load(fileName, this::intern);
+		} catch (NoSuchFileException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+	}
 	
 	/* (non-Javadoc)
 	 * @see edj.BufferPrims#size()
@@ -63,16 +133,44 @@ public abstract class AbstractBufferPrims implements BufferPrims {
 	public void deleteLines(int startLnum, int end) {
 		// System.out.println("BufferPrimsNoUndo.deleteLines(" + startLnum + ", " + end +")");
 		int startIx = lineNumToIndex(startLnum);
-		for (int i = startIx; i < end; i++) {
-			if (buffer.isEmpty()) {
-				System.out.println("?Deleted all lines!");
-				break;
-			}
-			buffer.remove(startIx); // not i!
+		int endIx = Math.min(end, buffer.size());
+		if (startIx < endIx) {
+			buffer.subList(startIx, endIx).clear();	// one move, not one per line
+		}
+		if (endIx < end && buffer.isEmpty()) {
+			System.out.println("?Deleted all lines!");
 		}
 		current = startLnum;
 	}
 
+	@Override
+	public void replaceLines(int startLnum, int end, List<String> newLines) {
+		int startIx = lineNumToIndex(startLnum);
+		int endIx = Math.max(startIx, Math.min(end, buffer.size()));
+		buffer.subList(startIx, endIx).clear();
+		buffer.addAll(startIx, newLines);	// same spot, so no second gap move
+		current = startIx + newLines.size();
+	}
+
+	@Override
+	public void moveLines(int startLnum, int end, int dest) {
+		end = Math.min(end, buffer.size());
+		int after = BufferUtils.moveTarget(startLnum, end, dest);
+		List<String> range = buffer.subList(lineNumToIndex(startLnum), end);
+		List<String> block = new ArrayList<>(range);
+		range.clear();
+		buffer.addAll(after, block);
+		current = after + block.size();
+	}
+
+	@Override
+	public void copyLines(int startLnum, int end, int dest) {
+		List<String> block = new ArrayList<>(
+			buffer.subList(lineNumToIndex(startLnum), Math.min(end, buffer.size())));
+		buffer.addAll(dest, block);
+		current = dest + block.size();
+	}
+
 	@Override
 	public String getCurrentLine() {
 		return buffer.get(lineNumToIndex(current));
@@ -108,6 +206,21 @@ public abstract class AbstractBufferPrims implements BufferPrims {
 		return ret;
 	}
 	
+	@Override
+	public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		int startIx = lineNumToIndex(start), endIx = Math.min(end, buffer.size());
+		if (startIx < endIx) {
+			buffer.subList(startIx, endIx).forEach(action);
+		}
+	}
+
+	/** A view of the list, whose spliterator splits by index for parallel streams */
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		int startIx = lineNumToIndex(start), endIx = Math.max(startIx, Math.min(end, buffer.size()));
+		return Collections.<CharSequence>unmodifiableList(buffer.subList(startIx, endIx)).stream();
+	}
+	
 	/** Replace old with new in the current line */
 	@Override
 	public void replace(String oldRE, String newStr, boolean all) {
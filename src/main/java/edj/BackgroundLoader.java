@@ -0,0 +1,124 @@
+package edj;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Read a file on a background thread, handing its lines to a sink
+ * in batches as they are read, so that an editor can show and work on
+ * the start of a big file while the rest is still being read.
+ * The first batch is small, so it arrives almost at once; later ones
+ * grow, to keep the per-batch overhead down.
+ * The sink and the onDone action are run on the loading thread.
+ */
+class BackgroundLoader {
+
+	static final int FIRST_BATCH = 256, MAX_BATCH = 64 * 1024;
+
+	private final String fileName;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final Consumer<List<String>> sink;
+	private final Runnable onDone;
+	private final Thread thread;
+
+	private volatile boolean cancelled, done;
+	private volatile long lines, chars;
+	private volatile IOException failure;
+
+	/**
+	 * Open the file now, so a missing file is reported at once, but don't start reading.
+	 * @throws BufferException if the file can't be opened
+	 */
+	BackgroundLoader(String fileName, Consumer<List<String>> sink, Runnable onDone) {
+		this.fileName = fileName;
+		this.sink = sink;
+		this.onDone = onDone;
+		try {
+			channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+			fileSize = channel.size();
+		} catch (NoSuchFileException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		thread = new Thread(this::run, "edj loader " + fileName);
+		thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	private void run() {
+		try (LineReader rdr = new LineReader(Compression.open(channel), Charset.defaultCharset())) {
+			int batchSize = FIRST_BATCH;
+			List<String> batch = new ArrayList<>(batchSize);
+			String line;
+			while (!cancelled && (line = rdr.readLine()) != null) {
+				batch.add(line);
+				chars += line.length();
+				if (batch.size() == batchSize) {
+					lines += batch.size();
+					sink.accept(batch);
+					batchSize = Math.min(batchSize * 4, MAX_BATCH);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			if (!cancelled && !batch.isEmpty()) {
+				lines += batch.size();
+				sink.accept(batch);
+			}
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			done = true;
+			if (!cancelled) {
+				onDone.run();
+			}
+		}
+	}
+
+	/** Stop reading; no more batches will be passed on, nor onDone run */
+	void cancel() {
+		cancelled = true;
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	/** How far through the file reading has got, from 0 to 1 */
+	double getProgress() {
+		if (done || fileSize == 0) {
+			return 1;
+		}
+		try {
+			return Math.min(1.0, (double) channel.position() / fileSize);
+		} catch (IOException e) {
+			return 0;		// closed under us, i.e., just finished
+		}
+	}
+
+	/** Lines handed to the sink so far */
+	long getLines() {
+		return lines;
+	}
+
+	long getChars() {
+		return chars;
+	}
+
+	/** If reading stopped with an error, a BufferException for it; else null */
+	BufferException getFailure() {
+		return failure == null ? null :
+			new BufferException("File " + fileName + " failed during read", failure);
+	}
+}
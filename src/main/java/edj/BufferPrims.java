@@ -1,6 +1,9 @@
 package edj;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Buffer Primitives for Line Editor edj.
@@ -26,13 +29,45 @@ public interface BufferPrims {
 	void addLines(int start, List<String> newLines);
 
 	void deleteLines(int start, int end);
-	
+
+	/**
+	 * Replace lines start through end with the new lines (ed's 'c').
+	 * The default is built from the primitives above; implementations
+	 * should do it in one pass, and as one undoable action.
+	 */
+	default void replaceLines(int start, int end, List<String> newLines) {
+		deleteLines(start, end);
+		addLines(start - 1, newLines);
+	}
+
+	/**
+	 * Move lines start through end to after line dest (ed's 'm');
+	 * dest may not be inside the range. The moved lines keep their
+	 * order, and the current line becomes the last one moved.
+	 */
+	default void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		int after = BufferUtils.moveTarget(start, end, dest);
+		List<String> block = getLines(start, end);
+		deleteLines(start, end);
+		addLines(after, block);
+	}
+
+	/** Copy lines start through end to after line dest (ed's 't') */
+	default void copyLines(int start, int end, int dest) {
+		addLines(dest, getLines(start, end));
+	}
+
 	void clearBuffer();
 	
 	void readBuffer(String fileName);
 	
+	/**
+	 * Write all the lines to the file, replacing it only once
+	 * the whole buffer has been written.
+	 */
 	default void writeBuffer(String fileName) {
-		throw new UnsupportedOperationException();
+		BufferWriter.write(this, fileName);
 	}
 
 	int getCurrentLineNumber();
@@ -40,10 +75,40 @@ public interface BufferPrims {
 	int goToLine(int n);
 	int size();			// Number of lines, as per old Collections
 
+	/**
+	 * Wait until at least n lines are in the buffer, or all of them if
+	 * there are fewer (so awaitLines(INF) waits for all), for buffers
+	 * that load in the background; for any other, there is nothing to wait for.
+	 */
+	default void awaitLines(int n) {
+		// Already all here
+	}
+
 	/** Retrieve one or more of lines */
 	String getLine(int ln);
 	List<String> getLines(int i, int j);
 
+	/**
+	 * Pass each of lines start through end to the action, without
+	 * building a List of them. Implementations may pass views into
+	 * the buffer rather than Strings; a view is only good until the
+	 * buffer is next changed, so use toString() on any to be kept.
+	 */
+	default void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		for (int ln = Math.max(start, 1), last = Math.min(end, size()); ln <= last; ln++) {
+			action.accept(getLine(ln));
+		}
+	}
+
+	/**
+	 * Stream lines start through end, on the same terms as forEachLine.
+	 * The stream only splits for parallel use in implementations that
+	 * are safe for concurrent readers; in others it runs sequentially.
+	 */
+	default Stream<CharSequence> lines(int start, int end) {
+		return StreamSupport.stream(new LineSpliterator(this, start, end, false), false);
+	}
+
 	/** replace first/all occurrence of 'old' regex w 'new' text, current line */
 	void replace(String oldRE, String newStr, boolean all);	
 	/** replace first/all occur in each line */
@@ -0,0 +1,282 @@
+package edj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Wrap any BufferPrims so that reading a file into an empty buffer
+ * returns at once and the file is read by a BackgroundLoader, its lines
+ * arriving in batches. A file read into a buffer that has lines (as by
+ * r) is just read by the wrapped buffer, once any load is done.
+ *
+ * The wrapped buffer is still only ever used from the editor's thread:
+ * the loader queues its batches, and each call here first appends
+ * whatever batches have arrived. Calls that read lines only wait for
+ * the lines they ask for (so the start of the file can be worked on
+ * at once); size() never waits, being the number of lines so far;
+ * awaitLines() waits, e.g., for '$'. Calls that change the buffer wait
+ * for the load to finish, so edits never get mixed up with the lines
+ * still to come. Loading lines is not itself undoable.
+ */
+public class BufferPrimsAsyncLoad implements BufferPrims, UndoManagerEdj {
+
+	/** Marks the end of a load in the queue */
+	private static final List<String> END = new ArrayList<>();
+
+	private final BufferPrims buffer;
+	/**
+	 * The current load's batches. Each load has a queue of its own, so
+	 * that a cancelled loader that is still handing over a batch can only
+	 * add it to the old queue, which nothing reads any more.
+	 */
+	private BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+	private BackgroundLoader loader;
+
+	public BufferPrimsAsyncLoad(BufferPrims buffer) {
+		this.buffer = buffer;
+	}
+
+	/** True while a file is still being read in */
+	public boolean isLoading() {
+		return loader != null;
+	}
+
+	/** How far the current load has got, from 0 to 1; 1 if not loading */
+	public double getLoadProgress() {
+		BackgroundLoader l = loader;
+		return l == null ? 1 : l.getProgress();
+	}
+
+	/**
+	 * Append the batches that have arrived; if need is more than
+	 * the lines we have, wait for more until we have that many
+	 * or the load is finished.
+	 */
+	private void drain(int need) {
+		while (loader != null) {
+			List<String> batch;
+			if (buffer.size() >= need) {
+				batch = batches.poll();
+				if (batch == null) {
+					return;
+				}
+			} else {
+				try {
+					batch = batches.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (batch == END) {
+				BackgroundLoader l = loader;
+				loader = null;
+				BufferException failure = l.getFailure();
+				if (failure != null) {
+					throw failure;
+				}
+				System.out.println(String.format("%dL, %dC", l.getLines(), l.getChars()));
+				return;
+			}
+			append(batch);
+		}
+	}
+
+	/** Add the lines at the end, not losing the user's place or adding an undo */
+	private void append(List<String> batch) {
+		int oldSize = buffer.size(), oldCurrent = buffer.getCurrentLineNumber();
+		buffer.addLines(oldSize, batch);
+		if (buffer.isUndoSupported() && buffer instanceof UndoManagerEdj) {
+			((UndoManagerEdj) buffer).popUndo();
+		}
+		if (oldCurrent != oldSize) {
+			buffer.goToLine(oldCurrent);	// user has moved away from the end
+		} else {
+			buffer.goToLine(buffer.size());
+		}
+	}
+
+	private void awaitAll() {
+		drain(INF);
+	}
+
+	@Override
+	public void awaitLines(int n) {
+		drain(n);
+	}
+
+	/**
+	 * Start reading the file into an empty buffer in the background; a file
+	 * read into a buffer with lines, once any load is done, is read by the
+	 * wrapped buffer, so it is added as usual and can be undone.
+	 */
+	@Override
+	public void readBuffer(String fileName) {
+		awaitAll();
+		if (buffer.size() > 0) {
+			buffer.readBuffer(fileName);
+			return;
+		}
+		BlockingQueue<List<String>> queue = batches = new LinkedBlockingQueue<>();
+		BackgroundLoader l = new BackgroundLoader(fileName, queue::add, () -> queue.add(END));
+		loader = l;
+		l.start();
+	}
+
+	@Override
+	public void clearBuffer() {
+		if (loader != null) {
+			loader.cancel();
+			loader = null;
+		}
+		batches = new LinkedBlockingQueue<>();
+		buffer.clearBuffer();
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		awaitAll();
+		buffer.addLine(newLine);
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		awaitAll();
+		buffer.addLines(newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		awaitAll();
+		buffer.addLines(start, newLines);
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		awaitAll();
+		buffer.deleteLines(start, end);
+	}
+
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		awaitAll();
+		buffer.replaceLines(start, end, newLines);
+	}
+
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		awaitAll();
+		buffer.moveLines(start, end, dest);
+	}
+
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		awaitAll();
+		buffer.copyLines(start, end, dest);
+	}
+
+	@Override
+	public void writeBuffer(String fileName) {
+		awaitAll();
+		buffer.writeBuffer(fileName);
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		drain(0);
+		return buffer.getCurrentLineNumber();
+	}
+
+	@Override
+	public String getCurrentLine() {
+		drain(0);
+		return buffer.getCurrentLine();
+	}
+
+	@Override
+	public int goToLine(int n) {
+		drain(n);
+		return buffer.goToLine(n);
+	}
+
+	/** The number of lines loaded so far; does not wait */
+	@Override
+	public int size() {
+		drain(0);
+		return buffer.size();
+	}
+
+	@Override
+	public String getLine(int ln) {
+		drain(ln);
+		return buffer.getLine(ln);
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		drain(end);
+		return buffer.getLines(start, end);
+	}
+
+	@Override
+	public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		drain(end);
+		buffer.forEachLine(start, end, action);
+	}
+
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		drain(end);
+		return buffer.lines(start, end);
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		awaitAll();
+		buffer.replace(oldRE, newStr, all);
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		awaitAll();
+		buffer.replace(oldRE, newStr, all, startLine, endLine);
+	}
+
+	@Override
+	public boolean isUndoSupported() {
+		return buffer.isUndoSupported();
+	}
+
+	@Override
+	public void undo() {
+		awaitAll();
+		buffer.undo();
+	}
+
+	@Override
+	public boolean isRedoSupported() {
+		return buffer.isRedoSupported();
+	}
+
+	@Override
+	public void redo() {
+		awaitAll();
+		buffer.redo();
+	}
+
+	@Override
+	public void pushUndo(String name, Runnable r) {
+		((UndoManagerEdj) buffer).pushUndo(name, r);
+	}
+
+	@Override
+	public void popUndo() {
+		if (buffer instanceof UndoManagerEdj) {
+			((UndoManagerEdj) buffer).popUndo();
+		}
+	}
+}
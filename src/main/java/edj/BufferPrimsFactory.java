@@ -0,0 +1,35 @@
+package edj;
+
+/**
+ * Create a BufferPrims implementation given its short name,
+ * so the editors can offer a choice (e.g., "edj -b piecetable file").
+ */
+public class BufferPrimsFactory {
+
+	public static final String DEFAULT_TYPE = "undo";
+
+	public static BufferPrims create(String type) {
+		switch (type) {
+		case "undo":
+			return new BufferPrimsWithUndo();
+		case "noundo":
+			return new BufferPrimsNoUndo();
+		case "stringbuffer":
+			return new BufferPrimsStringBuffer();
+		case "piecetable":
+			return new BufferPrimsPieceTable();
+		case "rope":
+			return new BufferPrimsRope();
+		case "mapped":
+			return new BufferPrimsMapped();
+		case "slab":
+			return new BufferPrimsSlab();
+		case "paged":
+			return new BufferPrimsPaged();
+		case "persistent":
+			return new BufferPrimsPersistent();
+		default:
+			throw new IllegalArgumentException("Unknown buffer type " + type);
+		}
+	}
+}
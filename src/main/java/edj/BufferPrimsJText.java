@@ -3,14 +3,15 @@ package edj;
 import static edj.BufferUtils.indexToLineNum;
 import static edj.BufferUtils.lineNumToIndex;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 
 /** Special BufferPrims for dealing with a buffer that actually belongs
  * to a JTextArea, for use in the SwingEditor variant "vedj".
@@ -18,12 +19,45 @@ import javax.swing.text.BadLocationException;
  * Remember that all input line# arguments are 1-based,
  * and must be converted.
  */
-public class BufferPrimsJText implements BufferPrims {
+public class BufferPrimsJText implements DigestHolder {
 	
 	private JTextArea textView;
+	private LineBlockDigest savedDigest;
 	
 	BufferPrimsJText(JTextArea textArea) {
 		this.textView = textArea;
+		textArea.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				changed(e);
+			}
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				changed(e);
+			}
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				// Attributes only
+			}
+		});
+	}
+
+	/**
+	 * Tell the digest which lines an edit (ours, or typed by the user)
+	 * replaced with which, so isModified only compares the blocks touched.
+	 */
+	private void changed(DocumentEvent e) {
+		if (savedDigest == null) {
+			return;
+		}
+		Element root = textView.getDocument().getDefaultRootElement();
+		DocumentEvent.ElementChange lines = e.getChange(root);
+		if (lines != null) {
+			savedDigest.changed(lines.getIndex(), lines.getChildrenRemoved().length, lines.getChildrenAdded().length);
+		} else {
+			int line = root.getElementIndex(e.getOffset());
+			savedDigest.changed(line, 1, 1);
+		}
 	}
 
 	@Override
@@ -65,6 +99,54 @@ public class BufferPrimsJText implements BufferPrims {
 		}
 	}
 
+	/** Replace lines with a single replaceRange, leaving the caret after the new lines */
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		StringBuilder sb = new StringBuilder();
+		newLines.forEach(s->sb.append(s).append('\n'));
+		try {
+			int startOffset = textView.getLineStartOffset(lineNumToIndex(start));
+			int endOffset = Math.min(end, size()) < start ? startOffset :
+				textView.getLineEndOffset(lineNumToIndex(Math.min(end, size())));
+			textView.replaceRange(sb.toString(), startOffset, endOffset);
+			textView.setCaretPosition(startOffset + sb.length());
+		} catch (BadLocationException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		int after = BufferUtils.moveTarget(start, end, dest);
+		try {
+			int startOffset = textView.getLineStartOffset(lineNumToIndex(start));
+			int endOffset = textView.getLineEndOffset(lineNumToIndex(end));
+			String block = textView.getText(startOffset, endOffset - startOffset);
+			textView.replaceRange("", startOffset, endOffset);
+			int at = textView.getLineStartOffset(after);
+			textView.insert(block, at);
+			textView.setCaretPosition(at + block.length());
+		} catch (BadLocationException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		try {
+			int startOffset = textView.getLineStartOffset(lineNumToIndex(start));
+			int endOffset = textView.getLineEndOffset(lineNumToIndex(end));
+			String block = textView.getText(startOffset, endOffset - startOffset);
+			int at = textView.getLineStartOffset(dest);
+			textView.insert(block, at);
+			textView.setCaretPosition(at + block.length());
+		} catch (BadLocationException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
 	@Override
 	public void clearBuffer() {
 		textView.setText("");
@@ -77,9 +159,13 @@ public class BufferPrimsJText implements BufferPrims {
 	@Override
 	public void readBuffer(String fileName) {
 		StringBuilder sb = new StringBuilder();
-		try (BufferedReader rdr = new BufferedReader(new FileReader(fileName))) {
-			rdr.lines().forEach(s -> sb.append(s).append('\n'));
+		try (LineReader rdr = new LineReader(fileName)) {
+			String s;
+			while ((s = rdr.readLine()) != null) {
+				sb.append(s).append('\n');
+			}
 			textView.setText(sb.toString());
+			setSavedDigest(LineBlockDigest.of(this));
 		} catch (IOException ex) {
 			throw new RuntimeException("Error reading file " + fileName, ex);
 		}
@@ -208,4 +294,26 @@ public class BufferPrimsJText implements BufferPrims {
 		System.out.println("BufferPrimsJText.pushUndo()");
 	}
 
+
+	@Override
+	public LineBlockDigest getSavedDigest() {
+		return savedDigest;
+	}
+
+	@Override
+	public void setSavedDigest(LineBlockDigest digest) {
+		if (digest != null) {
+			digest.trackChanges();
+		}
+		savedDigest = digest;
+	}
+
+	/** Any change of length is a change, and that is quick to check; else only the blocks edited are */
+	@Override
+	public boolean isModified() {
+		if (savedDigest != null && textView.getDocument().getLength() != savedDigest.getChars()) {
+			return true;
+		}
+		return DigestHolder.super.isModified();
+	}
 }
@@ -0,0 +1,456 @@
+package edj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Wrap any BufferPrims so that every change made to it is recorded in
+ * an EditJournal beside the file being edited, and can be replayed on
+ * top of the file by recover() if the editor dies before saving.
+ *
+ * Each call that changes the buffer is recorded, once it has been made,
+ * as one binary record: the operation, the current line (which several
+ * operations depend on) and the arguments. Replaying the records in
+ * order on a buffer of the same type, freshly read from the same file,
+ * brings it back to the same state, undo stack included.
+ *
+ * The journal starts when a file is read into an empty buffer, or a
+ * buffer with no file is first saved, and is emptied each time the
+ * buffer is saved to that file. Its starting point is the file as read,
+ * with nothing to undo: reading a file into an empty buffer drops the
+ * read's own undo, and a popUndo() before any edit is not recorded, as
+ * there is nothing for it to drop. A file read into a buffer that already
+ * has lines is recorded as those lines added after the last one.
+ */
+public class BufferPrimsJournaled implements BufferPrims, UndoManagerEdj {
+
+	// The operations, as recorded; CONTENTS is no longer written, but is replayed from older journals
+	private static final byte ADD_LINE = 1, ADD_LINES = 2, ADD_LINES_AT = 3, DELETE = 4,
+		REPLACE_LINES = 5, MOVE = 6, COPY = 7, REPLACE = 8, REPLACE_RANGE = 9,
+		CLEAR = 10, UNDO = 11, REDO = 12, POP_UNDO = 13, CONTENTS = 14;
+
+	private final BufferPrims buffer;
+	private EditJournal journal;
+	/** Has anything but popUndo() been recorded since the journal's starting point? */
+	private boolean edited;
+
+	public BufferPrimsJournaled(BufferPrims buffer) {
+		this.buffer = buffer;
+	}
+
+	/** The journal in use, or null if there is no file yet */
+	EditJournal getJournal() {
+		return journal;
+	}
+
+	/** Is there a journal of edits to this file, as it is now, that recover() would replay? */
+	public static boolean hasJournal(String fileName) {
+		try {
+			return edits(EditJournal.readRecords(Paths.get(fileName))) > 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/** The number of records that are edits, not just popUndo() */
+	private static int edits(List<byte[]> records) {
+		int n = 0;
+		if (records != null) {
+			for (byte[] record : records) {
+				if (record.length > 0 && record[0] != POP_UNDO) {
+					++n;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Read the file and replay the journal of the edits made to it
+	 * since it was last saved, and carry on journaling after them.
+	 * @return the number of edits replayed; if none, the file is just read
+	 */
+	public int recover(String fileName) {
+		Path path = Paths.get(fileName);
+		List<byte[]> records;
+		try {
+			records = EditJournal.readRecords(path);
+		} catch (IOException e) {
+			throw new BufferException("Journal of " + fileName + " failed during read", e);
+		}
+		int n = edits(records);
+		if (n == 0) {
+			readBuffer(fileName);
+			return 0;
+		}
+		close();
+		buffer.clearBuffer();
+		buffer.readBuffer(fileName);
+		dropReadUndo();
+		try {
+			for (byte[] record : records) {
+				replay(record);
+			}
+			journal = EditJournal.resume(path);
+		} catch (IOException e) {
+			throw new BufferException("Journal of " + fileName + " failed during read", e);
+		}
+		edited = true;
+		return n;
+	}
+
+	/** Make the recorded change to the wrapped buffer */
+	private void replay(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		byte op = in.readByte();
+		int current = in.readInt();
+		if (current > 0 && current <= buffer.size()) {
+			buffer.goToLine(current);
+		}
+		switch (op) {
+		case ADD_LINE:
+			buffer.addLine(readString(in));
+			break;
+		case ADD_LINES:
+			buffer.addLines(readLines(in));
+			break;
+		case ADD_LINES_AT:
+			buffer.addLines(in.readInt(), readLines(in));
+			break;
+		case DELETE:
+			buffer.deleteLines(in.readInt(), in.readInt());
+			break;
+		case REPLACE_LINES:
+			buffer.replaceLines(in.readInt(), in.readInt(), readLines(in));
+			break;
+		case MOVE:
+			buffer.moveLines(in.readInt(), in.readInt(), in.readInt());
+			break;
+		case COPY:
+			buffer.copyLines(in.readInt(), in.readInt(), in.readInt());
+			break;
+		case REPLACE:
+			buffer.replace(readString(in), readString(in), in.readBoolean());
+			break;
+		case REPLACE_RANGE:
+			buffer.replace(readString(in), readString(in), in.readBoolean(), in.readInt(), in.readInt());
+			break;
+		case CLEAR:
+			buffer.clearBuffer();
+			break;
+		case UNDO:
+			buffer.undo();
+			break;
+		case REDO:
+			buffer.redo();
+			break;
+		case POP_UNDO:
+			((UndoManagerEdj) buffer).popUndo();
+			break;
+		case CONTENTS:
+			buffer.clearBuffer();
+			buffer.addLines(0, readLines(in));
+			break;
+		default:
+			throw new IOException("Unknown journal record " + op);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static List<String> readLines(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		List<String> lines = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			lines.add(readString(in));
+		}
+		return lines;
+	}
+
+	/** Builds one record; the args are ints, booleans, Strings or Lists of Strings */
+	private void record(byte op, int current, Object... args) {
+		if (journal == null) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(op);
+			out.writeInt(current);
+			for (Object arg : args) {
+				if (arg instanceof Integer) {
+					out.writeInt((Integer) arg);
+				} else if (arg instanceof Boolean) {
+					out.writeBoolean((Boolean) arg);
+				} else if (arg instanceof String) {
+					writeString(out, (String) arg);
+				} else {
+					List<?> lines = (List<?>) arg;
+					out.writeInt(lines.size());
+					for (Object line : lines) {
+						writeString(out, (String) line);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);	// can't happen, writing to memory
+		}
+		journal.append(bytes.toByteArray());
+		if (op != POP_UNDO) {
+			edited = true;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/** The current line that a change is about to be made at, once any background load is done */
+	private int current() {
+		buffer.awaitLines(INF);
+		return buffer.getCurrentLineNumber();
+	}
+
+	/** Start journaling edits to a new file, abandoning the edits to any old one */
+	private void startJournal(String fileName) {
+		close();
+		try {
+			journal = EditJournal.start(Paths.get(fileName));
+			edited = false;
+		} catch (IOException e) {
+			throw new BufferException("Journal of " + fileName + " failed during write", e);
+		}
+	}
+
+	/** Wait until every change so far is safely in the journal */
+	public void syncJournal() {
+		if (journal != null) {
+			journal.sync();
+		}
+	}
+
+	/**
+	 * Stop journaling and remove the journal, as the editor is quitting
+	 * normally; any edits not saved by now are meant to be thrown away.
+	 */
+	public void close() {
+		if (journal != null) {
+			try {
+				journal.delete();
+			} catch (IOException e) {
+				// Nothing we can do; it will be found to be stale if the file is saved
+			}
+			journal = null;
+		}
+	}
+
+	/** Drop the undo of a file just read into an empty buffer, making it the journal's starting point */
+	private void dropReadUndo() {
+		if (buffer instanceof UndoManagerEdj && buffer.isUndoSupported()) {
+			((UndoManagerEdj) buffer).popUndo();
+		}
+	}
+
+	/**
+	 * A file read into an empty buffer starts a new journal of edits to that
+	 * file; one read into a buffer with lines is recorded as the lines added.
+	 */
+	@Override
+	public void readBuffer(String fileName) {
+		if (buffer.size() == 0) {
+			buffer.readBuffer(fileName);
+			dropReadUndo();
+			startJournal(fileName);
+		} else {
+			int cur = current();
+			int after = buffer.size();
+			buffer.readBuffer(fileName);
+			buffer.awaitLines(INF);
+			record(ADD_LINES_AT, cur, after, buffer.getLines(after + 1, buffer.size()));
+		}
+	}
+
+	/** Saving to the journal's file empties the journal; saving a new buffer starts one */
+	@Override
+	public void writeBuffer(String fileName) {
+		buffer.writeBuffer(fileName);
+		Path path = Paths.get(fileName).toAbsolutePath();
+		if (journal == null) {
+			startJournal(fileName);
+		} else if (journal.getFile().toAbsolutePath().equals(path)) {
+			journal.compact();
+			edited = false;
+		}
+	}
+
+	@Override
+	public void clearBuffer() {
+		int cur = buffer.getCurrentLineNumber();
+		buffer.clearBuffer();
+		record(CLEAR, cur);
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		int cur = current();
+		buffer.addLine(newLine);
+		record(ADD_LINE, cur, newLine);
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		int cur = current();
+		buffer.addLines(newLines);
+		record(ADD_LINES, cur, newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		int cur = current();
+		buffer.addLines(start, newLines);
+		record(ADD_LINES_AT, cur, start, newLines);
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		int cur = current();
+		buffer.deleteLines(start, end);
+		record(DELETE, cur, start, end);
+	}
+
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		int cur = current();
+		buffer.replaceLines(start, end, newLines);
+		record(REPLACE_LINES, cur, start, end, newLines);
+	}
+
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		int cur = current();
+		buffer.moveLines(start, end, dest);
+		record(MOVE, cur, start, end, dest);
+	}
+
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		int cur = current();
+		buffer.copyLines(start, end, dest);
+		record(COPY, cur, start, end, dest);
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		int cur = current();
+		buffer.replace(oldRE, newStr, all);
+		record(REPLACE, cur, oldRE, newStr, all);
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		int cur = current();
+		buffer.replace(oldRE, newStr, all, startLine, endLine);
+		record(REPLACE_RANGE, cur, oldRE, newStr, all, startLine, endLine);
+	}
+
+	@Override
+	public boolean isUndoSupported() {
+		return buffer.isUndoSupported();
+	}
+
+	@Override
+	public void undo() {
+		int cur = current();
+		buffer.undo();
+		record(UNDO, cur);
+	}
+
+	@Override
+	public boolean isRedoSupported() {
+		return buffer.isRedoSupported();
+	}
+
+	@Override
+	public void redo() {
+		int cur = current();
+		buffer.redo();
+		record(REDO, cur);
+	}
+
+	@Override
+	public void pushUndo(String name, Runnable r) {
+		((UndoManagerEdj) buffer).pushUndo(name, r);
+	}
+
+	@Override
+	public void popUndo() {
+		if (buffer instanceof UndoManagerEdj) {
+			int cur = buffer.getCurrentLineNumber();
+			((UndoManagerEdj) buffer).popUndo();
+			if (edited) {
+				record(POP_UNDO, cur);
+			}
+		}
+	}
+
+	@Override
+	public void awaitLines(int n) {
+		buffer.awaitLines(n);
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return buffer.getCurrentLineNumber();
+	}
+
+	@Override
+	public String getCurrentLine() {
+		return buffer.getCurrentLine();
+	}
+
+	@Override
+	public int goToLine(int n) {
+		return buffer.goToLine(n);
+	}
+
+	@Override
+	public int size() {
+		return buffer.size();
+	}
+
+	@Override
+	public String getLine(int ln) {
+		return buffer.getLine(ln);
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		return buffer.getLines(start, end);
+	}
+
+	@Override
+	public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		buffer.forEachLine(start, end, action);
+	}
+
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		return buffer.lines(start, end);
+	}
+}
@@ -0,0 +1,588 @@
+package edj;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implement BufferPrims over a memory-mapped file, for looking at files
+ * bigger than the heap. Reading the file just maps it and makes one
+ * pass to build a sparse index (the start of every SPARSE'th line);
+ * lines are only decoded into Strings when asked for, and the most
+ * recently decoded ones are kept in a bounded cache of SoftReferences.
+ *
+ * The mapped file is never written. The first edit switches the buffer
+ * to an "overlay": a list of segments, each either a run of lines still
+ * in the mapped file or a list of edited lines, so that only the lines
+ * actually changed ever take up heap. Neighbouring edited runs are merged,
+ * and where each segment starts is kept in a table, rebuilt after an edit,
+ * which is searched to find a line's segment.
+ */
+public class BufferPrimsMapped implements BufferPrims {
+
+	/** Keep the offset of every SPARSE'th line */
+	static final int SPARSE = 64;
+	/** Map the file in regions of this size, as one mapping is limited to 2GB */
+	static final int REGION_SHIFT = 30;
+	static final long REGION_SIZE = 1L << REGION_SHIFT;
+	/** Maximum number of decoded lines to hold on to */
+	static final int CACHE_SIZE = 4096;
+
+	/** One run of lines in the overlay */
+	private abstract class Segment {
+		abstract int count();
+		abstract String get(int i);
+		/** Add lines [from, to) of this segment to ret */
+		abstract void addTo(int from, int to, List<String> ret);
+		/** Return a new Segment for lines [n, count), leaving this with [0, n) */
+		abstract Segment splitAt(int n);
+		/** Return a Segment with the same lines, to be changed independently of this */
+		abstract Segment copy();
+	}
+
+	/** A run of lines still in the mapped file */
+	private class MappedRun extends Segment {
+		final int first;
+		int count;
+		MappedRun(int first, int count) {
+			this.first = first;
+			this.count = count;
+		}
+		int count() {
+			return count;
+		}
+		String get(int i) {
+			return mappedLine(first + i);
+		}
+		void addTo(int from, int to, List<String> ret) {
+			addMappedLines(first + from, first + to, ret);
+		}
+		Segment splitAt(int n) {
+			Segment tail = new MappedRun(first + n, count - n);
+			count = n;
+			return tail;
+		}
+		Segment copy() {
+			return new MappedRun(first, count);
+		}
+	}
+
+	/** Lines that have been added or changed */
+	private class EditedRun extends Segment {
+		List<String> lines;
+		EditedRun(List<String> lines) {
+			this.lines = lines;
+		}
+		int count() {
+			return lines.size();
+		}
+		String get(int i) {
+			return lines.get(i);
+		}
+		void addTo(int from, int to, List<String> ret) {
+			ret.addAll(lines.subList(from, to));
+		}
+		Segment splitAt(int n) {
+			Segment tail = new EditedRun(new ArrayList<>(lines.subList(n, lines.size())));
+			lines = new ArrayList<>(lines.subList(0, n));
+			return tail;
+		}
+		Segment copy() {
+			return new EditedRun(new ArrayList<>(lines));
+		}
+	}
+
+	private final Charset charset = Charset.defaultCharset();
+	private MappedByteBuffer[] regions = new MappedByteBuffer[0];
+	private long fileSize;
+	private int mappedLines;
+	private long[] sparse = new long[0];
+
+	private final Map<Integer, SoftReference<String>> cache =
+		new LinkedHashMap<Integer, SoftReference<String>>(256, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, SoftReference<String>> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+
+	/** Null until the first edit after mapping a file */
+	private List<Segment> overlay = new ArrayList<>();
+	/** The line each overlay segment starts at, then size; null when out of date */
+	private int[] starts;
+	private int size;
+	private int current = NO_NUM;
+
+	/** True if there is a mapped file and it has not been edited */
+	public boolean isUnedited() {
+		return overlay == null;
+	}
+
+	private byte byteAt(long pos) {
+		return regions[(int) (pos >>> REGION_SHIFT)].get((int) (pos & (REGION_SIZE - 1)));
+	}
+
+	/** Decode line ix of the mapped file */
+	private String mappedLine(int ix) {
+		SoftReference<String> ref = cache.get(ix);
+		String line = ref == null ? null : ref.get();
+		if (line != null) {
+			return line;
+		}
+		long start = lineStart(ix);
+		line = decode(start, lineEnd(start));
+		cache.put(ix, new SoftReference<>(line));
+		return line;
+	}
+
+	/** Decode mapped lines [from, to) into ret, walking the file just once */
+	private void addMappedLines(int from, int to, List<String> ret) {
+		long pos = lineStart(from);
+		for (int ix = from; ix < to; ix++) {
+			long end = lineEnd(pos);
+			ret.add(decode(pos, end));
+			pos = end + 1;
+		}
+	}
+
+	/** Find the start of line ix from the nearest sparse index entry */
+	private long lineStart(int ix) {
+		long start = sparse[ix / SPARSE];
+		for (int skip = ix % SPARSE; skip > 0; --skip) {
+			start = lineEnd(start) + 1;
+		}
+		return start;
+	}
+
+	/** Find the \n (or end of file) that ends the line starting at start */
+	private long lineEnd(long start) {
+		long pos = start;
+		while (pos < fileSize) {
+			MappedByteBuffer region = regions[(int) (pos >>> REGION_SHIFT)];
+			int offset = (int) (pos & (REGION_SIZE - 1));
+			int nl = NewlineScanner.indexOf(region, offset, region.limit());
+			if (nl >= 0) {
+				return pos - offset + nl;
+			}
+			pos += region.limit() - offset;
+		}
+		return fileSize;
+	}
+
+	/** Decode the bytes of one line, less any \r before its \n */
+	private String decode(long start, long end) {
+		if (end > start && byteAt(end - 1) == '\r') {
+			--end;
+		}
+		byte[] bytes = new byte[(int) (end - start)];
+		for (int i = 0; i < bytes.length; ) {
+			ByteBuffer region = regions[(int) ((start + i) >>> REGION_SHIFT)].duplicate();
+			region.position((int) ((start + i) & (REGION_SIZE - 1)));
+			int n = Math.min(bytes.length - i, region.remaining());
+			region.get(bytes, i, n);
+			i += n;
+		}
+		return new String(bytes, charset);
+	}
+
+	/**
+	 * Map the file and build the sparse index, in one pass over it,
+	 * or from the file's LineOffsetIndex if it has an up-to-date one.
+	 */
+	private void mapFile(String fileName) throws IOException {
+		Path path = Paths.get(fileName);
+		LineOffsetIndex index;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			fileSize = channel.size();
+			regions = new MappedByteBuffer[(int) ((fileSize + REGION_SIZE - 1) >>> REGION_SHIFT)];
+			for (int r = 0; r < regions.length; r++) {
+				long pos = (long) r << REGION_SHIFT;
+				regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(REGION_SIZE, fileSize - pos));
+			}
+			index = LineOffsetIndex.load(path, channel);
+			if (index == null) {
+				index = scanLines();
+				LineOffsetIndex.save(path, channel, index);
+			}
+		}
+		int step = SPARSE / LineOffsetIndex.STRIDE;
+		sparse = new long[(index.starts.length + step - 1) / step];
+		for (int i = 0; i < sparse.length; i++) {
+			sparse[i] = index.starts[i * step];
+		}
+		mappedLines = index.lines;
+	}
+
+	/** Find where every line of the mapped file starts */
+	private LineOffsetIndex scanLines() {
+		LineOffsetIndex.Builder starts = new LineOffsetIndex.Builder();
+		boolean atLineStart = true;
+		for (int r = 0; r < regions.length; r++) {
+			MappedByteBuffer region = regions[r];
+			long base = (long) r << REGION_SHIFT;
+			int limit = region.limit();
+			for (int i = 0; i < limit; ) {
+				if (atLineStart) {
+					starts.lineAt(base + i);
+					atLineStart = false;
+				}
+				int nl = NewlineScanner.indexOf(region, i, limit);
+				if (nl < 0) {
+					break;
+				}
+				atLineStart = true;
+				i = nl + 1;
+			}
+		}
+		return starts.build();
+	}
+
+	/** Switch to the overlay, if not already done; called before every edit */
+	private void startEditing() {
+		if (overlay == null) {
+			overlay = new ArrayList<>();
+			if (mappedLines > 0) {
+				overlay.add(new MappedRun(0, mappedLines));
+			}
+		}
+	}
+
+	/** Rebuild the table of where each segment starts, if an edit has made it out of date */
+	private void index() {
+		if (starts == null) {
+			starts = new int[overlay.size() + 1];
+			int line = 0;
+			for (int s = 0; s < overlay.size(); s++) {
+				starts[s] = line;
+				line += overlay.get(s).count();
+			}
+			starts[overlay.size()] = line;
+		}
+	}
+
+	/** Return the index in overlay of the segment holding line ix, for ix < size */
+	private int segmentOf(int ix) {
+		index();
+		int s = Arrays.binarySearch(starts, 0, overlay.size(), ix);
+		return s >= 0 ? s : -s - 2;
+	}
+
+	/** Make sure a segment starts at line ix; return its index in overlay */
+	private int segmentAt(int ix) {
+		if (ix >= size) {
+			return overlay.size();
+		}
+		int s = segmentOf(ix);
+		if (starts[s] == ix) {
+			return s;
+		}
+		overlay.add(s + 1, overlay.get(s).splitAt(ix - starts[s]));
+		starts = null;
+		return s + 1;
+	}
+
+	/** If segments s-1 and s are both edited runs, make them one */
+	private void mergeAt(int s) {
+		if (s > 0 && s < overlay.size() &&
+				overlay.get(s - 1) instanceof EditedRun && overlay.get(s) instanceof EditedRun) {
+			((EditedRun) overlay.get(s - 1)).lines.addAll(((EditedRun) overlay.remove(s)).lines);
+			starts = null;
+		}
+	}
+
+	private void insert(int ix, List<String> newLines) {
+		if (newLines.isEmpty()) {
+			return;
+		}
+		startEditing();
+		int s = segmentAt(ix);
+		overlay.add(s, new EditedRun(new ArrayList<>(newLines)));
+		starts = null;
+		mergeAt(s + 1);
+		mergeAt(s);
+		size += newLines.size();
+	}
+
+	private void remove(int from, int to) {
+		startEditing();
+		int a = segmentAt(from);
+		int b = segmentAt(to);
+		overlay.subList(a, b).clear();
+		starts = null;
+		mergeAt(a);
+		size -= to - from;
+	}
+
+	/** Replace lines [from, to) of the overlay with the segments runs */
+	private void splice(int from, int to, List<Segment> runs) {
+		startEditing();
+		int a = segmentAt(from);
+		int b = segmentAt(to);
+		List<Segment> range = overlay.subList(a, b);
+		range.clear();
+		range.addAll(runs);
+		starts = null;
+		mergeAt(a + runs.size());
+		mergeAt(a);
+	}
+
+	/** Add mapped line ix to the end of runs, in the last run if it follows on from it */
+	private void appendMapped(List<Segment> runs, int ix) {
+		Segment last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+		if (last instanceof MappedRun && ((MappedRun) last).first + last.count() == ix) {
+			++((MappedRun) last).count;
+		} else {
+			runs.add(new MappedRun(ix, 1));
+		}
+	}
+
+	/** Add an edited line to the end of runs, in the last run if it is an edited one */
+	private void appendEdited(List<Segment> runs, String line) {
+		Segment last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+		if (last instanceof EditedRun) {
+			((EditedRun) last).lines.add(line);
+		} else {
+			runs.add(new EditedRun(new ArrayList<>(Collections.singletonList(line))));
+		}
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		insert(size, Collections.singletonList(newLine));
+		current = size;
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		addLines(current, newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		insert(start, newLines);
+		current = start + newLines.size();
+	}
+
+	/** The new lines take the place of the old in one splice of the overlay */
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.max(from, Math.min(end, size));
+		if (from < to || !newLines.isEmpty()) {
+			splice(from, to, newLines.isEmpty() ? Collections.emptyList() :
+				Collections.singletonList(new EditedRun(new ArrayList<>(newLines))));
+			size += newLines.size() - (to - from);
+		}
+		current = from + newLines.size();
+	}
+
+	/** Moving lines moves their segments; no line is decoded */
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size);
+		int after = BufferUtils.moveTarget(start, end, dest);
+		int from = BufferUtils.lineNumToIndex(start);
+		if (from < end) {
+			startEditing();
+			List<Segment> range = overlay.subList(segmentAt(from), segmentAt(end));
+			List<Segment> block = new ArrayList<>(range);
+			remove(from, end);
+			splice(after, after, block);
+			size += end - from;
+		}
+		current = after + Math.max(end - from, 0);
+	}
+
+	/** Copying lines copies their segments; mapped lines stay mapped */
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		end = Math.min(end, size);
+		int from = BufferUtils.lineNumToIndex(start);
+		if (from < end) {
+			startEditing();
+			List<Segment> block = new ArrayList<>();
+			for (Segment seg : overlay.subList(segmentAt(from), segmentAt(end))) {
+				block.add(seg.copy());
+			}
+			splice(dest, dest, block);
+			size += end - from;
+		}
+		current = dest + Math.max(end - from, 0);
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.min(end, size);
+		if (from < to) {
+			remove(from, to);
+		}
+		current = Math.min(start, size);
+	}
+
+	@Override
+	public void clearBuffer() {
+		regions = new MappedByteBuffer[0];
+		sparse = new long[0];
+		fileSize = mappedLines = size = 0;
+		cache.clear();
+		overlay = new ArrayList<>();
+		starts = null;
+		current = NO_NUM;
+	}
+
+	/**
+	 * Map the file if the buffer is empty; otherwise, read it
+	 * into the overlay after the last line, as for the other buffers.
+	 */
+	@Override
+	public void readBuffer(String fileName) {
+		int nl = 0;
+		long nch = 0;
+		try {
+			if (size == 0 && !Compression.isGzip(Paths.get(fileName))) {
+				clearBuffer();
+				mapFile(fileName);
+				overlay = null;
+				nl = size = current = mappedLines;
+				nch = fileSize;
+			} else {
+				List<String> newLines = new ArrayList<>();
+				try (LineReader rdr = new LineReader(fileName)) {
+					String s;
+					while ((s = rdr.readLine()) != null) {
+						newLines.add(s);
+						nl++; nch += s.length();
+					}
+				}
+				addLines(size, newLines);
+			}
+		} catch (NoSuchFileException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		System.out.println(String.format("%dL, %dC", nl, nch));
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return current;
+	}
+
+	@Override
+	public String getCurrentLine() {
+		return getLine(current);
+	}
+
+	@Override
+	public int goToLine(int n) {
+		if (current == NO_NUM) {
+			return NO_NUM;
+		}
+		return current = Math.min(n, size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getLine(int ln) {
+		int ix = BufferUtils.lineNumToIndex(ln);
+		if (ix >= size) {
+			throw new IndexOutOfBoundsException("Line " + ln + " of " + size);
+		}
+		if (overlay == null) {
+			return mappedLine(ix);
+		}
+		int s = segmentOf(ix);
+		return overlay.get(s).get(ix - starts[s]);
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		int from = BufferUtils.lineNumToIndex(start), to = Math.min(end, size);
+		if (from >= to) {
+			return Collections.emptyList();
+		}
+		List<String> ret = new ArrayList<>(to - from);
+		if (overlay == null) {
+			addMappedLines(from, to, ret);
+			return ret;
+		}
+		for (int s = segmentOf(from), line = starts[s]; line < to; line += overlay.get(s++).count()) {
+			Segment seg = overlay.get(s);
+			seg.addTo(Math.max(from - line, 0), Math.min(to - line, seg.count()), ret);
+		}
+		return ret;
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		replace(oldRE, newStr, all, current, current);
+	}
+
+	/**
+	 * Replace in a range; only lines that change are put into the overlay,
+	 * and the range is rebuilt as a whole, the unchanged mapped lines as
+	 * runs of the mapped file and the rest as few edited runs as can be.
+	 * Mapped lines are decoded a batch at a time so a large range needn't
+	 * fit in memory.
+	 */
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		final int BATCH = 4096;
+		int from = BufferUtils.lineNumToIndex(Math.max(startLine, 1)), to = Math.min(endLine, size);
+		if (from >= to) {
+			return;
+		}
+		Matcher m = Pattern.compile(oldRE).matcher("");
+		List<Segment> segs = overlay != null ? overlay :
+			Collections.singletonList(new MappedRun(0, mappedLines));
+		int s = overlay != null ? segmentOf(from) : 0;
+		List<Segment> runs = new ArrayList<>();
+		boolean changed = false;
+		List<String> batch = new ArrayList<>();
+		for (int line = overlay != null ? starts[s] : 0; line < to; line += segs.get(s++).count()) {
+			Segment seg = segs.get(s);
+			int lo = Math.max(from - line, 0), hi = Math.min(to - line, seg.count());
+			for (int i = lo; i < hi; i += BATCH) {
+				batch.clear();
+				seg.addTo(i, Math.min(i + BATCH, hi), batch);
+				for (int k = 0; k < batch.size(); k++) {
+					String target = batch.get(k);
+					String result = all ? m.reset(target).replaceAll(newStr) : m.reset(target).replaceFirst(newStr);
+					if (!result.equals(target)) {
+						changed = true;
+						appendEdited(runs, result);
+					} else if (seg instanceof MappedRun) {
+						appendMapped(runs, ((MappedRun) seg).first + i + k);
+					} else {
+						appendEdited(runs, target);
+					}
+				}
+			}
+		}
+		if (changed) {
+			splice(from, to, runs);
+		}
+	}
+}
@@ -1,9 +1,5 @@
 package edj;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.List;
 
 public class BufferPrimsNoUndo extends AbstractBufferPrims {
@@ -22,28 +18,18 @@ public class BufferPrimsNoUndo extends AbstractBufferPrims {
 		current = NO_NUM;
 	}
 	
-	private int nl = 0, nch = 0; // Only accessed single-threadedly
-
+	/** Lines are read and decoded in parallel by a ParallelLineLoader */
 	public void readBuffer(String fileName) {
-		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName))) {
-			clearBuffer();
-			bufferedReader.lines().forEach((s) -> {
-				nl++; nch += s.length();
-				buffer.add(s);
-				current++;
-			});
-		} catch (FileNotFoundException e) {
-			throw new BufferException("File " + fileName + " not found", e);
-		} catch (IOException e) {
-			throw new BufferException("File " + fileName + " failed during read", e);
+		List<String> lines = loadFile(fileName, true);
+		clearBuffer();
+		buffer.addAll(lines);
+		current = lines.size();
+		println(String.format("%dL, %dC", lines.size(), BufferUtils.charCount(lines)));
+		if (interner != null) {
+			println(interner.toString());
 		}
-		println(String.format("%dL, %dC", nl, nch));
 	}
 	
-	public void writeBuffer(String fileName) {
-		throw new UnsupportedOperationException();
-	}
-
 	public void undo() {
 		throw new UnsupportedOperationException();
 	}
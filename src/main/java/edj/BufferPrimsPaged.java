@@ -0,0 +1,682 @@
+package edj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Implement BufferPrims as a list of fixed-size pages of lines, only some
+ * of which are in memory at once, for files bigger than the heap.
+ *
+ * Reading a file just makes one pass to find where each page starts;
+ * a page's lines are read in from the file when first touched ("faulted").
+ * Resident pages are kept in LRU order, and when their estimated size
+ * exceeds the memory ceiling, the least recently used are evicted:
+ * clean pages are simply dropped, modified ("dirty") ones are first
+ * written to a temporary spill file, from which they are faulted back in.
+ * Fault and eviction counts are kept for sizing the ceiling.
+ *
+ * A page's record in the spill file is dead once the page is changed or
+ * deleted; when more than half the file is dead, the live records are
+ * slid down over the dead ones and the file cut short, so it stays
+ * within about twice the size of the pages spilled.
+ */
+public class BufferPrimsPaged implements BufferPrims {
+
+	/** Lines per page as read; edited pages may grow to twice this before splitting */
+	static final int PAGE_LINES = 4096;
+	public static final long DEFAULT_MEMORY_CEILING = 64L * 1024 * 1024;
+
+	private class Page {
+		int count;
+		/** The lines, or null if not resident */
+		List<String> lines;
+		long bytes;					// estimated heap size when resident
+		boolean dirty;
+		/** Where the lines are, in the source file or the spill file */
+		long offset = -1, length;
+		boolean inSpill;
+	}
+
+	private final long memoryCeiling;
+	private final Charset charset = Charset.defaultCharset();
+	private RandomAccessFile source, spill;
+	private File spillFile;
+	/** Bytes of the spill file that no page's record is in any more */
+	private long spillDead;
+
+	private final List<Page> pages = new ArrayList<>();
+	/** firstLine of each page, good for pages [0, valid) */
+	private int[] firstLine = new int[16];
+	private int valid;
+
+	private final LinkedHashMap<Page, Page> resident = new LinkedHashMap<>(16, 0.75f, true);
+	private long residentBytes;
+	private long pageFaults, evictions;
+
+	private int size;
+	private int current = NO_NUM;
+
+	public BufferPrimsPaged() {
+		this(DEFAULT_MEMORY_CEILING);
+	}
+
+	/** @param memoryCeiling Approximate bytes of lines to keep in memory */
+	public BufferPrimsPaged(long memoryCeiling) {
+		this.memoryCeiling = memoryCeiling;
+	}
+
+	public long getPageFaults() {
+		return pageFaults;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public int getResidentPages() {
+		return resident.size();
+	}
+
+	/** The size of the spill file, dead records included */
+	long getSpillBytes() {
+		try {
+			return spill == null ? 0 : spill.length();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static long estimate(String s) {
+		return 48 + 2L * s.length();
+	}
+
+	/** Bring the page in if need be, and mark it most recently used */
+	private List<String> fault(Page p) {
+		if (p.lines != null) {
+			resident.get(p);
+			return p.lines;
+		}
+		++pageFaults;
+		try {
+			p.lines = p.inSpill ? readSpill(p) : readSource(p);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Page fault failed", e);
+		}
+		p.bytes = 0;
+		for (String s : p.lines) {
+			p.bytes += estimate(s);
+		}
+		resident.put(p, p);
+		residentBytes += p.bytes;
+		evict(p);
+		return p.lines;
+	}
+
+	/** Evict least recently used pages until under the ceiling, sparing 'keep' */
+	private void evict(Page keep) {
+		Iterator<Page> it = resident.keySet().iterator();
+		while (residentBytes > memoryCeiling && it.hasNext()) {
+			Page p = it.next();
+			if (p == keep) {
+				continue;
+			}
+			if (p.dirty) {
+				try {
+					writeSpill(p);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Page eviction failed", e);
+				}
+			}
+			p.lines = null;
+			residentBytes -= p.bytes;
+			it.remove();
+			++evictions;
+		}
+	}
+
+	/** Note that a resident page's lines have been changed */
+	private void modified(Page p) {
+		freeSpill(p);
+		p.dirty = true;
+		p.count = p.lines.size();
+		residentBytes -= p.bytes;
+		p.bytes = 0;
+		for (String s : p.lines) {
+			p.bytes += estimate(s);
+		}
+		residentBytes += p.bytes;
+	}
+
+	private List<String> readSource(Page p) throws IOException {
+		byte[] bytes = new byte[(int) p.length];
+		source.seek(p.offset);
+		source.readFully(bytes);
+		List<String> lines = new ArrayList<>(p.count);
+		for (int start = 0; start < bytes.length; ) {
+			int i = NewlineScanner.indexOf(bytes, start, bytes.length);
+			if (i < 0) {
+				i = bytes.length;
+			}
+			int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+			lines.add(new String(bytes, start, end - start, charset));
+			start = i + 1;
+		}
+		return lines;
+	}
+
+	private List<String> readSpill(Page p) throws IOException {
+		byte[] bytes = new byte[(int) p.length];
+		spill.seek(p.offset);
+		spill.readFully(bytes);
+		ByteBuffer bb = ByteBuffer.wrap(bytes);
+		List<String> lines = new ArrayList<>(p.count);
+		for (int i = 0; i < p.count; i++) {
+			int len = bb.getInt();
+			lines.add(new String(bytes, bb.position(), len, StandardCharsets.UTF_8));
+			bb.position(bb.position() + len);
+		}
+		return lines;
+	}
+
+	/** The page's record in the spill file, if it has one, is no longer wanted */
+	private void freeSpill(Page p) {
+		if (p.inSpill) {
+			spillDead += p.length;
+			p.inSpill = false;
+		}
+	}
+
+	private void writeSpill(Page p) throws IOException {
+		freeSpill(p);
+		if (spill == null) {
+			spillFile = File.createTempFile("edj", ".pages");
+			spillFile.deleteOnExit();
+			spill = new RandomAccessFile(spillFile, "rw");
+		} else if (spillDead > spill.length() / 2) {
+			compactSpill();
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		for (String s : p.lines) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			dos.writeInt(b.length);
+			dos.write(b);
+		}
+		p.offset = spill.length();
+		p.length = bos.size();
+		p.inSpill = true;
+		p.dirty = false;
+		spill.seek(p.offset);
+		spill.write(bos.toByteArray());
+	}
+
+	/**
+	 * Slide the live records in the spill file down over the dead ones, in
+	 * the order they are in the file, so none is overwritten before it is
+	 * moved, and cut off what is left.
+	 */
+	private void compactSpill() throws IOException {
+		List<Page> spilled = new ArrayList<>();
+		for (Page p : pages) {
+			if (p.inSpill) {
+				spilled.add(p);
+			}
+		}
+		spilled.sort((a, b) -> Long.compare(a.offset, b.offset));
+		long end = 0;
+		for (Page p : spilled) {
+			if (p.offset != end) {
+				byte[] bytes = new byte[(int) p.length];
+				spill.seek(p.offset);
+				spill.readFully(bytes);
+				spill.seek(end);
+				spill.write(bytes);
+				p.offset = end;
+			}
+			end += p.length;
+		}
+		spill.setLength(end);
+		spillDead = 0;
+	}
+
+	private void validate() {
+		if (firstLine.length < pages.size()) {
+			firstLine = Arrays.copyOf(firstLine, pages.size() * 2);
+		}
+		for (int i = valid; i < pages.size(); i++) {
+			firstLine[i] = i == 0 ? 0 : firstLine[i - 1] + pages.get(i - 1).count;
+		}
+		valid = pages.size();
+	}
+
+	/** Find the page holding line ix (0-based); ix == size gives the last page */
+	private int pageOf(int ix) {
+		validate();
+		int lo = 0, hi = pages.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (firstLine[mid] <= ix) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	private void newPage(int at, List<String> lines) {
+		Page p = new Page();
+		p.lines = lines;
+		p.count = lines.size();
+		pages.add(at, p);
+		resident.put(p, p);
+		modified(p);
+	}
+
+	private void insert(int ix, List<String> newLines) {
+		if (newLines.isEmpty()) {
+			return;
+		}
+		if (pages.isEmpty()) {
+			newPage(0, new ArrayList<>(newLines));
+		} else {
+			int pn = pageOf(ix);
+			Page p = pages.get(pn);
+			List<String> lines = fault(p);
+			lines.addAll(ix - firstLine[pn], newLines);
+			modified(p);
+			if (p.count > 2 * PAGE_LINES) {
+				// Split the page, keeping the first PAGE_LINES here
+				List<String> rest = lines.subList(PAGE_LINES, lines.size());
+				for (int i = 0, at = pn + 1; i < rest.size(); i += PAGE_LINES) {
+					newPage(at++, new ArrayList<>(rest.subList(i, Math.min(i + PAGE_LINES, rest.size()))));
+				}
+				rest.clear();
+				modified(p);
+			}
+			valid = Math.min(valid, pn);
+		}
+		size += newLines.size();
+		evict(null);
+	}
+
+	private void remove(int from, int to) {
+		int pn = pageOf(from);
+		valid = Math.min(valid, pn);
+		int line = firstLine[pn];
+		while (from < to) {
+			Page p = pages.get(pn);
+			int lo = from - line, hi = Math.min(to - line, p.count);
+			if (lo == 0 && hi == p.count) {
+				// Whole page goes, without faulting it in
+				freeSpill(p);
+				if (p.lines != null) {
+					resident.remove(p);
+					residentBytes -= p.bytes;
+				}
+				pages.remove(pn);
+			} else {
+				fault(p).subList(lo, hi).clear();
+				modified(p);
+				line += p.count;
+				++pn;
+			}
+			size -= hi - lo;
+			to -= hi - lo;
+		}
+	}
+
+	/** Make sure a page starts at line ix, splitting the page it is in; return its index in pages */
+	private int pageAt(int ix) {
+		if (ix >= size) {
+			return pages.size();
+		}
+		int pn = pageOf(ix);
+		int k = ix - firstLine[pn];
+		if (k == 0) {
+			return pn;
+		}
+		Page p = pages.get(pn);
+		List<String> rest = fault(p).subList(k, p.count);
+		newPage(pn + 1, new ArrayList<>(rest));
+		rest.clear();
+		modified(p);
+		valid = Math.min(valid, pn);
+		return pn + 1;
+	}
+
+	/** A copy of a page: one still as read from the file shares its lines there */
+	private Page copyOf(Page p) {
+		Page q = new Page();
+		q.count = p.count;
+		if (!p.dirty && !p.inSpill && p.offset >= 0) {
+			q.offset = p.offset;
+			q.length = p.length;
+		} else {
+			q.lines = new ArrayList<>(fault(p));
+		}
+		return q;
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		insert(size, Collections.singletonList(newLine));
+		current = size;
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		addLines(current, newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		insert(start, newLines);
+		current = start + newLines.size();
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.min(end, size);
+		if (from < to) {
+			remove(from, to);
+		}
+		current = Math.min(start, size);
+	}
+
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.min(end, size);
+		if (from < to) {
+			remove(from, to);
+		}
+		insert(Math.min(from, size), newLines);
+		current = Math.min(from, size) + newLines.size();
+	}
+
+	/** Moving lines moves their pages; only the pages at either end are read in, to be split */
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size);
+		int after = BufferUtils.moveTarget(start, end, dest);
+		int from = BufferUtils.lineNumToIndex(start);
+		int n = Math.max(end - from, 0);
+		if (n > 0) {
+			int a = pageAt(from);
+			List<Page> range = pages.subList(a, pageAt(end));
+			List<Page> block = new ArrayList<>(range);
+			range.clear();
+			size -= n;
+			valid = Math.min(valid, a);
+			int at = pageAt(after);
+			pages.addAll(at, block);
+			size += n;
+			valid = Math.min(valid, at);
+			evict(null);
+		}
+		current = after + n;
+	}
+
+	/** Copying lines copies their pages; pages not yet changed are shared with the file, not read */
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		end = Math.min(end, size);
+		int from = BufferUtils.lineNumToIndex(start);
+		int n = Math.max(end - from, 0);
+		if (n > 0) {
+			int a = pageAt(from), b = pageAt(end);
+			List<Page> copies = new ArrayList<>();
+			for (int pn = a; pn < b; pn++) {
+				copies.add(copyOf(pages.get(pn)));
+			}
+			int at = pageAt(dest);
+			pages.addAll(at, copies);
+			for (Page q : copies) {
+				if (q.lines != null) {
+					resident.put(q, q);
+					modified(q);
+				}
+			}
+			size += n;
+			valid = Math.min(valid, at);
+			evict(null);
+		}
+		current = dest + n;
+	}
+
+	@Override
+	public void clearBuffer() {
+		try {
+			if (source != null) {
+				source.close();
+			}
+			if (spill != null) {
+				spill.setLength(0);
+			}
+			spillDead = 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		source = null;
+		pages.clear();
+		valid = 0;
+		resident.clear();
+		residentBytes = 0;
+		size = 0;
+		current = NO_NUM;
+	}
+
+	/**
+	 * Read a file; if the buffer is empty, this just finds where each page
+	 * starts, leaving the lines to be faulted in as needed.
+	 */
+	@Override
+	public void readBuffer(String fileName) {
+		int nl = 0;
+		long nch = 0;
+		try {
+			if (Compression.isGzip(Paths.get(fileName))) {
+				// Can't page from a compressed file, so add it a page at a time, to be spilled as need be
+				List<String> page = new ArrayList<>(PAGE_LINES);
+				try (LineReader rdr = new LineReader(fileName)) {
+					String s;
+					while ((s = rdr.readLine()) != null) {
+						page.add(s);
+						nch += s.length();
+						if (page.size() == PAGE_LINES) {
+							insert(size, page);
+							nl += page.size();
+							page = new ArrayList<>(PAGE_LINES);
+						}
+					}
+				}
+				insert(size, page);
+				nl += page.size();
+				current = size;
+			} else if (size == 0) {
+				clearBuffer();
+				nch = indexFile(fileName);
+				nl = current = size;
+				source = new RandomAccessFile(fileName, "r");
+			} else {
+				BufferPrimsPaged tmp = new BufferPrimsPaged();
+				try {
+					tmp.source = new RandomAccessFile(fileName, "r");
+					nch = tmp.indexFile(fileName);
+					nl = tmp.size;
+					for (Page p : tmp.pages) {
+						insert(size, tmp.fault(p));
+					}
+				} finally {
+					tmp.clearBuffer();		// closes the file, however the read went
+				}
+			}
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		System.out.println(String.format("%dL, %dC", nl, nch));
+	}
+
+	/**
+	 * Set up the (non-resident) pages, from the file's LineOffsetIndex if
+	 * it has an up-to-date one, else by one pass over it; returns its length.
+	 */
+	private long indexFile(String fileName) throws IOException {
+		Path path = Paths.get(fileName);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			LineOffsetIndex index = LineOffsetIndex.load(path, channel);
+			if (index == null) {
+				index = scanLines(channel);
+				LineOffsetIndex.save(path, channel, index);
+			}
+			for (int first = 0; first < index.lines; first += PAGE_LINES) {
+				int next = first + PAGE_LINES;
+				long start = index.starts[first / LineOffsetIndex.STRIDE];
+				long end = next < index.lines ? index.starts[next / LineOffsetIndex.STRIDE] : fileSize;
+				addSourcePage(start, end - start, Math.min(PAGE_LINES, index.lines - first));
+			}
+			return fileSize;
+		}
+	}
+
+	/** Find where every line of the file starts */
+	private static LineOffsetIndex scanLines(FileChannel channel) throws IOException {
+		LineOffsetIndex.Builder starts = new LineOffsetIndex.Builder();
+		long pos = 0;
+		boolean atLineStart = true;
+		ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+		byte[] block = buf.array();
+		int n;
+		while ((n = channel.read(buf.clear(), pos)) > 0) {
+			for (int i = 0; i < n; ) {
+				if (atLineStart) {
+					starts.lineAt(pos + i);
+					atLineStart = false;
+				}
+				int nl = NewlineScanner.indexOf(block, i, n);
+				if (nl < 0) {
+					break;
+				}
+				atLineStart = true;
+				i = nl + 1;
+			}
+			pos += n;
+		}
+		return starts.build();
+	}
+
+	private void addSourcePage(long offset, long length, int count) {
+		Page p = new Page();
+		p.offset = offset;
+		p.length = length;
+		p.count = count;
+		pages.add(p);
+		size += count;
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return current;
+	}
+
+	@Override
+	public String getCurrentLine() {
+		return getLine(current);
+	}
+
+	@Override
+	public int goToLine(int n) {
+		if (current == NO_NUM) {
+			return NO_NUM;
+		}
+		return current = Math.min(n, size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getLine(int ln) {
+		int ix = BufferUtils.lineNumToIndex(ln);
+		if (ix >= size) {
+			throw new IndexOutOfBoundsException("Line " + ln + " of " + size);
+		}
+		int pn = pageOf(ix);
+		return fault(pages.get(pn)).get(ix - firstLine[pn]);
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		int from = BufferUtils.lineNumToIndex(start), to = Math.min(end, size);
+		if (from >= to) {
+			return Collections.emptyList();
+		}
+		List<String> ret = new ArrayList<>(to - from);
+		for (int pn = pageOf(from); pn < pages.size() && firstLine[pn] < to; pn++) {
+			int first = firstLine[pn];
+			List<String> lines = fault(pages.get(pn));
+			ret.addAll(lines.subList(Math.max(from - first, 0), Math.min(to - first, lines.size())));
+		}
+		return ret;
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		replace(oldRE, newStr, all, current, current);
+	}
+
+	/** Replace a page at a time, so only pages with changes become dirty */
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		int from = BufferUtils.lineNumToIndex(startLine), to = Math.min(endLine, size);
+		if (from >= to) {
+			return;
+		}
+		for (int pn = pageOf(from); pn < pages.size() && firstLine[pn] < to; pn++) {
+			int first = firstLine[pn];
+			Page p = pages.get(pn);
+			List<String> lines = fault(p);
+			boolean changed = false;
+			for (int i = Math.max(from - first, 0); i < Math.min(to - first, lines.size()); i++) {
+				String target = lines.get(i);
+				String result = all ?
+						target.replaceAll(oldRE, newStr) :
+						target.replaceFirst(oldRE, newStr);
+				if (!result.equals(target)) {
+					lines.set(i, result);
+					changed = true;
+				}
+			}
+			if (changed) {
+				modified(p);
+			}
+		}
+		evict(null);
+	}
+}
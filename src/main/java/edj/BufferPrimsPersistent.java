@@ -0,0 +1,245 @@
+package edj;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Implement BufferPrims with a PersistentLineList, so that every
+ * edit makes a new version of the buffer sharing structure with
+ * the previous one. Undo just keeps the previous version: nothing
+ * is copied, however many lines the edit touched, and undoing
+ * is just going back to it. Snapshots (e.g., for an autosave
+ * or a reader in another thread) are likewise free; see snapshot().
+ */
+public class BufferPrimsPersistent implements BufferPrims, UndoManagerEdj {
+
+	/** A version to return to, or an action to run, on undo */
+	private static class UndoEntry {
+		final String name;
+		final PersistentLineList lines;
+		final int current;
+		final Runnable r;
+
+		UndoEntry(String name, PersistentLineList lines, int current, Runnable r) {
+			this.name = name;
+			this.lines = lines;
+			this.current = current;
+			this.r = r;
+		}
+	}
+
+	private volatile PersistentLineList lines = PersistentLineList.EMPTY;
+	private int current = NO_NUM;
+
+	private final Stack<UndoEntry> undoables = new Stack<>();
+
+	/**
+	 * The buffer as of now; it will never change, so it may be
+	 * read at leisure, from any thread, while editing continues.
+	 */
+	public PersistentLineList snapshot() {
+		return lines;
+	}
+
+	/** Install a new version, remembering the old one for undo */
+	private void update(String name, PersistentLineList newLines, int newCurrent) {
+		undoables.push(new UndoEntry(name, lines, current, null));
+		lines = newLines;
+		current = newCurrent;
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		update("add 1 line", lines.insert(size(), Collections.singletonList(newLine)), size() + 1);
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		addLines(current, newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		update("add " + newLines.size() + " lines",
+			lines.insert(Math.min(start, size()), newLines), start + newLines.size());
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.min(end, size());
+		if (from >= to) {
+			return;
+		}
+		PersistentLineList newLines = lines.remove(from, to);
+		update("delete lines " + start + " to " + end, newLines, Math.min(start, newLines.size()));
+	}
+
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.max(from, Math.min(end, size()));
+		update("change lines " + start + " to " + end,
+			lines.replace(from, to, newLines), from + newLines.size());
+	}
+
+	/** Moving lines shares the moved subtree rather than copying the lines */
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		int after = BufferUtils.moveTarget(start, end, dest);
+		int from = BufferUtils.lineNumToIndex(start);
+		PersistentLineList block = lines.range(from, end);
+		update("move lines " + start + " to " + end,
+			lines.remove(from, end).insert(after, block), after + block.size());
+	}
+
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		PersistentLineList block = lines.range(BufferUtils.lineNumToIndex(start), Math.min(end, size()));
+		update("copy lines " + start + " to " + end, lines.insert(dest, block), dest + block.size());
+	}
+
+	@Override
+	public void clearBuffer() {
+		lines = PersistentLineList.EMPTY;
+		current = NO_NUM;
+		undoables.clear();		// can't undo after this!
+	}
+
+	@Override
+	public void readBuffer(String fileName) {
+		List<String> newLines = new ArrayList<>();
+		long nch = 0;
+		try (LineReader rdr = new LineReader(fileName)) {
+			String s;
+			while ((s = rdr.readLine()) != null) {
+				newLines.add(s);
+				nch += s.length();
+			}
+		} catch (FileNotFoundException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		update("read", lines.insert(size(), newLines), size() + newLines.size());
+		System.out.println(String.format("%dL, %dC", newLines.size(), nch));
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return current;
+	}
+
+	@Override
+	public String getCurrentLine() {
+		return getLine(current);
+	}
+
+	@Override
+	public int goToLine(int n) {
+		if (current == NO_NUM) {
+			return NO_NUM;
+		}
+		return current = Math.min(n, size());
+	}
+
+	@Override
+	public int size() {
+		return lines.size();
+	}
+
+	@Override
+	public String getLine(int ln) {
+		return lines.get(BufferUtils.lineNumToIndex(ln));
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		if (size() == 0) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(lines.subList(BufferUtils.lineNumToIndex(start), Math.min(end, size())));
+	}
+
+	@Override
+	public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		lines.range(BufferUtils.lineNumToIndex(start), Math.min(end, size())).forEach(action);
+	}
+
+	/**
+	 * Streams a snapshot, so it may split for parallel use,
+	 * and is unaffected by any edits made while it runs.
+	 */
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		return Collections.<CharSequence>unmodifiableList(
+			lines.range(BufferUtils.lineNumToIndex(start), Math.min(end, size()))).stream();
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		replace(oldRE, newStr, all, current, current);
+	}
+
+	/** Replace in a range of lines; the old version is kept, not the old lines */
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		int from = BufferUtils.lineNumToIndex(startLine);
+		int to = Math.min(endLine, size());
+		PersistentLineList newLines = lines;
+		for (int i = from; i < to; i++) {
+			String target = newLines.get(i);
+			String result = all ?
+					target.replaceAll(oldRE, newStr) :
+					target.replaceFirst(oldRE, newStr);
+			if (!result.equals(target)) {
+				newLines = newLines.with(i, result);
+			}
+		}
+		if (newLines != lines) {
+			update(String.format("replace %s with %s in lines %d to %d",
+					oldRE, newStr, startLine, endLine), newLines, current);
+		}
+	}
+
+	@Override
+	public void pushUndo(String name, Runnable r) {
+		undoables.push(new UndoEntry(name, null, 0, r));
+	}
+
+	@Override
+	public void popUndo() {
+		if (!undoables.isEmpty()) {
+			undoables.pop();
+		}
+	}
+
+	@Override
+	public boolean isUndoSupported() {
+		return true;
+	}
+
+	@Override
+	public void undo() {
+		if (undoables.empty()) {
+			System.out.println("?Nothing to undo");
+			return;
+		}
+		UndoEntry undoable = undoables.pop();
+		if (undoable.r != null) {
+			int depth = undoables.size();
+			undoable.r.run();
+			undoables.setSize(depth);	// drop any undos the action made
+			return;
+		}
+		lines = undoable.lines;
+		current = undoable.current;
+	}
+}
@@ -0,0 +1,445 @@
+package edj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implement BufferPrims with a piece table, for editing large files.
+ * The file as read is kept unchanged in 'original'; all new text
+ * is appended to 'added', and is never removed from it.
+ * The buffer contents are described by a sequence of "pieces",
+ * each of which is a run of whole lines in one of those two.
+ * The pieces are kept in a treap (randomized balanced binary tree)
+ * keyed implicitly by line count, so that finding, inserting and
+ * deleting lines all cost O(log n) in the number of pieces,
+ * instead of shifting the tail of an ArrayList.
+ */
+public class BufferPrimsPieceTable implements BufferPrims {
+
+	/** One run of lines in either the original or the added text */
+	private static class Piece {
+		final boolean inAdded;
+		final int first;		// index into origStarts or addStarts
+		final int count;		// number of lines in this piece
+		final int priority = ThreadLocalRandom.current().nextInt();
+		Piece left, right;
+		int lines;				// total lines in this subtree
+
+		Piece(boolean inAdded, int first, int count) {
+			this.inAdded = inAdded;
+			this.first = first;
+			this.count = count;
+			this.lines = count;
+		}
+	}
+
+	/** The file as read, never modified */
+	private String original = "";
+	/** Start offset of each line in original, plus one sentinel */
+	private int[] origStarts = new int[0];
+
+	/** All text ever added, append-only; every line ends with \n */
+	private final StringBuilder added = new StringBuilder();
+	/** Start offset of each line in added */
+	private int[] addStarts = new int[1024];
+	private int addCount;
+
+	private Piece root;
+	private int current = NO_NUM;
+
+	private static int lines(Piece p) {
+		return p == null ? 0 : p.lines;
+	}
+
+	private static Piece update(Piece p) {
+		if (p != null) {
+			p.lines = lines(p.left) + p.count + lines(p.right);
+		}
+		return p;
+	}
+
+	private static Piece merge(Piece a, Piece b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			return update(a);
+		}
+		b.left = merge(a, b.left);
+		return update(b);
+	}
+
+	/**
+	 * Split the tree so the first k lines are in result[0] and the
+	 * rest in result[1], cutting a piece in two if need be.
+	 */
+	private static Piece[] split(Piece p, int k) {
+		if (p == null) {
+			return new Piece[2];
+		}
+		int leftLines = lines(p.left);
+		if (k <= leftLines) {
+			Piece[] parts = split(p.left, k);
+			p.left = parts[1];
+			parts[1] = update(p);
+			return parts;
+		}
+		if (k >= leftLines + p.count) {
+			Piece[] parts = split(p.right, k - leftLines - p.count);
+			p.right = parts[0];
+			parts[0] = update(p);
+			return parts;
+		}
+		// Split point falls inside this piece
+		int n = k - leftLines;
+		Piece head = new Piece(p.inAdded, p.first, n);
+		Piece tail = new Piece(p.inAdded, p.first + n, p.count - n);
+		return new Piece[] { merge(p.left, head), merge(tail, p.right) };
+	}
+
+	/** Append the lines to the 'added' text and return a Piece for them */
+	private Piece appendLines(List<String> newLines) {
+		int first = addCount;
+		for (String s : newLines) {
+			if (addCount == addStarts.length) {
+				addStarts = Arrays.copyOf(addStarts, addCount * 2);
+			}
+			addStarts[addCount++] = added.length();
+			added.append(s).append('\n');
+		}
+		return new Piece(true, first, newLines.size());
+	}
+
+	/** Get the text of the n'th line of the given piece */
+	private String lineOf(Piece p, int n) {
+		int ix = p.first + n;
+		if (p.inAdded) {
+			int end = ix + 1 < addCount ? addStarts[ix + 1] : added.length();
+			return added.substring(addStarts[ix], end - 1);
+		}
+		return lineAt(original, origStarts, ix);
+	}
+
+	/** Like lineOf, but a view of the text instead of a copy */
+	private CharSequence viewOf(Piece p, int n) {
+		int ix = p.first + n;
+		if (p.inAdded) {
+			int end = ix + 1 < addCount ? addStarts[ix + 1] : added.length();
+			return CharBuffer.wrap(added, addStarts[ix], end - 1);
+		}
+		int start = origStarts[ix], end = origStarts[ix + 1] - 1;
+		if (end > start && original.charAt(end - 1) == '\r') {
+			--end;
+		}
+		return CharBuffer.wrap(original, start, end);
+	}
+
+	/** Get line ix of a file's text, dropping any \r of a \r\n */
+	private static String lineAt(String text, int[] starts, int ix) {
+		int start = starts[ix], end = starts[ix + 1] - 1;
+		if (end > start && text.charAt(end - 1) == '\r') {
+			--end;
+		}
+		return text.substring(start, end);
+	}
+
+	/** Insert lines after line 'after' (0 means at the top) */
+	private void insertAfter(int after, List<String> newLines) {
+		if (newLines.isEmpty()) {
+			return;
+		}
+		Piece[] parts = split(root, after);
+		root = merge(merge(parts[0], appendLines(newLines)), parts[1]);
+	}
+
+	/** Remove lines from (0-based, inclusive) to (exclusive) */
+	private void removeRange(int from, int to) {
+		Piece[] parts = split(root, from);
+		Piece[] rest = split(parts[1], to - from);
+		root = merge(parts[0], rest[1]);
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		insertAfter(size(), Collections.singletonList(newLine));
+		current = size();
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		addLines(current, newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		insertAfter(start, newLines);
+		current = start + newLines.size();
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		if (start > end) {
+			throw new IllegalArgumentException();
+		}
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.min(end, size());
+		if (from < to) {
+			removeRange(from, to);
+		}
+		current = Math.min(start, size());
+	}
+
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		int from = BufferUtils.lineNumToIndex(start);
+		int to = Math.min(end, size());
+		if (from < to) {
+			removeRange(from, to);
+		}
+		insertAfter(from, newLines);
+		current = from + newLines.size();
+	}
+
+	/** Moving lines just relinks their pieces; no text is copied */
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		int after = BufferUtils.moveTarget(start, end, dest);
+		int from = BufferUtils.lineNumToIndex(start);
+		Piece[] parts = split(root, from);
+		Piece[] rest = split(parts[1], end - from);
+		Piece block = rest[0];
+		int n = lines(block);
+		Piece[] at = split(merge(parts[0], rest[1]), after);
+		root = merge(merge(at[0], block), at[1]);
+		current = after + n;
+	}
+
+	/** Copying lines makes new pieces pointing at the same text */
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		int from = BufferUtils.lineNumToIndex(start);
+		end = Math.min(end, size());
+		Piece[] parts = split(root, from);
+		Piece[] rest = split(parts[1], end - from);
+		Piece copy = copyOf(rest[0]);
+		int n = lines(copy);
+		Piece[] at = split(merge(parts[0], merge(rest[0], rest[1])), dest);
+		root = merge(merge(at[0], copy), at[1]);
+		current = dest + n;
+	}
+
+	/** A copy of the pieces of a subtree, as a new subtree */
+	private static Piece copyOf(Piece p) {
+		if (p == null) {
+			return null;
+		}
+		Piece q = new Piece(p.inAdded, p.first, p.count);
+		return update(merge(merge(copyOf(p.left), q), copyOf(p.right)));
+	}
+
+	@Override
+	public void clearBuffer() {
+		original = "";
+		origStarts = new int[0];
+		added.setLength(0);
+		addCount = 0;
+		root = null;
+		current = NO_NUM;
+	}
+
+	/**
+	 * Read a file. If the buffer is empty, the file becomes the new
+	 * read-only original; otherwise it is appended via the 'added' text.
+	 */
+	@Override
+	public void readBuffer(String fileName) {
+		String text;
+		try {
+			Path path = Paths.get(fileName);
+			byte[] bytes;
+			if (Compression.isGzip(path)) {
+				try (InputStream in = Compression.open(fileName)) {
+					bytes = in.readAllBytes();
+				}
+			} else {
+				bytes = Files.readAllBytes(path);
+			}
+			text = new String(bytes, Charset.defaultCharset());
+		} catch (NoSuchFileException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		int[] starts = new int[1024];
+		int n = 0, i = 0;
+		long nch = 0;		// the lines' chars, as lineAt() gives them
+		while (i < text.length()) {
+			if (n + 1 >= starts.length) {
+				starts = Arrays.copyOf(starts, starts.length * 2);
+			}
+			starts[n++] = i;
+			int nl = text.indexOf('\n', i);
+			int end = nl < 0 ? text.length() : nl;
+			nch += end > i && text.charAt(end - 1) == '\r' ? end - i - 1 : end - i;
+			i = end + 1;
+		}
+		starts[n] = i;	// sentinel: one past the last line's \n, real or implied
+
+		if (root == null) {
+			original = text;
+			origStarts = starts;
+			root = n == 0 ? null : new Piece(false, 0, n);
+			current = n;
+		} else {
+			List<String> newLines = new ArrayList<>(n);
+			for (int j = 0; j < n; j++) {
+				newLines.add(lineAt(text, starts, j));
+			}
+			addLines(size(), newLines);
+		}
+		System.out.println(String.format("%dL, %dC", n, nch));
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return current;
+	}
+
+	@Override
+	public String getCurrentLine() {
+		return getLine(current);
+	}
+
+	@Override
+	public int goToLine(int n) {
+		if (current == NO_NUM) {
+			return NO_NUM;
+		}
+		return current = Math.min(n, size());
+	}
+
+	@Override
+	public int size() {
+		return lines(root);
+	}
+
+	@Override
+	public String getLine(int ln) {
+		int ix = BufferUtils.lineNumToIndex(ln);
+		if (ix >= size()) {
+			throw new IndexOutOfBoundsException("Line " + ln + " of " + size());
+		}
+		Piece p = root;
+		while (true) {
+			int leftLines = lines(p.left);
+			if (ix < leftLines) {
+				p = p.left;
+			} else if (ix < leftLines + p.count) {
+				return lineOf(p, ix - leftLines);
+			} else {
+				ix -= leftLines + p.count;
+				p = p.right;
+			}
+		}
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		if (root == null) {
+			return Collections.emptyList();
+		}
+		List<String> ret = new ArrayList<>();
+		walk(root, BufferUtils.lineNumToIndex(start), Math.min(end, size()), (p, i) -> ret.add(lineOf(p, i)));
+		return ret;
+	}
+
+	/** Lines are passed as CharBuffer views of the original or added text, not copied out */
+	@Override
+	public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		walk(root, BufferUtils.lineNumToIndex(start), Math.min(end, size()), (p, i) -> action.accept(viewOf(p, i)));
+	}
+
+	/** Reading never changes the tree, so the stream may split */
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		return StreamSupport.stream(new LineSpliterator(this, start, end, true), false);
+	}
+
+	/** In-order walk, passing each line [from, to) of the subtree as its piece and index there */
+	private void walk(Piece p, int from, int to, ObjIntConsumer<Piece> visitor) {
+		if (p == null || from >= to) {
+			return;
+		}
+		int leftLines = lines(p.left);
+		if (from < leftLines) {
+			walk(p.left, from, Math.min(to, leftLines), visitor);
+		}
+		int lo = Math.max(from - leftLines, 0), hi = Math.min(to - leftLines, p.count);
+		for (int i = lo; i < hi; i++) {
+			visitor.accept(p, i);
+		}
+		if (to > leftLines + p.count) {
+			walk(p.right, from - leftLines - p.count, to - leftLines - p.count, visitor);
+		}
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		replace(oldRE, newStr, all, current, current);
+	}
+
+	/**
+	 * Replace in a range of lines; only changed lines get new pieces,
+	 * and each run of consecutive changed lines becomes a single piece.
+	 */
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		int from = BufferUtils.lineNumToIndex(startLine);
+		int to = Math.min(endLine, size());
+		List<String> lines = getLines(startLine, to);
+		List<String> run = new ArrayList<>();
+		int runStart = -1;
+		for (int i = 0; i <= lines.size(); i++) {
+			String changed = null;
+			if (i < lines.size()) {
+				String target = lines.get(i);
+				String result = all ?
+						target.replaceAll(oldRE, newStr) :
+						target.replaceFirst(oldRE, newStr);
+				if (!result.equals(target)) {
+					changed = result;
+				}
+			}
+			if (changed != null) {
+				if (run.isEmpty()) {
+					runStart = from + i;
+				}
+				run.add(changed);
+			} else if (!run.isEmpty()) {
+				removeRange(runStart, runStart + run.size());
+				insertAfter(runStart, run);
+				run = new ArrayList<>();
+			}
+		}
+	}
+}
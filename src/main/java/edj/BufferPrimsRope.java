@@ -0,0 +1,409 @@
+package edj;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implement BufferPrims as a rope: like BufferPrimsStringBuffer, the buffer
+ * is a single stream of text with \n ending every line, but it is held as a
+ * balanced tree (a treap) of smallish chunks rather than one long
+ * StringBuilder. Each node caches the char and newline counts of its subtree,
+ * so finding a line's offset, inserting and deleting are all O(log n),
+ * rather than copying everything after the edit point.
+ */
+public class BufferPrimsRope implements BufferPrims {
+
+	/** Chunks are split to at most this size as they are built */
+	static final int MAX_CHUNK = 1024;
+
+	private static class Node {
+		final String text;
+		final int newlines;		// in text
+		final int priority = ThreadLocalRandom.current().nextInt();
+		Node left, right;
+		int chars, lines;		// totals for this subtree
+
+		Node(String text) {
+			this.text = text;
+			int n = 0;
+			for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+				++n;
+			}
+			this.newlines = n;
+			this.chars = text.length();
+			this.lines = n;
+		}
+
+		/** A node with the same text, not yet in any tree */
+		Node(Node n) {
+			this.text = n.text;
+			this.newlines = n.newlines;
+			this.chars = n.text.length();
+			this.lines = n.newlines;
+		}
+	}
+
+	private Node root;
+	private int current = NO_NUM;
+
+	private static int chars(Node n) {
+		return n == null ? 0 : n.chars;
+	}
+
+	private static int lines(Node n) {
+		return n == null ? 0 : n.lines;
+	}
+
+	private static Node update(Node n) {
+		if (n != null) {
+			n.chars = chars(n.left) + n.text.length() + chars(n.right);
+			n.lines = lines(n.left) + n.newlines + lines(n.right);
+		}
+		return n;
+	}
+
+	private static Node merge(Node a, Node b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			return update(a);
+		}
+		b.left = merge(a, b.left);
+		return update(b);
+	}
+
+	/** Split so the first 'offset' chars are in result[0], the rest in result[1] */
+	private static Node[] split(Node n, int offset) {
+		if (n == null) {
+			return new Node[2];
+		}
+		int leftChars = chars(n.left);
+		if (offset <= leftChars) {
+			Node[] parts = split(n.left, offset);
+			n.left = parts[1];
+			parts[1] = update(n);
+			return parts;
+		}
+		if (offset >= leftChars + n.text.length()) {
+			Node[] parts = split(n.right, offset - leftChars - n.text.length());
+			n.right = parts[0];
+			parts[0] = update(n);
+			return parts;
+		}
+		int k = offset - leftChars;
+		Node head = new Node(n.text.substring(0, k));
+		Node tail = new Node(n.text.substring(k));
+		return new Node[] { merge(n.left, head), merge(tail, n.right) };
+	}
+
+	/** A copy of a subtree, sharing its chunks' text */
+	private static Node copyOf(Node n) {
+		if (n == null) {
+			return null;
+		}
+		return merge(merge(copyOf(n.left), new Node(n)), copyOf(n.right));
+	}
+
+	/** Make a tree of the given text, cut into chunks */
+	private static Node build(CharSequence text) {
+		Node ret = null;
+		for (int i = 0; i < text.length(); i += MAX_CHUNK) {
+			ret = merge(ret, new Node(text.subSequence(i, Math.min(i + MAX_CHUNK, text.length())).toString()));
+		}
+		return ret;
+	}
+
+	/** Insert text at the given char offset */
+	void insert(int offset, CharSequence text) {
+		if (text.length() == 0) {
+			return;
+		}
+		Node[] parts = split(root, offset);
+		root = merge(merge(parts[0], build(text)), parts[1]);
+	}
+
+	/** Delete the chars from 'from' (inclusive) to 'to' (exclusive) */
+	void delete(int from, int to) {
+		Node[] parts = split(root, from);
+		Node[] rest = split(parts[1], to - from);
+		root = merge(parts[0], rest[1]);
+	}
+
+	/** Get the chars from 'from' (inclusive) to 'to' (exclusive) */
+	String substring(int from, int to) {
+		StringBuilder sb = new StringBuilder(to - from);
+		collect(root, from, to, sb);
+		return sb.toString();
+	}
+
+	private static void collect(Node n, int from, int to, StringBuilder sb) {
+		if (n == null || from >= to) {
+			return;
+		}
+		int leftChars = chars(n.left);
+		if (from < leftChars) {
+			collect(n.left, from, Math.min(to, leftChars), sb);
+		}
+		int lo = Math.max(from - leftChars, 0), hi = Math.min(to - leftChars, n.text.length());
+		if (lo < hi) {
+			sb.append(n.text, lo, hi);
+		}
+		int rightStart = leftChars + n.text.length();
+		if (to > rightStart) {
+			collect(n.right, from - rightStart, to - rightStart, sb);
+		}
+	}
+
+	/**
+	 * Find the char offset at which the given line starts.
+	 * Line size()+1 starts at the very end; beyond that returns -1.
+	 */
+	int findLineOffset(int lineNum) {
+		int k = BufferUtils.lineNumToIndex(lineNum);	// newlines to skip
+		if (k == 0) {
+			return 0;
+		}
+		if (k > lines(root)) {
+			return -1;
+		}
+		Node n = root;
+		int offset = 0;
+		while (true) {
+			int leftLines = lines(n.left);
+			if (k <= leftLines) {
+				n = n.left;
+			} else if (k <= leftLines + n.newlines) {
+				k -= leftLines;
+				offset += chars(n.left);
+				int i = -1;
+				while (k-- > 0) {
+					i = n.text.indexOf('\n', i + 1);
+				}
+				return offset + i + 1;
+			} else {
+				k -= leftLines + n.newlines;
+				offset += chars(n.left) + n.text.length();
+				n = n.right;
+			}
+		}
+	}
+
+	@Override
+	public void addLine(String newLine) {
+		insert(chars(root), newLine + '\n');
+		current = size();
+	}
+
+	@Override
+	public void addLines(List<String> newLines) {
+		addLines(current, newLines);
+	}
+
+	@Override
+	public void addLines(int start, List<String> newLines) {
+		StringBuilder sb = new StringBuilder();
+		for (String s : newLines) {
+			sb.append(s).append('\n');
+		}
+		insert(findLineOffset(start + 1), sb);
+		current = start + newLines.size();
+	}
+
+	@Override
+	public void deleteLines(int start, int end) {
+		if (start > end) {
+			throw new IllegalArgumentException();
+		}
+		int from = findLineOffset(start);
+		int to = findLineOffset(Math.min(end, size()) + 1);
+		if (from >= 0 && from < to) {
+			delete(from, to);
+		}
+		current = Math.min(start, size());
+	}
+
+	/** The char offset of line start, or the end if it is past the last line */
+	private int offsetOf(int start) {
+		int offset = findLineOffset(start);
+		return offset < 0 ? chars(root) : offset;
+	}
+
+	/** The lines start through end, cut out of the tree as a subtree of their own */
+	private Node cut(int start, int end) {
+		int from = offsetOf(start), to = Math.max(from, offsetOf(end + 1));
+		Node[] parts = split(root, from);
+		Node[] rest = split(parts[1], to - from);
+		root = merge(parts[0], rest[1]);
+		return rest[0];
+	}
+
+	/** Put a subtree of whole lines in after line 'after' */
+	private void paste(int after, Node block) {
+		Node[] parts = split(root, offsetOf(after + 1));
+		root = merge(merge(parts[0], block), parts[1]);
+	}
+
+	@Override
+	public void replaceLines(int start, int end, List<String> newLines) {
+		StringBuilder sb = new StringBuilder();
+		for (String s : newLines) {
+			sb.append(s).append('\n');
+		}
+		int first = BufferUtils.lineNumToIndex(start);
+		cut(start, Math.min(end, size()));
+		paste(first, build(sb));
+		current = first + newLines.size();
+	}
+
+	/** Moving lines just cuts out their subtree and puts it back elsewhere */
+	@Override
+	public void moveLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		int after = BufferUtils.moveTarget(start, end, dest);
+		Node block = cut(start, end);
+		int n = lines(block);		// before paste() makes it part of a bigger subtree
+		paste(after, block);
+		current = after + n;
+	}
+
+	/** Copying lines makes new nodes over the same chunks of text */
+	@Override
+	public void copyLines(int start, int end, int dest) {
+		end = Math.min(end, size());
+		Node block = cut(start, end);
+		Node copy = copyOf(block);
+		int n = lines(copy);
+		paste(BufferUtils.lineNumToIndex(start), block);
+		paste(dest, copy);
+		current = dest + n;
+	}
+
+	@Override
+	public void clearBuffer() {
+		root = null;
+		current = NO_NUM;
+	}
+
+	/** Read a file, appending to the buffer */
+	@Override
+	public void readBuffer(String fileName) {
+		int nl = 0, nch = 0;
+		try (LineReader rdr = new LineReader(fileName)) {
+			StringBuilder chunk = new StringBuilder(MAX_CHUNK * 2);
+			String s;
+			while ((s = rdr.readLine()) != null) {
+				nl++; nch += s.length();
+				chunk.append(s).append('\n');
+				if (chunk.length() >= MAX_CHUNK) {
+					root = merge(root, build(chunk));
+					chunk.setLength(0);
+				}
+			}
+			root = merge(root, build(chunk));
+		} catch (FileNotFoundException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		current = size();
+		System.out.println(String.format("%dL, %dC", nl, nch));
+	}
+
+	@Override
+	public int getCurrentLineNumber() {
+		return current;
+	}
+
+	@Override
+	public String getCurrentLine() {
+		return getLine(current);
+	}
+
+	@Override
+	public int goToLine(int n) {
+		if (current == NO_NUM) {
+			return NO_NUM;
+		}
+		return current = Math.min(n, size());
+	}
+
+	/** The number of lines is just the number of newlines, cached at the root */
+	@Override
+	public int size() {
+		return lines(root);
+	}
+
+	@Override
+	public String getLine(int ln) {
+		int start = findLineOffset(ln);
+		int end = findLineOffset(ln + 1);
+		if (start < 0 || end < 0) {
+			throw new IndexOutOfBoundsException("Line " + ln + " of " + size());
+		}
+		return substring(start, end - 1);
+	}
+
+	/** Reading never changes the tree, so the stream may split */
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		return StreamSupport.stream(new LineSpliterator(this, start, end, true), false);
+	}
+
+	@Override
+	public List<String> getLines(int start, int end) {
+		if (root == null) {
+			return Collections.emptyList();
+		}
+		end = Math.min(end, size());
+		List<String> ret = new ArrayList<>();
+		int from = findLineOffset(start), to = findLineOffset(end + 1);
+		if (from < 0 || from >= to) {
+			return ret;
+		}
+		String text = substring(from, to);
+		for (int i = 0; i < text.length(); ) {
+			int nl = text.indexOf('\n', i);
+			ret.add(text.substring(i, nl));
+			i = nl + 1;
+		}
+		return ret;
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all) {
+		replace(oldRE, newStr, all, current, current);
+	}
+
+	@Override
+	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
+		endLine = Math.min(endLine, size());
+		for (int ln = Math.max(startLine, 1); ln <= endLine; ln++) {
+			int from = findLineOffset(ln), to = findLineOffset(ln + 1) - 1;
+			String target = substring(from, to);
+			String result = all ?
+					target.replaceAll(oldRE, newStr) :
+					target.replaceFirst(oldRE, newStr);
+			if (!result.equals(target)) {
+				delete(from, to);
+				insert(from, result);
+			}
+		}
+	}
+
+	/** Format the Buffer as a single long String */
+	@Override
+	public String toString() {
+		return substring(0, chars(root));
+	}
+}
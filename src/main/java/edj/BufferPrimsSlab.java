@@ -0,0 +1,95 @@
+package edj;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * BufferPrims (without undo) keeping its lines in a LineSlabStore,
+ * for files with millions of short lines, where the per-String
+ * overhead outweighs the text itself. Strings are only made when
+ * lines are asked for; reading a UTF-8 file copies its bytes straight
+ * into the slabs without decoding them at all.
+ */
+public class BufferPrimsSlab extends BufferPrimsNoUndo {
+
+	private final LineSlabStore store = new LineSlabStore();
+
+	public BufferPrimsSlab() {
+		buffer = store;
+	}
+
+	/** Approximate heap used by the lines */
+	public long heapBytes() {
+		return store.heapBytes();
+	}
+
+	@Override
+	public void readBuffer(String fileName) {
+		if (!Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+			super.readBuffer(fileName);		// must decode and re-encode
+			return;
+		}
+		clearBuffer();
+		int nl = 0;
+		long nch = 0;
+		try (InputStream is = Compression.open(fileName)) {
+			byte[] block = new byte[64 * 1024];
+			byte[] partial = new byte[256];		// a line split across blocks
+			int partialLen = 0, n;
+			while ((n = is.read(block)) > 0) {
+				int start = 0;
+				for (int i = 0; i < n; i++) {
+					if (block[i] != '\n') {
+						continue;
+					}
+					int end = i;
+					if (partialLen == 0) {
+						if (end > start && block[end - 1] == '\r') {
+							--end;
+						}
+						store.addBytes(block, start, end - start);
+						nch += BufferUtils.charCount(block, start, end - start);
+					} else {
+						partial = append(partial, partialLen, block, start, end - start);
+						partialLen += end - start;
+						if (partialLen > 0 && partial[partialLen - 1] == '\r') {
+							--partialLen;
+						}
+						store.addBytes(partial, 0, partialLen);
+						nch += BufferUtils.charCount(partial, 0, partialLen);
+						partialLen = 0;
+					}
+					nl++;
+					start = i + 1;
+				}
+				partial = append(partial, partialLen, block, start, n - start);
+				partialLen += n - start;
+			}
+			if (partialLen > 0) {
+				store.addBytes(partial, 0, partialLen);
+				nch += BufferUtils.charCount(partial, 0, partialLen);
+				nl++;
+			}
+		} catch (FileNotFoundException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		current = store.size();
+		setSavedDigest(LineBlockDigest.of(this));
+		println(String.format("%dL, %dC", nl, nch));
+	}
+
+	/** Append len bytes of src to dest, which holds destLen bytes, growing it if need be */
+	private static byte[] append(byte[] dest, int destLen, byte[] src, int off, int len) {
+		if (destLen + len > dest.length) {
+			dest = Arrays.copyOf(dest, Math.max(dest.length * 2, destLen + len));
+		}
+		System.arraycopy(src, off, dest, destLen, len);
+		return dest;
+	}
+}
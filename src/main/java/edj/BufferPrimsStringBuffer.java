@@ -1,13 +1,15 @@
 package edj;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implement BufferPrims with a single long string with \n delimiting lines.
@@ -20,6 +22,8 @@ import java.util.regex.Pattern;
 public class BufferPrimsStringBuffer implements BufferPrims {
 
 	private StringBuilder buffer = new StringBuilder();
+	/** Where each line starts, kept up to date on every change to buffer */
+	private LineIndex index = new LineIndex();
 	int current;
 
 	protected String getBuffer() {
@@ -32,19 +36,19 @@ public class BufferPrimsStringBuffer implements BufferPrims {
 		// Last line must end with newline
 		if (buffer.charAt(buffer.length() - 1) != '\n')
 			buffer.append('\n');
+		index = LineIndex.of(buffer);
 	}
 
 	@Override
 	public void addLine(String s) {
 		buffer.append(s).append('\n');
+		index.insert(index.lines(), new int[] { s.length() + 1 }, 1);
 	}
 
 	@Override
 	public void addLines(List<String> newLines) {
 		int n = size();
-		for (String s : newLines) {
-			buffer.append(s).append('\n');
-		}
+		addLinesInternal(buffer.length(), newLines);
 		current = n + newLines.size();
 	}
 
@@ -54,36 +58,90 @@ public class BufferPrimsStringBuffer implements BufferPrims {
 		addLinesInternal(offset, newLines);
 	}
 
+	/** Insert the lines at offset, which must be at the start of a line */
 	public void addLinesInternal(int offset, List<String> newLines) {
+		StringBuilder sb = new StringBuilder();
+		int[] lens = new int[newLines.size()];
+		int n = 0;
+		for (String s : newLines) {
+			sb.append(s).append('\n');
+			lens[n++] = s.length() + 1;
+		}
+		index.insert(index.lineAt(offset), lens, n);
+		buffer.insert(offset, sb);
+	}
+
+	/** Lines [from, to) are replaced by newLines in one edit of the buffer and the index */
+	@Override
+	public void replaceLines(int startLine, int endLine, List<String> newLines) {
+		int from = BufferUtils.lineNumToIndex(startLine);
+		int to = Math.max(from, Math.min(endLine, size()));
+		StringBuilder sb = new StringBuilder();
+		int[] lens = new int[newLines.size()];
+		int n = 0;
 		for (String s : newLines) {
-			buffer.insert(offset, s);
-			offset += s.length();
-			buffer.insert(offset, '\n');
-			offset++;
+			sb.append(s).append('\n');
+			lens[n++] = s.length() + 1;
 		}
+		buffer.replace(index.offset(from), index.offset(to), sb.toString());
+		index.remove(from, to);
+		index.insert(from, lens, n);
+		current = from + n;
 	}
 
-	static final Pattern linesPatt = Pattern.compile(".*?\n");
+	@Override
+	public void moveLines(int startLine, int endLine, int dest) {
+		endLine = Math.min(endLine, size());
+		int after = BufferUtils.moveTarget(startLine, endLine, dest);
+		int from = BufferUtils.lineNumToIndex(startLine);
+		int[] lens = lengths(from, endLine);
+		int startOffset = index.offset(from), endOffset = index.offset(endLine);
+		String block = buffer.substring(startOffset, endOffset);
+		buffer.delete(startOffset, endOffset);
+		index.remove(from, endLine);
+		buffer.insert(index.offset(after), block);
+		index.insert(after, lens, lens.length);
+		current = after + lens.length;
+	}
+
+	@Override
+	public void copyLines(int startLine, int endLine, int dest) {
+		endLine = Math.min(endLine, size());
+		int from = BufferUtils.lineNumToIndex(startLine);
+		int[] lens = lengths(from, endLine);
+		String block = buffer.substring(index.offset(from), index.offset(endLine));
+		buffer.insert(index.offset(dest), block);
+		index.insert(dest, lens, lens.length);
+		current = dest + lens.length;
+	}
+
+	/** The lengths, from the index, of lines [from, to) */
+	private int[] lengths(int from, int to) {
+		int[] lens = new int[Math.max(to - from, 0)];
+		for (int i = 0; i < lens.length; i++) {
+			lens[i] = index.length(from + i);
+		}
+		return lens;
+	}
 
+	/**
+	 * Find where the given line starts; line size()+1 starts at the end.
+	 * Uses the index, so no longer scans from the top of the buffer.
+	 */
 	int findLineOffset(int startLineNum) {
 		if (buffer == null) {
 			throw new NullPointerException("findLine called with no buffer");
 		}
-		Matcher matcher = linesPatt.matcher(buffer);
-		int offset = 0;
-		for (int i = 1; i < startLineNum; i++) {
-			if (!matcher.find()) {
-				System.err.println("No line found for line " + i);
-				return -1;
-			}
-			offset += matcher.group(0).length();
+		if (startLineNum > index.lines() + 1) {
+			System.err.println("No line found for line " + (index.lines() + 1));
+			return -1;
 		}
-		return offset;
+		return index.offset(BufferUtils.lineNumToIndex(startLineNum));
 	}
 
 	int findLineLengthAt(int startOffset) {
 		int offset;
-		for (offset = startOffset; buffer.charAt(offset) != '\n' && offset < buffer.length(); ++offset)
+		for (offset = startOffset; offset < buffer.length() && buffer.charAt(offset) != '\n'; ++offset)
 			;// Do nothing; it's all in the loop;
 		return offset - startOffset;
 	}
@@ -93,22 +151,29 @@ public class BufferPrimsStringBuffer implements BufferPrims {
 		if (startLine > endLine) {
 			throw new IllegalArgumentException();
 		}
-		int startOffset = findLineOffset(startLine),
-				endOffset = findLineOffset(endLine);
-		buffer.delete(startOffset, endOffset + findLineLengthAt(endOffset) + 1);
+		int from = BufferUtils.lineNumToIndex(startLine), to = Math.min(endLine, size());
+		if (from >= to) {
+			return;
+		}
+		buffer.delete(index.offset(from), index.offset(to));
+		index.remove(from, to);
 	}
 
 	@Override
 	public void clearBuffer() {
 		buffer.setLength(0);
+		index.clear();
 		current = 0;
 	}
 
 	@Override
 	public void readBuffer(String fileName) {
 		// process line-at-a-time to ensure only \n at end of each line
-		try (BufferedReader rdr = new BufferedReader(new FileReader(fileName))) {
-			rdr.lines().forEach(this::addLine);
+		try (LineReader rdr = new LineReader(fileName)) {
+			String s;
+			while ((s = rdr.readLine()) != null) {
+				addLine(s);
+			}
 		} catch (IOException ex) {
 			throw new RuntimeException("Error reading file " + fileName, ex);
 		}
@@ -121,34 +186,28 @@ public class BufferPrimsStringBuffer implements BufferPrims {
 
 	@Override
 	public int goToLine(int n) {
-		return current = findLineOffset(n);
+		return current = Math.min(n, size());
 	}
 
-	/** Count the number of lines in the buffer */
+	/** The number of lines in the buffer, from the index */
 	@Override
 	public int size() {
-		int count = 0;
-		for (int n = 0; n < buffer.length(); ++n) {
-			if (buffer.charAt(n) == '\n')
-				++count;
-		}
-		return count;
+		return index.lines();
 	}
 
 	@Override
 	public String getCurrentLine() {
-		int startOffset = findLineOffset(current);
-		int len = findLineLengthAt(startOffset);
-		return buffer.substring(startOffset, startOffset + len);
+		return getLine(current);
 	}
 
 	@Override
 	public String getLine(int ln) {
-		int startOffset = findLineOffset(ln);
-		int len = findLineLengthAt(startOffset);
-		return buffer.substring(startOffset, startOffset + len);
+		int ix = BufferUtils.lineNumToIndex(ln);
+		int startOffset = index.offset(ix);
+		return buffer.substring(startOffset, startOffset + index.length(ix) - 1);
 	}
 
+	/** Get a range of lines with one index lookup, splitting them out of the buffer */
 	@Override
 	public List<String> getLines(int start, int end) {
 		if (end < start) {
@@ -157,29 +216,62 @@ public class BufferPrimsStringBuffer implements BufferPrims {
 		if (buffer == null || buffer.length() == 0)
 		return Collections.emptyList();
 		List<String> ret = new ArrayList<>();
-		for (int i = start; i <= end; i++) {
-			ret.add(getLine(i));
+		int offset = index.offset(BufferUtils.lineNumToIndex(start)),
+			endOffset = index.offset(Math.min(end, size()));
+		while (offset < endOffset) {
+			int nl = buffer.indexOf("\n", offset);
+			ret.add(buffer.substring(offset, nl));
+			offset = nl + 1;
 		}
 		return ret;
 	}
 
+	/** Lines are passed as CharBuffer views of the buffer, not copied out */
+	@Override
+	public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+		int from = BufferUtils.lineNumToIndex(start), to = Math.min(end, size());
+		int offset = from < to ? index.offset(from) : 0;
+		for (int ix = from; ix < to; ix++) {
+			int len = index.length(ix);
+			action.accept(CharBuffer.wrap(buffer, offset, offset + len - 1));
+			offset += len;
+		}
+	}
+
+	/** With the index validated up front, lookups are read-only, so the stream may split */
+	@Override
+	public Stream<CharSequence> lines(int start, int end) {
+		index.validate();
+		return StreamSupport.stream(new LineSpliterator(this, start, end, true), false);
+	}
+
 	@Override
 	public void replace(String old, String newStr, boolean all) {
-		int startOffset = findLineOffset(current);
-		int length = findLineLengthAt(startOffset);
-		String tmp = buffer.substring(startOffset, length);
-		tmp = all ? tmp.replaceAll(old, newStr) : tmp.replace(old, newStr);
-		buffer.replace(startOffset, length, tmp);
+		replace(old, newStr, all, current, current);
 	}
 
+	/**
+	 * Replace in each line of the range. Each line is searched in place
+	 * using a Matcher region over the live buffer; only the lines that
+	 * match are copied out and replaced.
+	 */
 	@Override
 	public void replace(String old, String newStr, boolean all, int startLine, int endLine) {
-		int startOffset = findLineOffset(startLine),
-				endOffset = findLineOffset(endLine + 1);
-		int length = endOffset - startOffset;
-		String tmp = buffer.substring(startOffset, length);
-		tmp = all ? tmp.replaceAll(old, newStr) : tmp.replace(old, newStr);
-		buffer.replace(startOffset, length, tmp);
+		Pattern patt = Pattern.compile(old);
+		Matcher matcher = patt.matcher(buffer);
+		int lastIx = Math.min(BufferUtils.lineNumToIndex(endLine), size() - 1);
+		for (int ix = BufferUtils.lineNumToIndex(startLine); ix <= lastIx; ix++) {
+			int startOffset = index.offset(ix);
+			int endOffset = startOffset + index.length(ix) - 1;
+			matcher.region(startOffset, endOffset);
+			if (!matcher.find()) {
+				continue;
+			}
+			Matcher lineMatcher = patt.matcher(buffer.substring(startOffset, endOffset));
+			String tmp = all ? lineMatcher.replaceAll(newStr) : lineMatcher.replaceFirst(newStr);
+			buffer.replace(startOffset, endOffset, tmp);
+			index.setLength(ix, tmp.length() + 1);
+		}
 	}
 
 	/** Undo not supported */
@@ -2,32 +2,122 @@ package edj;
 
 import static edj.BufferUtils.lineNumToIndex;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class BufferPrimsWithUndo extends AbstractBufferPrims implements UndoManagerEdj {
 
+	/** What undoing a change does: run a Runnable, or one of our own primitives (so it can be saved) */
+	static final byte UNDO_RUNNABLE = 0, UNDO_DELETE = 1, UNDO_DELETE_CURRENT = 2, UNDO_ADD = 3,
+		UNDO_REPLACE_LINES = 4, UNDO_MOVE = 5, UNDO_EDITS = 6;
+
+	/**
+	 * One undoable change. Our own changes are recorded as data, the
+	 * primitive that undoes them, its line numbers and any lines it needs
+	 * (so they can be saved in a SessionImage); a change pushed from
+	 * outside is just a Runnable. A substitution is recorded as an
+	 * EditScript: its edits, and its old text as the only line.
+	 */
 	class UndoableCommand {
 		public UndoableCommand(String name, Runnable r) {
 			this.name = name;
 			this.r = r;
+			this.op = UNDO_RUNNABLE;
+			this.a = this.b = this.c = 0;
+			this.lines = null;
+			this.edits = null;
+		}
+		UndoableCommand(String name, byte op, int a, int b, int c, List<String> lines) {
+			this(name, op, a, b, c, lines, null);
+		}
+		UndoableCommand(String name, byte op, int a, int b, int c, List<String> lines, int[] edits) {
+			this.name = name;
+			this.r = this::apply;
+			this.op = op;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.lines = lines;
+			this.edits = edits;
 		}
 		String name;
 		protected Runnable r;
+		final byte op;
+		final int a, b, c;
+		final List<String> lines;
+		final int[] edits;
+
+		private void apply() {
+			switch (op) {
+			case UNDO_DELETE:
+				deleteLines(a, b);
+				break;
+			case UNDO_DELETE_CURRENT:
+				deleteLines(current, current);
+				break;
+			case UNDO_ADD:
+				addLines(a, lines);
+				break;
+			case UNDO_REPLACE_LINES:
+				replaceLines(a, b, lines);
+				break;
+			case UNDO_MOVE:
+				moveLines(a, b, c);
+				break;
+			case UNDO_EDITS:
+				undoEdits();
+				break;
+			default:
+				throw new IllegalStateException("Unknown undo " + op);
+			}
+		}
+
+		/** Put back the old text of each edit, recording the new text as the undo of this */
+		private void undoEdits() {
+			String text = lines.get(0);
+			EditScript redo = new EditScript();
+			for (int i = 0, at = 0; i < edits.length; i += EditScript.STRIDE) {
+				int ix = lineNumToIndex(edits[i]), oldLen = edits[i + 2];
+				String line = buffer.get(ix);
+				String old = intern(EditScript.undo(line, edits[i + 1], edits[i + 3], text, at, oldLen));
+				buffer.set(ix, old);
+				redo.add(edits[i], line, old);
+				at += oldLen;
+			}
+			pushUndo(name, redo);
+		}
 	}
 	
-	Stack<UndoableCommand> undoables = new Stack<>();
+	UndoHistory undoables = new UndoHistory(this);
+
+	/**
+	 * Keep the undo history within about this many bytes of heap,
+	 * writing the oldest changes out to a file beyond that.
+	 */
+	public void setUndoBudget(long bytes) {
+		undoables.setBudget(bytes);
+	}
 	
 	@Override
 	public void pushUndo(String name, Runnable r) {
 		undoables.push(new UndoableCommand(name, r));
 	}
 
+	private void pushUndo(String name, byte op, int a, int b, int c, List<String> lines) {
+		undoables.push(new UndoableCommand(name, op, a, b, c, lines));
+	}
+
+	private void pushUndo(String name, EditScript script) {
+		undoables.push(new UndoableCommand(name, UNDO_EDITS, 0, 0, 0,
+			Collections.singletonList(script.oldText()), script.edits()));
+	}
+
 	/* (non-Javadoc)
 	 * @see edj.UndoManager#popUndo()
 	 */
@@ -52,7 +142,7 @@ public class BufferPrimsWithUndo extends AbstractBufferPrims implements UndoMana
 	@Override
 	public void addLine(String newLine) {
 		super.addLine(newLine);
-		pushUndo("add 1 line", () -> deleteLines(current, current));
+		pushUndo("add 1 line", UNDO_DELETE_CURRENT, 0, 0, 0, null);
 	}
 
 	/* (non-Javadoc)
@@ -62,9 +152,9 @@ public class BufferPrimsWithUndo extends AbstractBufferPrims implements UndoMana
 	public void addLines(int startLnum, List<String> newLines) {
 		// System.out.printf("BufferPrimsWithUndo.addLines(): start %d, size %d%n", startLnum, newLines.size());
 		int startIx = startLnum == 0 ? 0 : lineNumToIndex(startLnum) + 1; // append after
-		buffer.addAll(startIx, newLines);
+		buffer.addAll(startIx, intern(newLines));
 		current += newLines.size();
-		pushUndo("add " + newLines.size() + " lines", () -> deleteLines(startLnum, startLnum + newLines.size()));
+		pushUndo("add " + newLines.size() + " lines", UNDO_DELETE, startLnum, startLnum + newLines.size(), 0, null);
 	}
 	
 	/* (non-Javadoc)
@@ -74,73 +164,102 @@ public class BufferPrimsWithUndo extends AbstractBufferPrims implements UndoMana
 	public void deleteLines(int startLnum, int end) {
 		// System.out.println("BufferPrimsWithUndo.deleteLines(" + startLnum + ", " + end +")");
 		int startIx = lineNumToIndex(startLnum);
+		int endIx = Math.min(end, buffer.size());
 		List<String> undoLines = new ArrayList<>();
-		for (int i = startIx; i < end; i++) {
-			// System.out.println("BufferPrimsWithUndo.deleteLines(): inner:");
-			if (buffer.isEmpty()) {
-				println("?Deleted all lines!");
-				break;
-			}
-			undoLines.add(buffer.remove(startIx)); // not i!
+		if (startIx < endIx) {
+			List<String> range = buffer.subList(startIx, endIx);
+			undoLines.addAll(range);	// already pooled, if interning, when read or inserted
+			range.clear();	// one move, not one per line
+		}
+		if (endIx < end && buffer.isEmpty()) {
+			println("?Deleted all lines!");
 		}
 		current = startLnum;
 		if (!undoLines.isEmpty()) {
-			pushUndo("delete lines " + startLnum + " to " + end, 
-				() -> addLines(startLnum, undoLines));
+			pushUndo("delete lines " + startLnum + " to " + end, UNDO_ADD, startLnum, 0, 0, undoLines);
 		}
 	}
 	
+	@Override
+	public void replaceLines(int startLnum, int end, List<String> newLines) {
+		final List<String> oldLines = getLines(startLnum, end);
+		super.replaceLines(startLnum, end, intern(newLines));
+		final int n = newLines.size();
+		pushUndo("change lines " + startLnum + " to " + end,
+			UNDO_REPLACE_LINES, startLnum, startLnum + n - 1, 0, oldLines);
+	}
+
+	@Override
+	public void moveLines(int startLnum, int end, int dest) {
+		end = Math.min(end, buffer.size());
+		final int n = end - lineNumToIndex(startLnum);
+		final int after = BufferUtils.moveTarget(startLnum, end, dest);
+		super.moveLines(startLnum, end, dest);
+		// Put them back after what was the line before them
+		final int back = after < startLnum ? startLnum - 1 + n : startLnum - 1;
+		if (n > 0) {
+			pushUndo("move lines " + startLnum + " to " + end, UNDO_MOVE, after + 1, after + n, back, null);
+		}
+	}
+
+	@Override
+	public void copyLines(int startLnum, int end, int dest) {
+		final int n = Math.min(end, buffer.size()) - lineNumToIndex(startLnum);
+		super.copyLines(startLnum, end, dest);
+		if (n > 0) {
+			pushUndo("copy lines " + startLnum + " to " + end, UNDO_DELETE, dest + 1, dest + n, 0, null);
+		}
+	}
+
 	@Override
 	public void replace(String oldRE, String newStr, boolean all) {
-		final String oldLine = getCurrentLine();
-		super.replace(oldRE, newStr, all);
-		pushUndo("Replace in line" + getCurrentLineNumber(),
-				() -> buffer.set(lineNumToIndex(getCurrentLineNumber()), oldLine));
+		int ln = getCurrentLineNumber();
+		pushUndo("Replace in line" + ln, substitute(Pattern.compile(oldRE), newStr, all, ln, ln));
 	}
 
+	/**
+	 * The undo keeps only what changed in the lines that changed,
+	 * as an EditScript, not a copy of every line in the range.
+	 */
 	@Override
 	public void replace(String oldRE, String newStr, boolean all, int startLine, int endLine) {
-		final List<String> oldLines = new ArrayList<>();
-		for (int i = startLine; i <= endLine; i++) {
-			oldLines.add(getLine(i));
-		}
-		super.replace(oldRE, newStr, all, startLine, endLine);
+		EditScript script = substitute(Pattern.compile(oldRE), newStr, all, startLine, endLine);
 		pushUndo(
 			String.format("replace %s with %s in lines %d to %d",
 					oldRE, newStr, startLine, endLine),
-				() -> {
-					for (int i = 0; i < oldLines.size(); i++) {
-						buffer.set(lineNumToIndex(i + startLine), oldLines.get(i));
-				}
-			}
-		);
+				script);
 	}
 
-	private int nl = 0, nch = 0; // Only accessed single-threadedly, only from readBuffer
+	private EditScript substitute(Pattern oldRE, String newStr, boolean all, int startLine, int endLine) {
+		EditScript script = new EditScript();
+		for (int ln = startLine; ln <= endLine; ln++) {
+			int ix = lineNumToIndex(ln);
+			String target = buffer.get(ix);
+			Matcher m = oldRE.matcher(target);
+			String changed = all ? m.replaceAll(newStr) : m.replaceFirst(newStr);
+			if (!changed.equals(target)) {
+				buffer.set(ix, changed);
+				script.add(ln, target, changed);
+			}
+		}
+		return script;
+	}
 
+	/** Lines are read and decoded in parallel by a ParallelLineLoader */
 	@Override
 	public void readBuffer(String fileName) {
-		int startLine = current;
-		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName))) {
-			bufferedReader.lines().forEach((s) -> {
-				nl++; nch += s.length();
-				buffer.add(s);
-				current++;
-			});
-		} catch (FileNotFoundException e) {
-			throw new BufferException("File " + fileName + " not found", e);
-		} catch (IOException e) {
-			throw new BufferException("File " + fileName + " failed during read", e);
+		int after = buffer.size();		// the lines go at the end
+		List<String> lines = loadFile(fileName, buffer.isEmpty());
+		buffer.addAll(lines);
+		current += lines.size();
+		println(String.format("%dL, %dC", lines.size(), BufferUtils.charCount(lines)));
+		if (interner != null) {
+			println(interner.toString());
 		}
-		println(String.format("%dL, %dC", nl, nch));
-		pushUndo("read", () -> deleteLines(startLine, startLine + nl));
+		final int nl = lines.size();
+		pushUndo("read", UNDO_DELETE, after + 1, after + nl, 0, null);
 	}
 	
-	@Override
-	public void writeBuffer(String fileName) {
-		throw new UnsupportedOperationException();
-	}
-
 	/* (non-Javadoc)
 	 * @see edj.UndoManager#isUndoSupported()
 	 */
@@ -154,18 +273,58 @@ public class BufferPrimsWithUndo extends AbstractBufferPrims implements UndoMana
 	 */
 	@Override
 	public void undo() {
-		if (undoables.empty()) {
+		if (undoables.isEmpty()) {
 			println("?Nothing to undo");
 			return;
 		}
 		UndoableCommand undoable = undoables.pop();
 		// System.out.println("Undoing " + undoable.name);
 		undoable.r.run();
-		if (!undoables.empty()) {
+		if (!undoables.isEmpty()) {
 			undoables.pop();		// all actions create undos, drop them so undo works normally
 		}
 	}
 	
+	/**
+	 * Save the buffer, the current line, the file name and as much of the
+	 * undo history as is recorded as data in a SessionImage.
+	 */
+	public void saveSession(String imageFile, String fileName) {
+		int oldest = undoables.size();
+		while (oldest > 0 && undoables.get(oldest - 1).op != UNDO_RUNNABLE) {
+			--oldest;
+		}
+		try {
+			SessionImage.write(Paths.get(imageFile), buffer, current, fileName, undoables.from(oldest));
+		} catch (IOException e) {
+			throw new BufferException("File " + imageFile + " failed during write", e);
+		}
+	}
+
+	/**
+	 * Replace the buffer and undo history with those saved by saveSession();
+	 * the lines are only read from the image as they are needed.
+	 * @return the file name that was saved with them
+	 */
+	public String restoreSession(String imageFile) {
+		SessionImage image;
+		try {
+			image = new SessionImage(Paths.get(imageFile));
+		} catch (NoSuchFileException e) {
+			throw new BufferException("File " + imageFile + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + imageFile + " failed during read", e);
+		}
+		buffer = image.bufferLines();
+		current = image.current;
+		undoables.clear();
+		for (SessionImage.Entry e : image.undo) {
+			undoables.push(new UndoableCommand(e.name, e.op, e.a, e.b, e.c, image.linesOf(e), e.edits));
+		}
+		setSavedDigest(null);
+		return image.fileName;
+	}
+
 	public void println(String s) {
 		System.out.println(s);
 	}
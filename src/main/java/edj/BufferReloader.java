@@ -0,0 +1,103 @@
+package edj;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bring a buffer up to date with its file after the file has been
+ * changed by someone else, changing only the lines that differ.
+ *
+ * The unchanged lines at the start and the end are found a block of
+ * lines at a time by comparing LineBlockDigest hashes (one hash per
+ * block of the file, one of the same lines of the buffer), and then a
+ * line at a time within the first block that differs. The lines between
+ * are put in with one replaceLines (or addLines, or deleteLines), so
+ * the reload is one ordinary change to the buffer, undoable like any
+ * other, and costs in proportion to the region changed: for a file
+ * that has only been appended to, an addLines of the new lines.
+ * (The whole file still has to be read to find out what changed.)
+ */
+final class BufferReloader {
+
+	private static final int BLOCK_LINES = LineBlockDigest.BLOCK_LINES;
+
+	private BufferReloader() {
+		// Static methods only
+	}
+
+	/**
+	 * Make the buffer's lines the same as the file's.
+	 * @return the number of lines taken out of and put into the buffer, 0 if it was up to date
+	 */
+	static int reload(BufferPrims buffer, String fileName) {
+		buffer.awaitLines(BufferPrims.INF);
+		List<String> lines;
+		LineBlockDigest[] digest = new LineBlockDigest[1];
+		try {
+			lines = buffer instanceof DigestHolder ?
+				LineBlockDigest.readWithDigest(Paths.get(fileName), UnaryOperator.identity(), d -> digest[0] = d) :
+				ParallelLineLoader.load(fileName, UnaryOperator.identity());
+		} catch (NoSuchFileException e) {
+			throw new BufferException("File " + fileName + " not found", e);
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during read", e);
+		}
+		int n = apply(buffer, lines);
+		if (digest[0] != null) {
+			((DigestHolder) buffer).setSavedDigest(digest[0]);	// the buffer is now the file
+		}
+		return n;
+	}
+
+	/**
+	 * Change the buffer's lines into these, changing only those that differ.
+	 * @return the number of lines taken out of and put in
+	 */
+	static int apply(BufferPrims buffer, List<String> lines) {
+		int n = lines.size(), m = buffer.size(), common = Math.min(n, m);
+
+		int prefix = 0;
+		while (prefix + BLOCK_LINES <= common &&
+				hashOf(lines, prefix, BLOCK_LINES) == LineBlockDigest.hashOf(buffer, prefix, BLOCK_LINES)) {
+			prefix += BLOCK_LINES;
+		}
+		while (prefix < common && lines.get(prefix).equals(buffer.getLine(prefix + 1))) {
+			++prefix;
+		}
+
+		int suffix = 0, room = common - prefix;
+		while (suffix + BLOCK_LINES <= room &&
+				hashOf(lines, n - suffix - BLOCK_LINES, BLOCK_LINES) ==
+				LineBlockDigest.hashOf(buffer, m - suffix - BLOCK_LINES, BLOCK_LINES)) {
+			suffix += BLOCK_LINES;
+		}
+		while (suffix < room && lines.get(n - suffix - 1).equals(buffer.getLine(m - suffix))) {
+			++suffix;
+		}
+
+		// Buffer lines prefix+1 to m-suffix become file lines [prefix, n-suffix)
+		List<String> changed = new ArrayList<>(lines.subList(prefix, n - suffix));
+		int oldEnd = m - suffix;
+		if (oldEnd > prefix && !changed.isEmpty()) {
+			buffer.replaceLines(prefix + 1, oldEnd, changed);
+		} else if (oldEnd > prefix) {
+			buffer.deleteLines(prefix + 1, oldEnd);
+		} else if (!changed.isEmpty()) {
+			buffer.addLines(prefix, changed);
+		}
+		return (oldEnd - prefix) + changed.size();
+	}
+
+	/** The block hash of lines [first, first+count) of the list */
+	private static long hashOf(List<String> lines, int first, int count) {
+		LineBlockDigest.Hasher h = new LineBlockDigest.Hasher();
+		for (int i = first; i < first + count; i++) {
+			h.add(lines.get(i));
+		}
+		return h.hash;
+	}
+}
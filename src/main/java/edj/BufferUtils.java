@@ -1,5 +1,7 @@
 package edj;
 
+import java.util.List;
+
 public class BufferUtils {
 
 	// Utility methods, only for implementations that use a 0-based
@@ -13,4 +15,41 @@ public class BufferUtils {
 	public static int indexToLineNum(int ix) {
 		return ix + 1;
 	}
+
+	/**
+	 * Check the destination of a move of lines start to end (which
+	 * must be no more than size()), and return the line that the moved
+	 * lines will follow once they have been taken out of the buffer.
+	 */
+	public static int moveTarget(int start, int end, int dest) {
+		if (dest >= start && dest < end) {
+			throw new IllegalArgumentException(
+				"Destination " + dest + " is inside lines " + start + " to " + end);
+		}
+		return dest > end ? dest - (end - start + 1) : dest;
+	}
+
+	/** Total length of the lines, not counting newlines, as readBuffer reports */
+	public static long charCount(List<String> lines) {
+		long n = 0;
+		for (String line : lines) {
+			n += line.length();
+		}
+		return n;
+	}
+
+	/**
+	 * The chars that len bytes of UTF-8 decode to, as charCount counts them:
+	 * one per byte that starts a character, two for one outside the BMP.
+	 */
+	public static long charCount(byte[] utf8, int off, int len) {
+		long n = 0;
+		for (int i = off; i < off + len; i++) {
+			int b = utf8[i] & 0xFF;
+			if ((b & 0xC0) != 0x80) {
+				n += b >= 0xF0 ? 2 : 1;
+			}
+		}
+		return n;
+	}
 }
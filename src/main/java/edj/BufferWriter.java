@@ -0,0 +1,294 @@
+package edj;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Write out a BufferPrims, for writeBuffer. Lines are taken with
+ * forEachLine (so no List of them is made), batched into a char
+ * buffer, encoded straight into a set of direct byte buffers, and
+ * written with one gathering write whenever those fill up; so a big
+ * save costs a few large writes instead of one small one per line.
+ *
+ * A file named .gz, or replacing a gzip'd file, is gzip'd on the way
+ * out by a Compression.DeflatingChannel, on a thread of its own.
+ *
+ * For a buffer that keeps a LineBlockDigest of the file it came from
+ * (or was last saved to), if that file is still exactly as it was,
+ * blocks of lines that are unchanged at the start and end of the
+ * buffer are copied from it with transferTo, which the OS can do without the bytes passing through
+ * us, and only the lines between are encoded; if nothing has changed
+ * and the file is the same one, it is not written at all. The digest
+ * is then updated to describe the file just written.
+ *
+ * The file is written under a temporary name in the same directory
+ * and then renamed over the old one, so a failed or interrupted save
+ * never leaves a half-written file behind. Buffers that are still
+ * reading lines from the old file (mapped and paged) keep the old
+ * file open, and so are not disturbed by it being replaced.
+ */
+class BufferWriter implements Consumer<CharSequence> {
+
+	static final int CHAR_BATCH = 64 * 1024;
+	static final int BYTE_BUFFER_SIZE = 256 * 1024, BYTE_BUFFERS = 8;
+
+	private final GatheringByteChannel channel;
+	private final CharsetEncoder encoder;
+	private final CharBuffer chars = CharBuffer.allocate(CHAR_BATCH);
+	private final ByteBuffer[] bytes = new ByteBuffer[BYTE_BUFFERS];
+	private int filling;			// the byte buffer being encoded into
+	private long lines, written;
+	private final LineBlockDigest.Builder digest;	// or null
+	private final boolean trackOffsets;
+
+	private BufferWriter(GatheringByteChannel channel, Charset charset,
+			LineBlockDigest.Builder digest, boolean trackOffsets) {
+		this.channel = channel;
+		this.encoder = charset.newEncoder();
+		this.digest = digest;
+		this.trackOffsets = trackOffsets;
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Write all of the buffer's lines to the named file, replacing it,
+	 * and print the number of lines and bytes written.
+	 */
+	static void write(BufferPrims buffer, String fileName) {
+		Path target = Paths.get(fileName).toAbsolutePath();
+		Charset charset = Charset.defaultCharset();
+		DigestHolder holder = buffer instanceof DigestHolder ? (DigestHolder) buffer : null;
+		LineBlockDigest saved = holder == null ? null : holder.getSavedDigest();
+		if (saved != null && saved.isSourceFile(target) && saved.matches(buffer)) {
+			System.out.println(String.format("%dL, %dC", saved.getLines(), saved.getFileSize()));
+			return;		// nothing to do
+		}
+		Path temp = null;
+		FileChannel channel = null;
+		try {
+			temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			LineBlockDigest.Builder digest = holder == null ? null : new LineBlockDigest.Builder();
+			boolean gzip = Compression.wantsGzip(target);
+			BufferWriter writer;
+			if (gzip) {
+				try (Compression.DeflatingChannel gz =
+						new Compression.DeflatingChannel(Channels.newOutputStream(channel))) {
+					writer = new BufferWriter(gz, charset, digest, false);
+					buffer.forEachLine(1, buffer.size(), writer);
+					writer.finish();
+					gz.finish();
+				}
+			} else {
+				writer = new BufferWriter(channel, charset, digest, true);
+				try (FileChannel source = saved != null && saved.canCopyTo(charset) ? saved.openSource() : null) {
+					if (source != null) {
+						writer.writeChanges(buffer, saved, source, channel);
+					} else {
+						buffer.forEachLine(1, buffer.size(), writer);	// changed by someone else, say
+					}
+				}
+				writer.finish();
+			}
+			channel.force(false);
+			copyPermissions(target, temp);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temp = null;
+			if (holder != null) {
+				LineBlockDigest d = digest.build();
+				if (!gzip) {
+					d.setSource(target, charset);
+				}
+				holder.setSavedDigest(d);
+			}
+			System.out.println(String.format("%dL, %dC", writer.lines, writer.written));
+		} catch (IOException e) {
+			throw new BufferException("File " + fileName + " failed during write", e);
+		} catch (UncheckedIOException e) {
+			throw new BufferException("File " + fileName + " failed during write", e.getCause());
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Only matters if the save failed, and then the file is deleted
+				}
+			}
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					// Leave it, the save has already failed
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the blocks of the saved file that are unchanged at the start
+	 * and at the end of the buffer, and write the lines between them.
+	 */
+	private void writeChanges(BufferPrims buffer, LineBlockDigest saved, FileChannel source, FileChannel out)
+			throws IOException {
+		List<LineBlockDigest.Block> blocks = saved.getBlocks();
+		int prefix = saved.matchingPrefix(buffer);
+		int prefixLines = prefix == 0 ? 0 : blocks.get(prefix - 1).first + blocks.get(prefix - 1).count;
+		int suffix = saved.matchingSuffix(buffer, prefix, prefixLines);
+		int suffixLines = 0;
+		for (int i = blocks.size() - suffix; i < blocks.size(); i++) {
+			suffixLines += blocks.get(i).count;
+		}
+		for (int i = 0; i < prefix; i++) {
+			copy(source, blocks.get(i), out);
+		}
+		buffer.forEachLine(prefixLines + 1, buffer.size() - suffixLines, this);
+		for (int i = blocks.size() - suffix; i < blocks.size(); i++) {
+			copy(source, blocks.get(i), out);
+		}
+	}
+
+	/** Copy one block of the old file, after writing out all that is pending */
+	private void copy(FileChannel source, LineBlockDigest.Block block, FileChannel out) throws IOException {
+		long at = position();
+		digest.endBlock(at);
+		writeBytes();
+		for (long done = 0; done < block.length; ) {
+			long n = source.transferTo(block.offset + done, block.length - done, out);
+			if (n <= 0) {
+				throw new IOException("File being copied from has changed");
+			}
+			done += n;
+		}
+		written += block.length;
+		lines += block.count;
+		digest.copied(block, at);
+	}
+
+	/** The offset in the file that the next char will be written at */
+	private long position() throws IOException {
+		encode(false);
+		long pos = written;
+		for (int i = 0; i <= filling; i++) {
+			pos += bytes[i].position();
+		}
+		return pos;
+	}
+
+	/**
+	 * Keep e.g. the execute bits of a file being replaced, or for a new file,
+	 * undo the owner-only permissions of the temp file; not all filesystems have them.
+	 */
+	private static void copyPermissions(Path from, Path to) throws IOException {
+		try {
+			Files.setPosixFilePermissions(to, Files.exists(from) ?
+				Files.getPosixFilePermissions(from) :
+				PosixFilePermissions.fromString("rw-r--r--"));
+		} catch (UnsupportedOperationException e) {
+			// Not a POSIX filesystem
+		}
+	}
+
+	/** Add one line, and its newline, to the batch */
+	@Override
+	public void accept(CharSequence line) {
+		try {
+			if (digest != null && digest.atBlockStart()) {
+				digest.startBlock(trackOffsets ? position() : -1);
+			}
+			for (int i = 0, n = line.length(); i < n; ) {
+				int chunk = Math.min(n - i, chars.remaining());
+				chars.append(line, i, i + chunk);
+				i += chunk;
+				if (!chars.hasRemaining()) {
+					encode(false);
+				}
+			}
+			if (!chars.hasRemaining()) {
+				encode(false);
+			}
+			chars.put('\n');
+			++lines;
+			if (digest != null && digest.add(line)) {
+				digest.endBlock(trackOffsets ? position() : -1);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Encode the batched chars into the byte buffers, writing them out as they fill */
+	private void encode(boolean endOfInput) throws IOException {
+		chars.flip();
+		while (true) {
+			CoderResult result = encoder.encode(chars, bytes[filling], endOfInput);
+			if (result.isUnderflow()) {
+				break;
+			}
+			if (result.isOverflow()) {
+				nextByteBuffer();
+			} else {
+				result.throwException();
+			}
+		}
+		chars.compact();
+	}
+
+	private void nextByteBuffer() throws IOException {
+		if (++filling == bytes.length) {
+			writeBytes();
+		}
+	}
+
+	/** One gathering write of all the filled byte buffers */
+	private void writeBytes() throws IOException {
+		int n = Math.min(filling + 1, bytes.length);
+		long pending = 0;
+		for (int i = 0; i < n; i++) {
+			bytes[i].flip();
+			pending += bytes[i].remaining();
+		}
+		while (pending > 0) {
+			long w = channel.write(bytes, 0, n);
+			written += w;
+			pending -= w;
+		}
+		for (int i = 0; i < n; i++) {
+			bytes[i].clear();
+		}
+		filling = 0;
+	}
+
+	private void finish() throws IOException {
+		if (digest != null) {
+			digest.endBlock(trackOffsets ? position() : -1);
+		}
+		encode(true);
+		while (encoder.flush(bytes[filling]).isOverflow()) {
+			nextByteBuffer();
+		}
+		writeBytes();
+	}
+}
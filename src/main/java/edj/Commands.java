@@ -16,6 +16,9 @@ public class Commands {
 		if (fileName == null) {
 			System.out.println("?no filename");
 		} else {
+			if (currentFileName == null) {
+				currentFileName = fileName;	// as in ed, the first file read becomes the default
+			}
 			File f = new File(fileName);
 			if (f.canRead()) {
 				buffPrims.readBuffer(fileName);
@@ -30,6 +33,11 @@ public class Commands {
 
 		// = - print current line number
 		commands['='] = pl -> {
+			if (buffPrims instanceof BufferPrimsAsyncLoad && ((BufferPrimsAsyncLoad)buffPrims).isLoading()) {
+				System.err.println(buffPrims.getCurrentLineNumber() + " of " + buffPrims.size() +
+					String.format(" (loading, %.0f%%)", 100 * ((BufferPrimsAsyncLoad)buffPrims).getLoadProgress()));
+				return;
+			}
 			System.err.println(buffPrims.getCurrentLineNumber() + " of " + buffPrims.size());
 		};
 
@@ -44,6 +52,11 @@ public class Commands {
 			throw new UnsupportedOperationException("Editor must provide 'a' implementation");
 		};
 
+		// c - change lines
+		commands['c'] = pl -> {
+			throw new UnsupportedOperationException("Editor must provide 'c' implementation");
+		};
+
 		// d - delete lines
 		commands['d'] = pl -> {
 			buffPrims.deleteLines(pl.startNum, pl.endNum);
@@ -66,9 +79,17 @@ public class Commands {
 			System.out.println(currentFileName == null ? "(no file)" : currentFileName);
 		};
 
+		// m - move lines to after the given line
+		commands['m'] = pl -> {
+			int dest = destination(pl.operands);
+			if (dest >= 0) {
+				buffPrims.moveLines(pl.startNum, pl.endNum, dest);
+			}
+		};
+
 		// p - print lines
 		commands['p'] = pl -> {
-			buffPrims.getLines(pl.startNum, pl.endNum).forEach(System.out::println);
+			buffPrims.forEachLine(pl.startNum, pl.endNum, System.out::println);
 		};
 
 		// q - quit the editor
@@ -104,6 +125,14 @@ public class Commands {
 			}
 		};
 
+		// t - copy ("transfer") lines to after the given line
+		commands['t'] = pl -> {
+			int dest = destination(pl.operands);
+			if (dest >= 0) {
+				buffPrims.copyLines(pl.startNum, pl.endNum, dest);
+			}
+		};
+
 		// u - undo last undoable
 		commands['u'] = pl -> {
 			if (buffPrims.isUndoSupported()) {
@@ -113,9 +142,17 @@ public class Commands {
 			}
 		};
 
-		// w - write file - maybe someday
+		// w - write buffer to named file, or current file
 		commands['w'] = pl -> {
-			System.err.println("?file is read-only");
+			if (!isEmpty(pl.operands) && currentFileName == null) {
+				currentFileName = pl.operands;
+			}
+			String fileName = isEmpty(pl.operands) ? currentFileName : pl.operands.trim();
+			if (fileName == null) {
+				System.out.println("?no filename");
+			} else {
+				buffPrims.writeBuffer(fileName);
+			}
 		};
 	}
 
@@ -129,6 +166,36 @@ public class Commands {
 		commands[ch] = r;
 	}
 
+	/**
+	 * Get the destination line for m and t: a number, '.' or '$'
+	 * @return The line number, or -1 (after complaining) if invalid.
+	 */
+	private static int destination(String operand) {
+		if (isEmpty(operand)) {
+			System.out.println("?destination expected");
+			return -1;
+		}
+		operand = operand.trim();
+		if (operand.equals(".")) {
+			return buffPrims.getCurrentLineNumber();
+		}
+		if (operand.equals("$")) {
+			buffPrims.awaitLines(BufferPrims.INF);		// the last line, once any background load is done
+			return buffPrims.size();
+		}
+		try {
+			int dest = Integer.parseInt(operand);
+			buffPrims.awaitLines(dest);
+			if (dest >= 0 && dest <= buffPrims.size()) {
+				return dest;
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		System.out.println("?invalid destination " + operand);
+		return -1;
+	}
+
 	private static boolean isEmpty(String s) {
 		return s == null || s.trim().length() == 0;
 	}
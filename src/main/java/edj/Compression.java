@@ -0,0 +1,291 @@
+package edj;
+
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Transparent gzip support for reading and writing files.
+ * A file is read as gzip if it starts with the gzip magic number,
+ * whatever its name; a file is written as gzip if its name ends in
+ * .gz, or if the file being replaced was gzip'd.
+ *
+ * Inflating and deflating each run on a thread of their own,
+ * connected to the line splitting or encoding by a bounded queue of
+ * blocks, so that (de)compression and parsing overlap, while a slow
+ * consumer holds back the producer instead of letting it fill memory.
+ */
+final class Compression {
+
+	static final int BLOCK = 64 * 1024, QUEUED_BLOCKS = 16;
+	private static final int MAGIC1 = 0x1f, MAGIC2 = 0x8b;
+	private static final byte[] END = new byte[0];
+
+	private Compression() {
+		// Static methods only
+	}
+
+	/** True if the file starts with the gzip magic number; the position is not changed */
+	static boolean isGzip(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(2);
+		while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+			// keep reading
+		}
+		return magic.position() == 2 &&
+			(magic.get(0) & 0xff) == MAGIC1 && (magic.get(1) & 0xff) == MAGIC2;
+	}
+
+	/** True if the file exists and is gzip'd */
+	static boolean isGzip(Path path) throws IOException {
+		if (!Files.isRegularFile(path)) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(path)) {
+			return isGzip(channel);
+		}
+	}
+
+	/** Should a file of this name, perhaps replacing this file, be written gzip'd? */
+	static boolean wantsGzip(Path path) throws IOException {
+		return path.getFileName().toString().toLowerCase().endsWith(".gz") || isGzip(path);
+	}
+
+	/**
+	 * Open the named file for reading, inflating it on another thread if it is gzip'd.
+	 * @throws java.io.FileNotFoundException if there is no such file
+	 */
+	static InputStream open(String fileName) throws IOException {
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			return isGzip(in.getChannel()) ? new InflatingInputStream(in) : in;
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/** Read from the channel's current position, inflating on another thread if it is gzip'd */
+	static InputStream open(FileChannel channel) throws IOException {
+		InputStream in = Channels.newInputStream(channel);
+		return isGzip(channel) ? new InflatingInputStream(in) : in;
+	}
+
+	/**
+	 * The uncompressed bytes of a gzip stream, inflated ahead by a daemon
+	 * thread and handed over a block at a time.
+	 */
+	static class InflatingInputStream extends InputStream {
+		private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+		private final Thread thread;
+		private volatile IOException failure;
+		private byte[] block = new byte[0];
+		private int pos;
+		private boolean eof;
+
+		InflatingInputStream(InputStream compressed) {
+			thread = new Thread(() -> inflate(compressed), "edj inflater");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void inflate(InputStream compressed) {
+			try (InputStream gz = new GZIPInputStream(compressed, BLOCK)) {
+				while (true) {
+					byte[] b = new byte[BLOCK];
+					int n = gz.readNBytes(b, 0, BLOCK);
+					if (n == 0) {
+						break;
+					}
+					blocks.put(n == BLOCK ? b : Arrays.copyOf(b, n));
+				}
+			} catch (IOException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				return;		// closed by the reader, who wants no more
+			}
+			try {
+				blocks.put(END);
+			} catch (InterruptedException e) {
+				// closed by the reader
+			}
+		}
+
+		/** Move on to the next block if this one is used up; false at the end */
+		private boolean nextBlock() throws IOException {
+			while (!eof && pos == block.length) {
+				try {
+					block = blocks.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while inflating");
+				}
+				pos = 0;
+				if (block == END) {
+					eof = true;
+					if (failure != null) {
+						throw failure;
+					}
+				}
+			}
+			return !eof;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return nextBlock() ? block[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextBlock()) {
+				return -1;
+			}
+			int n = Math.min(len, block.length - pos);
+			System.arraycopy(block, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+			eof = true;
+			thread.interrupt();		// the inflater closes the file on its way out
+		}
+	}
+
+	/**
+	 * A channel that gzips what is written to it onto the given stream,
+	 * deflating on a thread of its own. Nothing is known to have been
+	 * written until finish() returns, which waits for the deflater and
+	 * reports any failure; the stream itself is not closed.
+	 */
+	static class DeflatingChannel implements GatheringByteChannel {
+		private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+		private final Thread thread;
+		private volatile IOException failure;
+		private boolean open = true;
+
+		DeflatingChannel(OutputStream out) {
+			thread = new Thread(() -> deflate(out), "edj deflater");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void deflate(OutputStream out) {
+			OutputStream unclosed = new FilterOutputStream(out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+			boolean ended = false;
+			try {
+				try (GZIPOutputStream gz = new GZIPOutputStream(unclosed, BLOCK)) {
+					byte[] b;
+					while ((b = blocks.take()) != END) {
+						gz.write(b);
+					}
+					ended = true;
+				} catch (IOException e) {
+					failure = e;
+					while (!ended && blocks.take() != END) {
+						// discard, so the writer is not blocked before it sees the failure
+					}
+				}
+			} catch (InterruptedException e) {
+				// aborted
+			}
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			long n = 0;
+			for (int i = offset; i < offset + length; i++) {
+				n += write(srcs[i]);
+			}
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			int n = src.remaining();
+			byte[] b = new byte[n];
+			src.get(b);
+			put(b);
+			return n;
+		}
+
+		private void put(byte[] b) throws IOException {
+			try {
+				blocks.put(b);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while deflating");
+			}
+		}
+
+		/** Wait for everything written to be deflated out */
+		void finish() throws IOException {
+			if (open) {
+				open = false;
+				put(END);
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while deflating");
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		/** Abandon the output, e.g., when the save has failed */
+		@Override
+		public void close() {
+			if (open) {
+				open = false;
+				thread.interrupt();
+			}
+		}
+	}
+}
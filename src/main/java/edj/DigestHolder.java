@@ -0,0 +1,21 @@
+package edj;
+
+/**
+ * A buffer that keeps a LineBlockDigest of what it held when last read
+ * from or written to a file, so it can tell if it has really changed
+ * since, and writeBuffer can copy the blocks of the file that haven't.
+ */
+interface DigestHolder extends BufferPrims {
+
+	/** The digest, or null if the buffer's lines didn't all come from one file */
+	LineBlockDigest getSavedDigest();
+
+	/** Replace the digest */
+	void setSavedDigest(LineBlockDigest digest);
+
+	/** True if the lines differ from those last read or written */
+	default boolean isModified() {
+		LineBlockDigest d = getSavedDigest();
+		return d == null ? size() > 0 : !d.matches(this);
+	}
+}
@@ -0,0 +1,297 @@
+package edj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the edits made to a buffer since it was read
+ * from (or last saved to) a file, kept beside the file as .NAME.journal,
+ * so that if the editor dies the edits can be replayed on top of the
+ * file. What a record holds is up to the caller; here each is framed
+ * by its length and a CRC, so a record half-written at the moment of a
+ * crash is recognized, and it and anything after it are ignored.
+ *
+ * append() never waits for the disk: records are queued, and a thread
+ * of our own writes out everything queued so far with one write and
+ * one fsync ("group commit"), then does the same for whatever arrived
+ * meanwhile. However fast the edits come, each costs only the copy
+ * into the queue, and at most one fsync is ever outstanding.
+ *
+ * The header records the size and modification time of the file the
+ * edits apply to, so a journal is only replayed on top of that very file.
+ */
+final class EditJournal implements Closeable {
+
+	private static final int MAGIC = 0x45444A4A;		// "EDJJ"
+	private static final int HEADER_SIZE = Integer.BYTES + 2 * Long.BYTES;
+	private static final int FRAME_SIZE = 2 * Integer.BYTES;	// length before, CRC after
+
+	private final Path file, journal;
+	private final FileChannel channel;
+	private final Thread flusher;
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long appended, durable;		// bytes appended, and known to be on disk, since compaction
+	private boolean flushing, closed;
+	private IOException failure;
+
+	private EditJournal(Path file, FileChannel channel) {
+		this.file = file;
+		this.journal = pathFor(file);
+		this.channel = channel;
+		flusher = new Thread(this::flushLoop, "edj journal");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/** The journal of the given file */
+	static Path pathFor(Path file) {
+		Path name = file.getFileName();
+		return file.toAbsolutePath().resolveSibling("." + name + ".journal");
+	}
+
+	/** Start an empty journal for the file as it is now, replacing any old one */
+	static EditJournal start(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(pathFor(file),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			writeHeader(channel, file);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new EditJournal(file, channel);
+	}
+
+	/**
+	 * Carry on with the file's existing journal, after its records have
+	 * been replayed; any torn record at the end is cut off.
+	 */
+	static EditJournal resume(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(pathFor(file), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long end = scan(channel, file, null);
+			if (end < 0) {
+				writeHeader(channel, file);
+			} else {
+				channel.truncate(end);
+				channel.position(end);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new EditJournal(file, channel);
+	}
+
+	/**
+	 * The records in the file's journal, in order, if there is a journal
+	 * and it is of the file as it is now; else null.
+	 */
+	static List<byte[]> readRecords(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(pathFor(file), StandardOpenOption.READ)) {
+			List<byte[]> records = new ArrayList<>();
+			return scan(channel, file, records) < 0 ? null : records;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check the header against the file and read the whole records
+	 * into records, if not null; the offset after the last whole
+	 * record, or -1 if the journal is not of this file.
+	 */
+	private static long scan(FileChannel channel, Path file, List<byte[]> records) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header, 0);
+		if (header.hasRemaining() || header.getInt(0) != MAGIC || !Files.exists(file)) {
+			return -1;
+		}
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		if (header.getLong(Integer.BYTES) != attrs.size() ||
+				header.getLong(Integer.BYTES + Long.BYTES) != attrs.lastModifiedTime().toMillis()) {
+			return -1;
+		}
+		long pos = HEADER_SIZE, size = channel.size();
+		ByteBuffer len = ByteBuffer.allocate(Integer.BYTES);
+		while (pos + FRAME_SIZE <= size) {
+			len.clear();
+			readFully(channel, len, pos);
+			int n = len.getInt(0);
+			if (n < 0 || pos + FRAME_SIZE + n > size) {
+				break;
+			}
+			ByteBuffer body = ByteBuffer.allocate(n + Integer.BYTES);
+			readFully(channel, body, pos + Integer.BYTES);
+			CRC32 crc = new CRC32();
+			crc.update(body.array(), 0, n);
+			if ((int) crc.getValue() != body.getInt(n)) {
+				break;
+			}
+			if (records != null) {
+				records.add(Arrays.copyOf(body.array(), n));
+			}
+			pos += FRAME_SIZE + n;
+		}
+		return pos;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) <= 0) {
+				break;
+			}
+		}
+	}
+
+	/** Empty the journal, making the file as it is now its starting point */
+	private static void writeHeader(FileChannel channel, Path file) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putLong(attrs.size()).putLong(attrs.lastModifiedTime().toMillis()).flip();
+		channel.truncate(0);
+		channel.position(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(true);
+	}
+
+	/** The file whose edits these are */
+	Path getFile() {
+		return file;
+	}
+
+	/** Queue a record to be written; does not wait for it to reach the disk */
+	synchronized void append(byte[] record) {
+		checkFailure();
+		if (closed) {
+			throw new IllegalStateException("Journal closed");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE + record.length);
+		frame.putInt(record.length).put(record).putInt((int) crc.getValue());
+		pending.write(frame.array(), 0, frame.capacity());
+		appended += frame.capacity();
+		notifyAll();
+	}
+
+	/** Wait until every record appended so far is on the disk */
+	synchronized void sync() {
+		long target = appended;
+		while (durable < target && failure == null) {
+			waitForFlusher();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * The file has just been saved with all the edits, so they are
+	 * no longer needed: empty the journal and start again from the file.
+	 */
+	synchronized void compact() {
+		while (flushing) {
+			waitForFlusher();
+		}
+		checkFailure();
+		pending = new ByteArrayOutputStream();
+		appended = durable = 0;
+		try {
+			writeHeader(channel, file);
+		} catch (IOException e) {
+			failure = e;
+			checkFailure();
+		}
+	}
+
+	/** Write out each batch of queued records, with one fsync per batch */
+	private void flushLoop() {
+		while (true) {
+			ByteArrayOutputStream batch;
+			long upTo;
+			synchronized (this) {
+				while (pending.size() == 0 && !closed) {
+					waitForFlusher();
+				}
+				if (pending.size() == 0) {
+					return;		// closed, and all written
+				}
+				batch = pending;
+				pending = new ByteArrayOutputStream();
+				upTo = appended;
+				flushing = true;
+			}
+			IOException e = null;
+			try {
+				ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+				channel.force(false);
+			} catch (IOException ex) {
+				e = ex;
+			}
+			synchronized (this) {
+				flushing = false;
+				if (e != null) {
+					failure = e;
+				} else {
+					durable = Math.max(durable, upTo);
+				}
+				notifyAll();
+				if (e != null) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void waitForFlusher() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BufferException("Interrupted writing journal " + journal);
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new BufferException("Journal " + journal + " failed during write", failure);
+		}
+	}
+
+	/** Write out what is queued and stop; the journal is left on disk */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	/** Stop and remove the journal, e.g., when there are no edits worth keeping */
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(journal);
+	}
+}
@@ -0,0 +1,66 @@
+package edj;
+
+import java.util.Arrays;
+
+/**
+ * The changes made to some lines, as small enough to keep for undo:
+ * for each line that changed, only the part that differs (what is left
+ * once the text the old and new line start and end with is taken off),
+ * as four ints, the line number, where in the line, how long the old
+ * text was and how long the new text is, with the old text itself kept
+ * in one String for all the lines. So undoing a substitution over a
+ * whole file that changed a few words costs a few words, not the file.
+ */
+final class EditScript {
+
+	/** The ints per edit: line number, offset, old length, new length */
+	static final int STRIDE = 4;
+
+	private int[] edits = new int[4 * STRIDE];
+	private int n;
+	private final StringBuilder oldText = new StringBuilder();
+
+	/** Note that line lineNum was changed from oldLine to newLine */
+	void add(int lineNum, String oldLine, String newLine) {
+		int oldLen = oldLine.length(), newLen = newLine.length();
+		int prefix = 0, max = Math.min(oldLen, newLen);
+		while (prefix < max && oldLine.charAt(prefix) == newLine.charAt(prefix)) {
+			++prefix;
+		}
+		int suffix = 0;
+		max -= prefix;
+		while (suffix < max && oldLine.charAt(oldLen - suffix - 1) == newLine.charAt(newLen - suffix - 1)) {
+			++suffix;
+		}
+		if (n + STRIDE > edits.length) {
+			edits = Arrays.copyOf(edits, edits.length * 2);
+		}
+		edits[n++] = lineNum;
+		edits[n++] = prefix;
+		edits[n++] = oldLen - prefix - suffix;
+		edits[n++] = newLen - prefix - suffix;
+		oldText.append(oldLine, prefix, oldLen - suffix);
+	}
+
+	/** The edits, STRIDE ints each */
+	int[] edits() {
+		return Arrays.copyOf(edits, n);
+	}
+
+	/** The old text of all the edits, in order */
+	String oldText() {
+		return oldText.toString();
+	}
+
+	/**
+	 * A line changed by an edit, with its old text put back: the new
+	 * text, newLen chars at offset, replaced by text[at, at+oldLen).
+	 */
+	static String undo(String line, int offset, int newLen, String text, int at, int oldLen) {
+		return new StringBuilder(line.length() - newLen + oldLen)
+			.append(line, 0, offset)
+			.append(text, at, at + oldLen)
+			.append(line, offset + newLen, line.length())
+			.toString();
+	}
+}
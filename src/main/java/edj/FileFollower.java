@@ -0,0 +1,151 @@
+package edj;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Follow a file that is still being written, as "tail -f" does: the file
+ * is kept open, with the offset just after the last complete line that
+ * has been passed on, and each poll() reads only what has been written
+ * since, passing on the complete lines and leaving any partial last line
+ * to be read again, whole, once its newline has been written.
+ *
+ * If the file is truncated (shorter than our offset), or replaced (a log
+ * rotated, so the name now refers to a new file), any last lines of the
+ * old file are passed on, then the follower says so and starts again at
+ * the start of the file.
+ *
+ * Lines end at \n, and a \r before it is dropped, as in LineReader.
+ * Gzip'd files, and charsets in which a \n byte may be part of another
+ * char, can't be read from an arbitrary offset, so can't be followed.
+ */
+final class FileFollower implements Closeable {
+
+	static final int BLOCK = 64 * 1024;
+
+	private final Path path;
+	private final Charset charset;
+	private FileChannel channel;
+	private Object fileKey;
+	private long offset;
+	private byte[] bytes = new byte[BLOCK];
+
+	FileFollower(String fileName) throws IOException {
+		this.path = Paths.get(fileName);
+		this.charset = Charset.defaultCharset();
+		if (!ParallelLineLoader.isNewlineSafe(charset)) {
+			throw new IOException("Can't follow a file in " + charset);
+		}
+		open();
+	}
+
+	private void open() throws IOException {
+		FileChannel c = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (Compression.isGzip(c)) {
+				throw new IOException("Can't follow gzip'd file " + path);
+			}
+			fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+		} catch (IOException e) {
+			c.close();
+			throw e;
+		}
+		channel = c;
+		offset = 0;
+	}
+
+	/** The file being followed */
+	Path getFile() {
+		return path;
+	}
+
+	/** The offset just after the last complete line passed on */
+	long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Pass on each complete line written since the last poll; if the
+	 * file has been truncated or replaced, run onRestart before passing
+	 * on the lines of the file from its start.
+	 * @return the number of lines passed on
+	 */
+	int poll(Consumer<String> onLine, Runnable onRestart) throws IOException {
+		int n = readNew(onLine);
+		if (channel.size() < offset) {
+			offset = 0;
+			onRestart.run();
+			return n + readNew(onLine);
+		}
+		if (isReplaced()) {
+			n += readNew(onLine);	// whatever was written before the rotation
+			channel.close();
+			open();
+			onRestart.run();
+			return n + readNew(onLine);
+		}
+		return n;
+	}
+
+	/** Does the name now refer to another file? Not if there is no file of that name yet */
+	private boolean isReplaced() throws IOException {
+		try {
+			Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+			return key != null && !key.equals(fileKey);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	/** Read from offset to the end of the file, passing on the complete lines */
+	private int readNew(Consumer<String> onLine) throws IOException {
+		long size = channel.size();
+		int n = 0;
+		while (offset < size) {
+			int want = (int) Math.min(bytes.length, size - offset);
+			ByteBuffer buf = ByteBuffer.wrap(bytes, 0, want);
+			while (buf.hasRemaining() && channel.read(buf, offset + buf.position()) > 0) {
+				// keep reading
+			}
+			int got = buf.position(), start = 0;
+			for (int nl = NewlineScanner.indexOf(bytes, 0, got); nl >= 0;
+					nl = NewlineScanner.indexOf(bytes, start, got)) {
+				onLine.accept(decode(start, nl));
+				start = nl + 1;
+				++n;
+			}
+			if (start == 0) {
+				if (got < bytes.length) {
+					break;		// only a partial line, so far
+				}
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);		// a very long line
+				continue;
+			}
+			offset += start;
+		}
+		return n;
+	}
+
+	private String decode(int from, int to) {
+		if (to > from && bytes[to - 1] == '\r') {
+			--to;
+		}
+		return new String(bytes, from, to - from, charset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,125 @@
+package edj;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Notice when the file being edited is changed on disk by another
+ * process, whether written in place, appended to, or replaced by a
+ * rename. A WatchService on the file's directory is drained by a
+ * daemon thread, which only raises a flag; the editor asks
+ * hasChanged() between commands, on its own thread, so the buffer is
+ * only ever changed there. Since the directory is watched, our own
+ * saves raise the flag too, so hasChanged() also checks the file's
+ * identity, size and time against those noted when we last read or
+ * wrote it.
+ */
+final class FileWatcher implements Closeable {
+
+	private final WatchService service;
+	private volatile Path file;		// absolute
+	private volatile boolean signalled;
+	private WatchKey key;
+	private Object lastKey;
+	private long lastSize = -1, lastTime = -1;
+
+	FileWatcher() throws IOException {
+		service = FileSystems.getDefault().newWatchService();
+		Thread thread = new Thread(this::run, "edj file watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Watch the named file instead of any other, taking it as it is now as up to date */
+	synchronized void watch(String fileName) throws IOException {
+		Path p = Paths.get(fileName).toAbsolutePath();
+		if (p.equals(file)) {
+			return;
+		}
+		Path dir = p.getParent();
+		if (key == null || !key.watchable().equals(dir)) {
+			if (key != null) {
+				key.cancel();
+			}
+			key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		file = p;
+		noteCurrent();
+	}
+
+	/** The file being watched, or null */
+	Path getFile() {
+		return file;
+	}
+
+	/** The file is now as we last read or wrote it */
+	void noteCurrent() {
+		signalled = false;
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+			lastKey = attrs.fileKey();
+			lastSize = attrs.size();
+			lastTime = attrs.lastModifiedTime().toMillis();
+		} catch (NoSuchFileException e) {
+			lastKey = null;
+			lastSize = lastTime = -1;
+		} catch (IOException e) {
+			// Leave the old values; at worst, one needless reload
+		}
+	}
+
+	/**
+	 * Has the file been changed by someone else since we noted it?
+	 * If so, it is noted as it is now, so each change is reported once.
+	 * A file that has been deleted is not counted as changed.
+	 */
+	boolean hasChanged() {
+		if (!signalled || file == null) {
+			return false;
+		}
+		signalled = false;
+		Object oldKey = lastKey;
+		long oldSize = lastSize, oldTime = lastTime;
+		noteCurrent();
+		if (lastSize < 0) {
+			return false;
+		}
+		return lastSize != oldSize || lastTime != oldTime ||
+			(lastKey != null && !lastKey.equals(oldKey));
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				WatchKey k = service.take();
+				for (WatchEvent<?> event : k.pollEvents()) {
+					Path f = file;
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+							f != null && f.getFileName().equals(event.context())) {
+						signalled = true;
+					}
+				}
+				k.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+}
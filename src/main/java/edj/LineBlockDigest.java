@@ -0,0 +1,435 @@
+package edj;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * What a buffer held when it was last read from or written to a file,
+ * as a 64-bit hash of each block of lines: enough to tell whether the
+ * buffer has really changed since (not just been edited and edited
+ * back), and, if the file is still as it was, which blocks of it can
+ * be copied as they are when the buffer is next saved. Blocks are
+ * normally BLOCK_LINES lines; those of a save vary, as unchanged blocks
+ * are carried over as they were.
+ *
+ * A block is only copyable if its bytes in the file are known to be
+ * exactly its lines, each encoded and ended by \n; this is checked
+ * per block, so a block with a \r\n or with no final \n is rewritten.
+ * The file is not kept open; it is opened again to copy from, and only
+ * if it is still the same file, of the same size and modification time.
+ *
+ * A buffer that reports each change it makes with changed() has only
+ * the blocks those changes touched hashed again by matches(), so that
+ * it is cheap enough to ask after every edit.
+ */
+final class LineBlockDigest {
+
+	static final int BLOCK_LINES = 1024;
+	private static final long LINE_PRIME = 0x100000001B3L, BLOCK_PRIME = 0x9E3779B97F4A7C15L;
+	private static final int SCAN_BLOCK = 1 << 20;
+
+	/** One block: lines [first, first+count), 0-based, at bytes [offset, offset+length) of the file */
+	static class Block {
+		final int first, count;
+		final long hash, chars;
+		long offset = -1, length = -1;	// -1 if not copyable
+
+		Block(int first, Hasher h) {
+			this(first, h.count, h.hash, h.chars);
+		}
+
+		Block(int first, int count, long hash, long chars) {
+			this.first = first;
+			this.count = count;
+			this.hash = hash;
+			this.chars = chars;
+		}
+
+		boolean isCopyable() {
+			return offset >= 0;
+		}
+	}
+
+	private final List<Block> blocks;
+	private final int lines;
+	private final long chars;		// counting a newline per line
+	private Path source;			// the file, if blocks may be copied from it
+	private Object fileKey;			// to tell if the file has since been replaced
+	private long fileSize, fileTime;
+	private Charset charset;
+
+	/** If changes are reported, lines [dirtyFrom, dirtyTo) of the buffer as it is now may differ */
+	private boolean tracking;
+	private int dirtyFrom, dirtyTo;
+
+	private LineBlockDigest(List<Block> blocks, int lines, long chars) {
+		this.blocks = blocks;
+		this.lines = lines;
+		this.chars = chars;
+	}
+
+	/** The hash of one line */
+	static long lineHash(CharSequence line) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0, n = line.length(); i < n; i++) {
+			h = (h ^ line.charAt(i)) * LINE_PRIME;
+		}
+		return h ^ line.length();
+	}
+
+	/** Hashes a run of lines, in order */
+	static class Hasher {
+		long hash;
+		int count;
+		long chars;
+
+		void add(CharSequence line) {
+			hash = (hash + lineHash(line)) * BLOCK_PRIME;
+			++count;
+			chars += line.length() + 1;
+		}
+	}
+
+	/** The hash of lines [first, first+count) of the buffer, 0-based */
+	static long hashOf(BufferPrims buffer, int first, int count) {
+		Hasher h = new Hasher();
+		buffer.forEachLine(first + 1, first + count, h::add);
+		return h.hash;
+	}
+
+	/** A digest of the buffer as it is now, with nothing copyable */
+	static LineBlockDigest of(BufferPrims buffer) {
+		Builder b = new Builder();
+		buffer.forEachLine(1, buffer.size(), line -> {
+			if (b.add(line)) {
+				b.endBlock(-1);
+			}
+		});
+		b.endBlock(-1);
+		return b.build();
+	}
+
+	/**
+	 * A digest of lines just read from the file open on channel, whose
+	 * blocks may later be copied from it; blocks are hashed in parallel.
+	 * If channel is null (e.g., the file was gzip'd) nothing is copyable.
+	 */
+	static LineBlockDigest ofRead(List<String> lines, FileChannel channel, Path path, Charset charset) throws IOException {
+		int nBlocks = (lines.size() + BLOCK_LINES - 1) / BLOCK_LINES;
+		long[] hash = new long[nBlocks], encoded = new long[nBlocks], chars = new long[nBlocks];
+		boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			Hasher h = new Hasher();
+			long bytes = 0;
+			for (int i = b * BLOCK_LINES, end = Math.min(i + BLOCK_LINES, lines.size()); i < end; i++) {
+				String line = lines.get(i);
+				h.add(line);
+				bytes += (utf8 ? utf8Length(line) : line.length()) + 1;
+			}
+			hash[b] = h.hash;
+			encoded[b] = bytes;
+			chars[b] = h.chars;
+		});
+		List<Block> blocks = new ArrayList<>(nBlocks);
+		long totalChars = 0;
+		for (int b = 0; b < nBlocks; b++) {
+			int first = b * BLOCK_LINES;
+			blocks.add(new Block(first, Math.min(BLOCK_LINES, lines.size() - first), hash[b], chars[b]));
+			totalChars += chars[b];
+		}
+		LineBlockDigest d = new LineBlockDigest(blocks, lines.size(), totalChars);
+		if (channel != null) {
+			d.findOffsets(channel, encoded);
+			d.setSource(path, charset);
+		}
+		return d;
+	}
+
+	/**
+	 * Read all the lines of a file, in parallel where possible, passing
+	 * each through perLine, and pass their digest to setDigest; blocks
+	 * may be copied from the file later, unless it was gzip'd.
+	 */
+	static List<String> readWithDigest(Path path, UnaryOperator<String> perLine,
+			Consumer<LineBlockDigest> setDigest) throws IOException {
+		Charset charset = Charset.defaultCharset();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			List<String> lines;
+			if (ParallelLineLoader.canLoad(channel)) {
+				lines = ParallelLineLoader.load(channel, perLine);
+				setDigest.accept(ofRead(lines, channel, path, charset));
+			} else {
+				lines = ParallelLineLoader.load(path.toString(), perLine);
+				setDigest.accept(ofRead(lines, null, path, charset));
+			}
+			return lines;
+		}
+	}
+
+	/** The length of s in UTF-8 */
+	static int utf8Length(String s) {
+		int n = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				n += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Find where each block starts in the file by counting newlines, and
+	 * make copyable each block whose length there is its encoded length.
+	 */
+	private void findOffsets(FileChannel channel, long[] encoded) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(SCAN_BLOCK);
+		long pos = 0, size = channel.size(), blockStart = 0;
+		int b = 0, linesLeft = blocks.isEmpty() ? 0 : blocks.get(0).count;
+		while (b < blocks.size() && pos < size) {
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if (n <= 0) {
+				break;
+			}
+			byte[] bytes = buf.array();
+			for (int i = NewlineScanner.indexOf(bytes, 0, n); i >= 0 && b < blocks.size();
+					i = NewlineScanner.indexOf(bytes, i + 1, n)) {
+				if (--linesLeft == 0) {
+					long end = pos + i + 1;
+					Block block = blocks.get(b);
+					if (end - blockStart == encoded[b]) {
+						block.offset = blockStart;
+						block.length = end - blockStart;
+					}
+					blockStart = end;
+					if (++b < blocks.size()) {
+						linesLeft = blocks.get(b).count;
+					}
+				}
+			}
+			pos += n;
+		}
+	}
+
+	/** Note that the blocks' offsets are in this file, as it is now */
+	void setSource(Path path, Charset charset) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		this.source = path.toAbsolutePath();
+		this.fileKey = attrs.fileKey();
+		this.fileSize = attrs.size();
+		this.fileTime = attrs.lastModifiedTime().toMillis();
+		this.charset = charset;
+	}
+
+	/**
+	 * Can blocks be copied from our file into a file written in this charset?
+	 * Not if the file has been replaced or changed since, even in place.
+	 */
+	boolean canCopyTo(Charset charset) {
+		return source != null && charset.equals(this.charset) && isSourceFile(source);
+	}
+
+	/**
+	 * Open our file to copy blocks from, or return null if it is no longer
+	 * as it was (checked again once open, in case it changed meanwhile).
+	 */
+	FileChannel openSource() throws IOException {
+		if (source == null) {
+			return null;
+		}
+		FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+		if (!isSourceFile(source) || channel.size() != fileSize) {
+			channel.close();
+			return null;
+		}
+		return channel;
+	}
+
+	/** The size of the file, when the digest was taken of it */
+	long getFileSize() {
+		return fileSize;
+	}
+
+	/** Is path still the very file the digest was taken of, and unchanged? */
+	boolean isSourceFile(Path path) {
+		if (source == null) {
+			return false;
+		}
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			boolean same = fileKey != null ? fileKey.equals(attrs.fileKey()) :
+				source.equals(path.toAbsolutePath());
+			return same && attrs.size() == fileSize &&
+				attrs.lastModifiedTime().toMillis() == fileTime;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * From now on, matches() need only hash again the blocks that the
+	 * changes reported by changed() have touched; the buffer must then
+	 * report every change it makes.
+	 */
+	void trackChanges() {
+		tracking = true;
+		dirtyFrom = dirtyTo = 0;
+	}
+
+	/** Note that lines [first, first+removed) of the buffer (0-based) were replaced by added lines */
+	void changed(int first, int removed, int added) {
+		if (!tracking) {
+			return;
+		}
+		int to = first + Math.max(added, 1);	// a deletion changes the line that moves up into its place
+		if (dirtyFrom < dirtyTo) {
+			dirtyFrom = Math.min(shift(dirtyFrom, first, removed, added), first);
+			dirtyTo = Math.max(shift(dirtyTo, first, removed, added), to);
+		} else {
+			dirtyFrom = first;
+			dirtyTo = to;
+		}
+	}
+
+	/** Where line n is after lines [first, first+removed) are replaced by added lines */
+	private static int shift(int n, int first, int removed, int added) {
+		return n <= first ? n : n >= first + removed ? n + added - removed : first + added;
+	}
+
+	List<Block> getBlocks() {
+		return blocks;
+	}
+
+	int getLines() {
+		return lines;
+	}
+
+	/** The length of the text, counting one newline per line */
+	long getChars() {
+		return chars;
+	}
+
+	/**
+	 * Does the buffer hold exactly the lines this is a digest of? If
+	 * changes are tracked, only the blocks they touched are compared:
+	 * with the same number of lines, those after them are where they were.
+	 */
+	boolean matches(BufferPrims buffer) {
+		if (buffer.size() != lines) {
+			return false;
+		}
+		for (Block b : blocks) {
+			if (tracking && (b.first + b.count <= dirtyFrom || b.first >= dirtyTo)) {
+				continue;
+			}
+			if (hashOf(buffer, b.first, b.count) != b.hash) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** How many copyable blocks from the start are unchanged, at the same line numbers */
+	int matchingPrefix(BufferPrims buffer) {
+		int n = 0;
+		for (Block b : blocks) {
+			if (!b.isCopyable() || b.first + b.count > buffer.size() ||
+					hashOf(buffer, b.first, b.count) != b.hash) {
+				break;
+			}
+			++n;
+		}
+		return n;
+	}
+
+	/**
+	 * How many copyable blocks from the end are unchanged, at the same
+	 * distance from the end of the buffer, and after its first prefixLines lines.
+	 */
+	int matchingSuffix(BufferPrims buffer, int prefixBlocks, int prefixLines) {
+		int shift = buffer.size() - lines, n = 0;
+		for (int i = blocks.size() - 1; i >= prefixBlocks; i--) {
+			Block b = blocks.get(i);
+			int first = b.first + shift;
+			if (!b.isCopyable() || first < prefixLines || hashOf(buffer, first, b.count) != b.hash) {
+				break;
+			}
+			++n;
+		}
+		return n;
+	}
+
+	/**
+	 * Builds the digest of a file as it is written: blocks copied from
+	 * the old file are taken over as they were, and written lines are
+	 * hashed into new blocks. The writer gives the byte offsets, if
+	 * known, at which blocks start and end, making them copyable next time.
+	 */
+	static class Builder {
+		private final List<Block> blocks = new ArrayList<>();
+		private int lines;
+		private long chars;
+		private Hasher h = new Hasher();
+		private long start = -1;
+
+		/** A block copied from the old file, now at offset */
+		void copied(Block old, long offset) {
+			Block b = new Block(lines, old.count, old.hash, old.chars);
+			b.offset = offset;
+			b.length = old.length;
+			blocks.add(b);
+			lines += b.count;
+			chars += b.chars;
+		}
+
+		/** Is the next line written the first of a block? */
+		boolean atBlockStart() {
+			return h.count == 0;
+		}
+
+		/** The offset at which the block now starting starts */
+		void startBlock(long offset) {
+			start = offset;
+		}
+
+		/** Add a written line; true if that fills the block, which must then be ended */
+		boolean add(CharSequence line) {
+			h.add(line);
+			return h.count == BLOCK_LINES;
+		}
+
+		/** End the block of written lines, if any; end is the offset after it, or -1 */
+		void endBlock(long end) {
+			if (h.count == 0) {
+				return;
+			}
+			Block b = new Block(lines, h);
+			if (start >= 0 && end >= 0) {
+				b.offset = start;
+				b.length = end - start;
+			}
+			blocks.add(b);
+			lines += b.count;
+			chars += b.chars;
+			h = new Hasher();
+			start = -1;
+		}
+
+		LineBlockDigest build() {
+			return new LineBlockDigest(blocks, lines, chars);
+		}
+	}
+}
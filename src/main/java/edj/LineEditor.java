@@ -3,6 +3,8 @@ package edj;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +27,8 @@ public class LineEditor {
 	protected static String currentFileName;
 	
 	static Commands commands;
+	static FileWatcher watcher;
+	static FileFollower follower;
 
 	/**
 	 * Read lines from the user until they type a "." line
@@ -44,28 +48,205 @@ public class LineEditor {
 		return ret;
 	}
 	
-	/** Should remove throws, use try-catch inside loop */
+	/**
+	 * Keep the watcher on the current file; if we have just read or
+	 * written it, take it as it is now; else if someone else has changed
+	 * it, bring the buffer up to date, as one undoable change.
+	 */
+	static void watchCurrentFile(boolean justReadOrWritten) {
+		if (Commands.currentFileName == null) {
+			return;
+		}
+		try {
+			watcher.watch(Commands.currentFileName);
+		} catch (IOException e) {
+			System.out.println("? Can't watch " + Commands.currentFileName + ": " + e);
+			return;
+		}
+		if (justReadOrWritten) {
+			watcher.noteCurrent();
+		} else if (watcher.hasChanged()) {
+			int n = BufferReloader.reload(buffPrims, watcher.getFile().toString());
+			System.out.println(n == 0 ? "File changed on disk, buffer already up to date" :
+				"File changed on disk, reloaded: " + n + " lines changed (u undoes)");
+		}
+	}
+
+	/**
+	 * Add the lines written to the followed file since we last looked
+	 * to the end of the buffer, not as an undoable change, and not
+	 * moving the current line unless it was the last; if the file was
+	 * truncated or replaced, start the buffer again. Stop following
+	 * if the user has moved on to editing another file.
+	 * @return the number of lines added
+	 */
+	static int followFile() throws IOException {
+		if (!follower.getFile().equals(Paths.get(Commands.currentFileName))) {
+			System.out.println("Stopped following " + follower.getFile());
+			follower.close();
+			follower = null;
+			return 0;
+		}
+		List<String> fresh = new ArrayList<>();
+		boolean[] restarted = { false };
+		follower.poll(fresh::add, () -> {
+			fresh.clear();
+			restarted[0] = true;
+		});
+		if (restarted[0]) {
+			System.out.println(follower.getFile() + " was truncated or replaced, reading it again");
+			buffPrims.clearBuffer();
+		}
+		if (!fresh.isEmpty()) {
+			int oldSize = buffPrims.size(), oldCurrent = buffPrims.getCurrentLineNumber();
+			buffPrims.addLines(oldSize, fresh);
+			if (buffPrims.isUndoSupported()) {
+				((UndoManagerEdj)buffPrims).popUndo();
+			}
+			buffPrims.goToLine(oldCurrent != oldSize ? oldCurrent : buffPrims.size());
+		}
+		return fresh.size();
+	}
+
+	/**
+	 * Usage: LineEditor [-b buffertype] [-i] [-a] [-j] [-w] [-f] [-x] [-s imagefile] [-u megabytes] [filename]
+	 * -i shares identical lines through a LineInterner
+	 * -a reads files in the background, so editing can start at once
+	 * -j journals edits, so they can be recovered if the editor dies
+	 * -w watches the file, reloading what others change in it
+	 * -f follows a growing file (e.g., a log), adding new lines as they are written
+	 * -x keeps a line index beside huge files, so the mapped and paged buffers reopen them at once
+	 * -s saves the session (buffer, file name and undo history) in imagefile on quitting,
+	 * and starts from it if it exists (instead of reading filename)
+	 * -u keeps at most about that much undo history in memory, the rest in a temporary file
+	 * Should remove throws, use try-catch inside loop
+	 */
 	public static void main(String[] args) throws IOException {
+		String fileName = null, imageFile = null;
+		long undoBudget = 0;
+		boolean intern = false, async = false, journal = false, watch = false, follow = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-b")) {
+				buffPrims = BufferPrimsFactory.create(args[++i]);
+			} else if (args[i].equals("-i")) {
+				intern = true;
+			} else if (args[i].equals("-a")) {
+				async = true;
+			} else if (args[i].equals("-j")) {
+				journal = true;
+			} else if (args[i].equals("-w")) {
+				watch = true;
+			} else if (args[i].equals("-f")) {
+				follow = true;
+			} else if (args[i].equals("-x")) {
+				LineOffsetIndex.setEnabled(true);
+			} else if (args[i].equals("-s")) {
+				imageFile = args[++i];
+			} else if (args[i].equals("-u")) {
+				undoBudget = Long.parseLong(args[++i]) << 20;
+			} else {
+				fileName = args[i];
+			}
+		}
+		if (intern) {
+			if (buffPrims instanceof AbstractBufferPrims) {
+				((AbstractBufferPrims)buffPrims).setInterner(LineInterner.getShared());
+			} else {
+				System.err.println("? This buffer type does not support -i, ignored");
+			}
+		}
+		if (follow && (async || watch)) {
+			System.err.println("? -f reads and watches the file itself; -a and -w ignored");
+			async = watch = false;
+		}
+		if (undoBudget > 0) {
+			if (buffPrims instanceof BufferPrimsWithUndo) {
+				((BufferPrimsWithUndo)buffPrims).setUndoBudget(undoBudget);
+			} else {
+				System.err.println("? This buffer type does not support -u, ignored");
+			}
+		}
+		BufferPrimsWithUndo session = null;
+		if (imageFile != null) {
+			if (!(buffPrims instanceof BufferPrimsWithUndo)) {
+				System.err.println("? This buffer type does not support -s, ignored");
+				imageFile = null;
+			} else if (async || journal || follow) {
+				System.err.println("? -s keeps the session itself; -a, -j and -f ignored");
+				async = journal = follow = false;
+			}
+			if (imageFile != null) {
+				session = (BufferPrimsWithUndo) buffPrims;
+			}
+		}
+		if (async) {
+			buffPrims = new BufferPrimsAsyncLoad(buffPrims);
+		}
+		BufferPrimsJournaled journaled = null;
+		if (journal) {
+			buffPrims = journaled = new BufferPrimsJournaled(buffPrims);
+		}
 		commands = new Commands(buffPrims);
 		commands.setCommand('a', pc -> {
 			int n = pc.startNum == -1 ? buffPrims.getCurrentLineNumber() : pc.startNum;
 			buffPrims.addLines(n, gatherLines());
 		});
+		commands.setCommand('c', pc -> {
+			buffPrims.replaceLines(pc.startNum, pc.endNum, gatherLines());
+		});
 
 		String line;
 		in = new BufferedReader(new InputStreamReader(System.in));
 
-		if (args.length == 1) {
-			commands.readFile(currentFileName = args[0]);
+		if (journaled != null) {
+			final BufferPrimsJournaled j = journaled;
+			commands.setCommand('q', pc -> {
+				j.close();
+				System.exit(0);
+			});
+		}
+		if (session != null) {
+			final BufferPrimsWithUndo s = session;
+			final String image = imageFile;
+			commands.setCommand('q', pc -> {
+				saveSession(s, image);
+				System.exit(0);
+			});
+		}
+
+		if (session != null && Files.exists(Paths.get(imageFile))) {
+			Commands.currentFileName = currentFileName = session.restoreSession(imageFile);
+			System.out.println(String.format("%dL restored from %s", session.size(), imageFile));
+		} else if (fileName != null && journaled != null && BufferPrimsJournaled.hasJournal(fileName)) {
+			Commands.currentFileName = currentFileName = fileName;
+			int n = journaled.recover(fileName);
+			System.out.println("Recovered " + n + " edits to " + fileName + " from its journal");
+		} else if (fileName != null && follow) {
+			Commands.currentFileName = currentFileName = fileName;
+			follower = new FileFollower(fileName);
+			System.out.println(String.format("%dL", followFile()));
+		} else if (fileName != null) {
+			commands.readFile(currentFileName = fileName);
 			// Since readBuffer can be used from here or interactively, here we drop its Undoable.
 			if (buffPrims.isUndoSupported()) {
 				((UndoManagerEdj)buffPrims).popUndo();
 			}
 		}
 
+		if (watch) {
+			watcher = new FileWatcher();
+			watchCurrentFile(false);
+		}
+
 		// The main loop of the editor is right here:
 		while ((line = in.readLine())  != null) {
 			try {
+				if (watcher != null) {
+					watchCurrentFile(false);	// before the command, which may depend on the lines
+				}
+				if (follower != null) {
+					followFile();
+				}
 				ParsedCommand pl = LineParser.parse(line, buffPrims);
 				if (pl == null) {
 					System.out.println("?");
@@ -77,6 +258,9 @@ public class LineEditor {
 				} else {
 					c.execute(pl);
 				}
+				if (watcher != null && (pl.cmdLetter == 'w' || pl.cmdLetter == 'e')) {
+					watchCurrentFile(true);
+				}
 			} catch (Exception e) {
 				System.err.println("? Caught exception " + e);
 				if (debug) {
@@ -84,5 +268,17 @@ public class LineEditor {
 				}
 			}
 		}
+		if (journaled != null) {
+			journaled.close();		// end of input is a normal quit
+		}
+		if (session != null) {
+			saveSession(session, imageFile);
+		}
+	}
+
+	/** Save the session on quitting, with the file name that 'w' would write to */
+	private static void saveSession(BufferPrimsWithUndo session, String imageFile) {
+		session.saveSession(imageFile, Commands.currentFileName);
+		System.out.println("Session saved in " + imageFile);
 	}
 }
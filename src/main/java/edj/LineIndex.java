@@ -0,0 +1,226 @@
+package edj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of where each line starts, for buffers that keep their text
+ * as one long sequence of chars. Kept as a chunked array of line lengths
+ * (each including its \n), with the first line and first char of every
+ * chunk cached, so finding a line's offset is a binary search over the
+ * chunks plus a bounded sum within one chunk, and inserting or removing
+ * lines only touches the chunks involved rather than the whole index.
+ * Line numbers here are 0-based.
+ */
+class LineIndex {
+
+	static final int CHUNK = 512;
+
+	private static class Chunk {
+		int[] len = new int[CHUNK];
+		int n;			// lines in this chunk
+		int chars;		// total of len[0..n)
+	}
+
+	private final List<Chunk> chunks = new ArrayList<>();
+	/** firstLine and firstChar of each chunk, good for chunks [0, valid) */
+	private int[] firstLine = new int[16], firstChar = new int[16];
+	private int valid;
+	private int lines, chars;
+
+	/** Build the index for the given text */
+	static LineIndex of(CharSequence text) {
+		LineIndex ix = new LineIndex();
+		int[] lens = new int[CHUNK];
+		int[] n = new int[1], start = new int[1];
+		NewlineScanner.forEachNewline(text, i -> {
+			if (n[0] == lens.length) {
+				ix.insert(ix.lines, lens, n[0]);
+				n[0] = 0;
+			}
+			lens[n[0]++] = i + 1 - start[0];
+			start[0] = i + 1;
+		});
+		ix.insert(ix.lines, lens, n[0]);
+		return ix;
+	}
+
+	int lines() {
+		return lines;
+	}
+
+	int chars() {
+		return chars;
+	}
+
+	void clear() {
+		chunks.clear();
+		valid = lines = chars = 0;
+	}
+
+	/**
+	 * Bring the per-chunk cache up to date. Lookups do this as needed;
+	 * call it before letting several threads do lookups at once.
+	 */
+	void validate() {
+		if (valid == chunks.size()) {
+			return;
+		}
+		if (firstLine.length < chunks.size()) {
+			firstLine = Arrays.copyOf(firstLine, chunks.size() * 2);
+			firstChar = Arrays.copyOf(firstChar, chunks.size() * 2);
+		}
+		for (int c = valid; c < chunks.size(); c++) {
+			Chunk prev = c == 0 ? null : chunks.get(c - 1);
+			firstLine[c] = prev == null ? 0 : firstLine[c - 1] + prev.n;
+			firstChar[c] = prev == null ? 0 : firstChar[c - 1] + prev.chars;
+		}
+		valid = chunks.size();
+	}
+
+	private void invalidateFrom(int c) {
+		valid = Math.min(valid, Math.max(c, 0));
+	}
+
+	/** Find the chunk holding the given line (0 <= line < lines) */
+	private int chunkOf(int line) {
+		validate();
+		int lo = 0, hi = chunks.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (firstLine[mid] <= line) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	/** Offset of the start of the line; line == lines() gives the end */
+	int offset(int line) {
+		if (line >= lines) {
+			return chars;
+		}
+		int c = chunkOf(line);
+		Chunk ch = chunks.get(c);
+		int offset = firstChar[c];
+		for (int i = line - firstLine[c] - 1; i >= 0; i--) {
+			offset += ch.len[i];
+		}
+		return offset;
+	}
+
+	/** Length of the line, including its \n */
+	int length(int line) {
+		int c = chunkOf(line);
+		return chunks.get(c).len[line - firstLine[c]];
+	}
+
+	/** The line containing the given char offset */
+	int lineAt(int offset) {
+		if (offset >= chars) {
+			return lines;
+		}
+		validate();
+		int lo = 0, hi = chunks.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (firstChar[mid] <= offset) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		Chunk ch = chunks.get(lo);
+		int line = firstLine[lo], pos = firstChar[lo];
+		for (int i = 0; pos + ch.len[i] <= offset; i++) {
+			pos += ch.len[i];
+			++line;
+		}
+		return line;
+	}
+
+	/** Change the length of one line */
+	void setLength(int line, int len) {
+		int c = chunkOf(line);
+		Chunk ch = chunks.get(c);
+		int i = line - firstLine[c];
+		ch.chars += len - ch.len[i];
+		chars += len - ch.len[i];
+		ch.len[i] = len;
+		invalidateFrom(c + 1);
+	}
+
+	/** Insert 'count' new lines, of the given lengths, before 'line' */
+	void insert(int line, int[] lens, int count) {
+		if (count == 0) {
+			return;
+		}
+		int c, i;
+		if (chunks.isEmpty()) {
+			chunks.add(new Chunk());
+			c = i = 0;
+		} else if (line >= lines) {
+			c = chunks.size() - 1;
+			i = chunks.get(c).n;
+		} else {
+			c = chunkOf(line);
+			i = line - firstLine[c];
+		}
+		Chunk ch = chunks.get(c);
+		int[] merged = new int[ch.n + count];
+		System.arraycopy(ch.len, 0, merged, 0, i);
+		System.arraycopy(lens, 0, merged, i, count);
+		System.arraycopy(ch.len, i, merged, i + count, ch.n - i);
+		chunks.remove(c);
+		// Re-split half full if it overflows, leaving room for more inserts
+		int per = merged.length <= CHUNK ? CHUNK : CHUNK / 2;
+		for (int from = 0, at = c; from < merged.length; from += per) {
+			Chunk nc = new Chunk();
+			nc.n = Math.min(per, merged.length - from);
+			System.arraycopy(merged, from, nc.len, 0, nc.n);
+			for (int k = 0; k < nc.n; k++) {
+				nc.chars += nc.len[k];
+			}
+			chunks.add(at++, nc);
+		}
+		for (int k = 0; k < count; k++) {
+			chars += lens[k];
+		}
+		lines += count;
+		invalidateFrom(c);
+	}
+
+	/** Remove lines [from, to) */
+	void remove(int from, int to) {
+		to = Math.min(to, lines);
+		if (from >= to) {
+			return;
+		}
+		int c = chunkOf(from);
+		int line = firstLine[c];
+		invalidateFrom(c);
+		while (from < to) {
+			Chunk ch = chunks.get(c);
+			int lo = from - line, hi = Math.min(to - line, ch.n);
+			int removed = 0;
+			for (int k = lo; k < hi; k++) {
+				removed += ch.len[k];
+			}
+			System.arraycopy(ch.len, hi, ch.len, lo, ch.n - hi);
+			ch.n -= hi - lo;
+			ch.chars -= removed;
+			chars -= removed;
+			lines -= hi - lo;
+			to -= hi - lo;
+			line += ch.n;
+			if (ch.n == 0) {
+				chunks.remove(c);
+			} else {
+				++c;
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package edj;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool for hash-consing lines, so that identical lines
+ * (common in logs and config dumps) share one String instance,
+ * across the buffer, its undo history, and any other buffers using
+ * the same pool.
+ *
+ * The pool is a fixed-size table indexed by the line's hash, holding
+ * one line per slot; a colliding line just replaces the previous one.
+ * So it never grows, needs no locking, and lines that fall out of
+ * use are eventually overwritten and left to the garbage collector.
+ * The price is that some duplicates are missed when slots collide.
+ */
+public class LineInterner {
+
+	static final int DEFAULT_SLOTS = 1 << 16;
+
+	private static final LineInterner shared = new LineInterner(DEFAULT_SLOTS);
+
+	private final AtomicReferenceArray<String> table;
+	private final int mask;
+	private final LongAdder lookups = new LongAdder(), hits = new LongAdder();
+
+	/** Create a pool; slots is rounded up to a power of two */
+	public LineInterner(int slots) {
+		if (slots <= 0) {
+			throw new IllegalArgumentException("slots must be positive: " + slots);
+		}
+		int n = Integer.highestOneBit(slots);
+		if (n < slots) {
+			n <<= 1;
+		}
+		table = new AtomicReferenceArray<>(n);
+		mask = n - 1;
+	}
+
+	/** The pool shared by all buffers that don't want one of their own */
+	public static LineInterner getShared() {
+		return shared;
+	}
+
+	/** Return the pooled instance equal to s, pooling s if there is none */
+	public String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		lookups.increment();
+		int h = s.hashCode();
+		int slot = (h ^ (h >>> 16)) & mask;
+		String pooled = table.get(slot);
+		if (pooled != null && pooled.equals(s)) {
+			hits.increment();
+			return pooled;
+		}
+		table.set(slot, s);
+		return s;
+	}
+
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** The fraction of lookups that found an existing instance */
+	public double getDedupRatio() {
+		long n = lookups.sum();
+		return n == 0 ? 0 : (double) hits.sum() / n;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d lines interned, %d shared (%.1f%%)",
+			getLookups(), getHits(), 100 * getDedupRatio());
+	}
+}
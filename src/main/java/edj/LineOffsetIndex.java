@@ -0,0 +1,221 @@
+package edj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An optional sidecar file, .NAME.lines beside the file, holding where
+ * the file's lines start, so that the buffers that index a file rather
+ * than read it (mapped and paged) can reopen a huge file without
+ * scanning it all for newlines again.
+ *
+ * The start of every STRIDE'th line is kept (both those buffers want
+ * only every so many lines), each as its distance from the one before,
+ * as a varint: a few bytes per STRIDE lines. The index is only used if
+ * the file still has the size and modification time it had when the
+ * index was made, and the same bytes at a few sample places; else it
+ * is made again by the next scan. Indexes are only made for files of
+ * at least minFileSize bytes, and only when enabled (edj -x).
+ */
+final class LineOffsetIndex {
+
+	/** Keep the start of every STRIDE'th line; users' strides must be multiples of this */
+	static final int STRIDE = 64;
+	static final long DEFAULT_MIN_FILE_SIZE = 16L << 20;
+
+	private static final int MAGIC = 0x45444A58;		// "EDJX"
+	private static final int SAMPLE = 4096;
+
+	private static volatile boolean enabled;
+	private static volatile long minFileSize = DEFAULT_MIN_FILE_SIZE;
+
+	/** The start of every STRIDE'th line, and the number of lines */
+	final long[] starts;
+	final int lines;
+
+	LineOffsetIndex(long[] starts, int lines) {
+		this.starts = starts;
+		this.lines = lines;
+	}
+
+	static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void setMinFileSize(long bytes) {
+		minFileSize = bytes;
+	}
+
+	/** Is the file big enough, and indexing on, for an index to be kept? */
+	static boolean wanted(long fileSize) {
+		return enabled && fileSize >= minFileSize;
+	}
+
+	/** The index of a file */
+	static Path pathFor(Path file) {
+		Path name = file.getFileName();
+		return file.toAbsolutePath().resolveSibling("." + name + ".lines");
+	}
+
+	/**
+	 * The index of the file open on channel, if indexing is on and
+	 * there is an up-to-date index of it; else null.
+	 */
+	static LineOffsetIndex load(Path file, FileChannel channel) {
+		try {
+			long size = channel.size();
+			if (!wanted(size)) {
+				return null;
+			}
+			byte[] bytes = Files.readAllBytes(pathFor(file));
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			if (bytes.length < 9 * Integer.BYTES || in.getInt() != MAGIC) {
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length - Integer.BYTES);
+			if ((int) crc.getValue() != in.getInt(bytes.length - Integer.BYTES)) {
+				return null;
+			}
+			if (in.getLong() != size || in.getLong() != modified(file) || in.getLong() != sampleHash(channel)) {
+				return null;
+			}
+			int lines = in.getInt();
+			long[] starts = new long[(lines + STRIDE - 1) / STRIDE];
+			long pos = 0;
+			for (int i = 0; i < starts.length; i++) {
+				pos += readVarLong(in);
+				starts[i] = pos;
+			}
+			return new LineOffsetIndex(starts, lines);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			return null;	// unreadable or damaged: as if there were none
+		}
+	}
+
+	/**
+	 * Keep the index of the file just scanned, if it is big enough;
+	 * written under another name and renamed, so a reader never sees
+	 * half of one. A failure is ignored, the index being only a cache.
+	 */
+	static void save(Path file, FileChannel channel, LineOffsetIndex index) {
+		Path temp = null;
+		try {
+			long size = channel.size();
+			if (!wanted(size)) {
+				return;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16 + index.starts.length * 3);
+			ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 3 * Long.BYTES + Integer.BYTES);
+			header.putInt(MAGIC).putLong(size).putLong(modified(file)).putLong(sampleHash(channel)).putInt(index.lines);
+			out.write(header.array());
+			long prev = 0;
+			for (long start : index.starts) {
+				writeVarLong(out, start - prev);
+				prev = start;
+			}
+			CRC32 crc = new CRC32();
+			byte[] body = out.toByteArray();
+			crc.update(body);
+			out.write(ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array());
+			Path target = pathFor(file);
+			temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			Files.write(temp, out.toByteArray(), StandardOpenOption.WRITE);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temp = null;
+		} catch (IOException e) {
+			// e.g., a read-only directory: just no index
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					// Leave it
+				}
+			}
+		}
+	}
+
+	private static long modified(Path file) throws IOException {
+		return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime().toMillis();
+	}
+
+	/** A hash of a few blocks from the start, middle and end of the file */
+	static long sampleHash(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long h = 0xCBF29CE484222325L;
+		ByteBuffer buf = ByteBuffer.allocate(SAMPLE);
+		for (long at : new long[] { 0, size / 2, Math.max(0, size - SAMPLE) }) {
+			buf.clear();
+			while (buf.hasRemaining() && channel.read(buf, at + buf.position()) > 0) {
+				// keep reading
+			}
+			for (int i = 0; i < buf.position(); i++) {
+				h = (h ^ buf.get(i)) * 0x100000001B3L;
+			}
+		}
+		return h;
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			v |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+	}
+
+	/** Collects line starts during a scan, keeping every STRIDE'th */
+	static class Builder {
+		private long[] starts = new long[1024];
+		private int lines;
+
+		/** Note that a line starts at pos */
+		void lineAt(long pos) {
+			if (lines % STRIDE == 0) {
+				int i = lines / STRIDE;
+				if (i == starts.length) {
+					starts = Arrays.copyOf(starts, starts.length * 2);
+				}
+				starts[i] = pos;
+			}
+			++lines;
+		}
+
+		LineOffsetIndex build() {
+			return new LineOffsetIndex(Arrays.copyOf(starts, (lines + STRIDE - 1) / STRIDE), lines);
+		}
+	}
+}
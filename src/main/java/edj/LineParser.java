@@ -20,6 +20,7 @@ public class LineParser {
 				++i;
 			}
 			if (chars[i] == '$') {
+				buffHandler.awaitLines(BufferPrims.INF);
 				cmd.startNum = buffHandler.size();
 				cmd.startFound = true;
 				++i;
@@ -45,6 +46,7 @@ public class LineParser {
 				++i;
 			}
 			if (chars[i] == '$') {
+				buffHandler.awaitLines(BufferPrims.INF);
 				cmd.endNum = buffHandler.size();
 				cmd.endFound = true;
 				++i;
@@ -57,6 +59,7 @@ public class LineParser {
 			
 			/** e.g., ",p" or "1,p" */
 			if (cmd.commaFound && !cmd.endFound) {
+				buffHandler.awaitLines(BufferPrims.INF);
 				cmd.endNum = buffHandler.size();
 				cmd.endFound = true;
 			}
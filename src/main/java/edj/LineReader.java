@@ -0,0 +1,103 @@
+package edj;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Read lines from a stream, in place of a BufferedReader: the bytes
+ * are read in large blocks, split at each \n by NewlineScanner and only
+ * then decoded, one String per line, so there is no decoding into an
+ * intermediate char buffer and no per-char test for \r and \n.
+ * As in ParallelLineLoader, a \r before the \n is dropped.
+ * For a charset in which \n bytes may be part of another char,
+ * this falls back to a BufferedReader.
+ */
+class LineReader implements Closeable {
+
+	static final int BLOCK = 64 * 1024;
+
+	private final InputStream in;
+	private final Charset charset;
+	private final BufferedReader fallback;
+	private byte[] bytes = new byte[BLOCK];
+	private int start, end;		// the unread bytes
+	private boolean eof;
+
+	LineReader(InputStream in, Charset charset) {
+		this.in = in;
+		this.charset = charset;
+		this.fallback = ParallelLineLoader.isNewlineSafe(charset) ? null :
+			new BufferedReader(new InputStreamReader(in, charset));
+	}
+
+	/** Read the named file, gunzipping it if need be, in the default charset */
+	LineReader(String fileName) throws IOException {
+		this(Compression.open(fileName), Charset.defaultCharset());
+	}
+
+	/** The next line, without its line ending, or null at the end of the input */
+	String readLine() throws IOException {
+		if (fallback != null) {
+			return fallback.readLine();
+		}
+		int scanned = start;
+		while (true) {
+			int nl = NewlineScanner.indexOf(bytes, scanned, end);
+			if (nl >= 0) {
+				String line = decode(start, nl);
+				start = nl + 1;
+				return line;
+			}
+			if (eof) {
+				if (start == end) {
+					return null;
+				}
+				String line = decode(start, end);	// last line, with no \n
+				start = end;
+				return line;
+			}
+			scanned = end - start;
+			fill();
+			// fill() moved the unread bytes to the front; resume the scan where it stopped
+		}
+	}
+
+	/** Move the unread bytes to the front, growing if full, and read more after them */
+	private void fill() throws IOException {
+		int unread = end - start;
+		if (unread == bytes.length) {
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);	// a very long line
+		} else if (start > 0) {
+			System.arraycopy(bytes, start, bytes, 0, unread);
+		}
+		start = 0;
+		end = unread;
+		int n = in.read(bytes, end, bytes.length - end);
+		if (n < 0) {
+			eof = true;
+		} else {
+			end += n;
+		}
+	}
+
+	private String decode(int from, int to) {
+		if (to > from && bytes[to - 1] == '\r') {
+			--to;
+		}
+		return new String(bytes, from, to - from, charset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (fallback != null) {
+			fallback.close();
+		} else {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package edj;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact List of lines. Instead of one String (object header, array
+ * header and reference) per line, the UTF-8 bytes of all the lines are
+ * packed into large shared byte[] "slabs", and each line is just three
+ * ints in primitive arrays: which slab, offset, and length.
+ * Strings are only created when a line is asked for.
+ *
+ * Deleted or replaced lines leave their bytes behind in the slabs;
+ * when that garbage outgrows the live text, the slabs are compacted.
+ */
+public class LineSlabStore extends AbstractList<String> implements RandomAccess {
+
+	static final int SLAB_SIZE = 1 << 20;
+
+	private final List<byte[]> slabs = new ArrayList<>();
+	private int openSlab = -1;		// the slab being filled
+	private int fill;				// bytes used in the open slab
+	private int storedSlab;			// where store() put the last line
+
+	private int[] slab = new int[1024], offset = new int[1024], length = new int[1024];
+	private int count;
+
+	private long liveBytes, garbageBytes;
+
+	@Override
+	public String get(int index) {
+		checkIndex(index, count);
+		return new String(slabs.get(slab[index]), offset[index], length[index], StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	private void checkIndex(int index, int limit) {
+		if (index < 0 || index >= limit) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+	}
+
+	/** Copy len bytes into slab space, returning the offset and setting storedSlab */
+	private int store(byte[] bytes, int off, int len) {
+		if (len > SLAB_SIZE / 4) {
+			// Big line, give it a slab of its own, leaving the open one open
+			slabs.add(Arrays.copyOfRange(bytes, off, off + len));
+			storedSlab = slabs.size() - 1;
+			return 0;
+		}
+		if (openSlab < 0 || fill + len > SLAB_SIZE) {
+			slabs.add(new byte[SLAB_SIZE]);
+			openSlab = slabs.size() - 1;
+			fill = 0;
+		}
+		System.arraycopy(bytes, off, slabs.get(openSlab), fill, len);
+		storedSlab = openSlab;
+		fill += len;
+		return fill - len;
+	}
+
+	/** Open a gap of n entries at index in the three int arrays */
+	private void openGap(int index, int n) {
+		if (count + n > slab.length) {
+			int newLength = Math.max(slab.length * 2, count + n);
+			slab = Arrays.copyOf(slab, newLength);
+			offset = Arrays.copyOf(offset, newLength);
+			length = Arrays.copyOf(length, newLength);
+		}
+		int tail = count - index;
+		System.arraycopy(slab, index, slab, index + n, tail);
+		System.arraycopy(offset, index, offset, index + n, tail);
+		System.arraycopy(length, index, length, index + n, tail);
+		count += n;
+	}
+
+	private void put(int index, byte[] bytes, int off, int len) {
+		offset[index] = store(bytes, off, len);
+		slab[index] = storedSlab;
+		length[index] = len;
+		liveBytes += len;
+	}
+
+	/** Append a line given as UTF-8 bytes, without making a String of it */
+	public void addBytes(byte[] bytes, int off, int len) {
+		openGap(count, 1);
+		put(count - 1, bytes, off, len);
+		modCount++;
+	}
+
+	@Override
+	public void add(int index, String s) {
+		checkIndex(index, count + 1);
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		openGap(index, 1);
+		put(index, bytes, 0, bytes.length);
+		modCount++;
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<? extends String> c) {
+		checkIndex(index, count + 1);
+		if (c.isEmpty()) {
+			return false;
+		}
+		openGap(index, c.size());
+		for (String s : c) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			put(index++, bytes, 0, bytes.length);
+		}
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public String set(int index, String s) {
+		String old = get(index);
+		garbageBytes += length[index];
+		liveBytes -= length[index];
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		put(index, bytes, 0, bytes.length);
+		compactIfNeeded();
+		return old;
+	}
+
+	@Override
+	public String remove(int index) {
+		String old = get(index);
+		removeRange(index, index + 1);
+		return old;
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		if (fromIndex >= toIndex) {
+			return;
+		}
+		for (int i = fromIndex; i < toIndex; i++) {
+			garbageBytes += length[i];
+			liveBytes -= length[i];
+		}
+		int tail = count - toIndex;
+		System.arraycopy(slab, toIndex, slab, fromIndex, tail);
+		System.arraycopy(offset, toIndex, offset, fromIndex, tail);
+		System.arraycopy(length, toIndex, length, fromIndex, tail);
+		count -= toIndex - fromIndex;
+		modCount++;
+		compactIfNeeded();
+	}
+
+	@Override
+	public void clear() {
+		slabs.clear();
+		openSlab = -1;
+		count = 0;
+		liveBytes = garbageBytes = 0;
+		modCount++;
+	}
+
+	/** Copy the live lines to new slabs once garbage exceeds the live text */
+	private void compactIfNeeded() {
+		if (garbageBytes < SLAB_SIZE || garbageBytes < liveBytes) {
+			return;
+		}
+		List<byte[]> old = new ArrayList<>(slabs);
+		slabs.clear();
+		openSlab = -1;
+		liveBytes = garbageBytes = 0;
+		for (int i = 0; i < count; i++) {
+			put(i, old.get(slab[i]), offset[i], length[i]);
+		}
+	}
+
+	/** Approximate heap used: the slabs plus the three int arrays */
+	public long heapBytes() {
+		long total = 12L * slab.length;
+		for (byte[] b : slabs) {
+			total += b.length;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,66 @@
+package edj;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over a range of lines of any BufferPrims, by line number.
+ * If made splittable, it halves its range on trySplit() so the lines can
+ * be processed by a parallel stream; that is only safe for a buffer
+ * whose getLine() and forEachLine() may be called from several threads
+ * at once, and which is not modified while the stream runs.
+ */
+class LineSpliterator implements Spliterator<CharSequence> {
+
+	private final BufferPrims buffer;
+	private final boolean splittable;
+	private int next;			// 1-based
+	private final int last;		// inclusive
+
+	LineSpliterator(BufferPrims buffer, int start, int end, boolean splittable) {
+		this.buffer = buffer;
+		this.next = Math.max(start, 1);
+		this.last = Math.min(end, buffer.size());
+		this.splittable = splittable;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super CharSequence> action) {
+		if (next > last) {
+			return false;
+		}
+		action.accept(buffer.getLine(next++));
+		return true;
+	}
+
+	/** Hand the rest over to forEachLine, which may pass views rather than copies */
+	@Override
+	public void forEachRemaining(Consumer<? super CharSequence> action) {
+		if (next <= last) {
+			buffer.forEachLine(next, last, action);
+			next = last + 1;
+		}
+	}
+
+	@Override
+	public Spliterator<CharSequence> trySplit() {
+		int remaining = last - next + 1;
+		if (!splittable || remaining < 2) {
+			return null;
+		}
+		int mid = next + remaining / 2;
+		Spliterator<CharSequence> prefix = new LineSpliterator(buffer, next, mid - 1, true);
+		next = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Math.max(last - next + 1, 0);
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL;
+	}
+}
@@ -0,0 +1,157 @@
+package edj;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntConsumer;
+
+/**
+ * Find and count newlines, for all the places that split text into lines.
+ * Bytes are checked eight at a time, as one long ("SWAR", SIMD within
+ * a register): XOR with eight copies of '\n' turns each newline into a
+ * zero byte, and a few adds and masks then set the top bit of exactly
+ * the zero bytes, so one test covers eight bytes, the lowest set bit
+ * locates the first newline and a bit count counts them.
+ *
+ * Chars are copied out of the text in blocks (for a StringBuffer, that
+ * saves taking its lock on every charAt) and then checked in a simple
+ * loop; Java has no way to view a char[] as longs, and packing four
+ * chars into a long by hand costs as much as it saves.
+ */
+final class NewlineScanner {
+
+	private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+	private static final VarHandle LONGS =
+		MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final int CHAR_BLOCK = 4096;
+
+	private NewlineScanner() {
+		// Static methods only
+	}
+
+	/** The top bit of each byte of word that is '\n', and no others */
+	static long newlineBits(long word) {
+		long x = word ^ NEWLINES;
+		return ~(((x & LOW7) + LOW7) | x | LOW7);
+	}
+
+	/** The index of the first '\n' in bytes[from, to), or -1 */
+	static int indexOf(byte[] bytes, int from, int to) {
+		int i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			long bits = newlineBits((long) LONGS.get(bytes, i));
+			if (bits != 0) {
+				return i + (Long.numberOfTrailingZeros(bits) >>> 3);
+			}
+		}
+		for (; i < to; i++) {
+			if (bytes[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** The number of '\n's in bytes[from, to) */
+	static int count(byte[] bytes, int from, int to) {
+		int n = 0, i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			n += Long.bitCount(newlineBits((long) LONGS.get(bytes, i)));
+		}
+		for (; i < to; i++) {
+			if (bytes[i] == '\n') {
+				++n;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * The index of the first '\n' in buf between the absolute indices
+	 * from and to, or -1; buf's position is not used or changed.
+	 */
+	static int indexOf(ByteBuffer buf, int from, int to) {
+		boolean little = buf.order() == ByteOrder.LITTLE_ENDIAN;
+		int i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			long bits = newlineBits(buf.getLong(i));
+			if (bits != 0) {
+				return i + ((little ? Long.numberOfTrailingZeros(bits) : Long.numberOfLeadingZeros(bits)) >>> 3);
+			}
+		}
+		for (; i < to; i++) {
+			if (buf.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** The index of the first '\n' in chars[from, to), or -1 */
+	static int indexOf(char[] chars, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (chars[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** The index of the first '\n' in text[from, to), or -1 */
+	static int indexOf(CharSequence text, int from, int to) {
+		if (text instanceof String) {
+			int i = ((String) text).indexOf('\n', from);
+			return i < to ? i : -1;
+		}
+		char[] block = new char[Math.min(CHAR_BLOCK, Math.max(to - from, 0))];
+		for (int start = from; start < to; start += block.length) {
+			int n = Math.min(block.length, to - start);
+			getChars(text, start, start + n, block);
+			int i = indexOf(block, 0, n);
+			if (i >= 0) {
+				return start + i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Pass the index of each '\n' in text, in order, to the action;
+	 * for building line indexes in one pass without a charAt per char.
+	 */
+	static void forEachNewline(CharSequence text, IntConsumer action) {
+		int len = text.length();
+		char[] block = new char[Math.min(CHAR_BLOCK, len)];
+		for (int start = 0; start < len; start += block.length) {
+			int n = Math.min(block.length, len - start);
+			getChars(text, start, start + n, block);
+			for (int i = indexOf(block, 0, n); i >= 0; i = indexOf(block, i + 1, n)) {
+				action.accept(start + i);
+			}
+		}
+	}
+
+	/** The number of '\n's in text */
+	static int count(CharSequence text) {
+		int[] n = new int[1];
+		forEachNewline(text, i -> n[0]++);
+		return n[0];
+	}
+
+	/** Bulk copy text[from, to) into dest, without a charAt per char where possible */
+	private static void getChars(CharSequence text, int from, int to, char[] dest) {
+		if (text instanceof String) {
+			((String) text).getChars(from, to, dest, 0);
+		} else if (text instanceof StringBuffer) {
+			((StringBuffer) text).getChars(from, to, dest, 0);
+		} else if (text instanceof StringBuilder) {
+			((StringBuilder) text).getChars(from, to, dest, 0);
+		} else {
+			for (int i = from; i < to; i++) {
+				dest[i - from] = text.charAt(i);
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package edj;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read a file into a List of lines using all the cores.
+ * The file is cut into large chunks, one fork/join task per chunk.
+ * Each task finds its own line boundaries (a line belongs to the
+ * chunk it starts in, so a task skips the partial line at its start
+ * and reads on past its end to finish its last line), then reads
+ * and decodes its lines; the chunks' lines are then stitched together
+ * in order. Lines end at \n, and a \r before the \n is dropped.
+ *
+ * This relies on a \n byte only ever meaning newline, which holds for
+ * UTF-8 and the single-byte charsets; for any other default charset,
+ * and for a gzip'd file (which can't be read from the middle), the file
+ * is read on one thread by a LineReader.
+ */
+class ParallelLineLoader {
+
+	static final int MIN_CHUNK = 1 << 20, MAX_CHUNK = 64 << 20;
+	private static final int SCAN_BLOCK = 8192;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final Charset charset;
+	private final UnaryOperator<String> perLine;
+
+	private ParallelLineLoader(FileChannel channel, Charset charset, UnaryOperator<String> perLine) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.charset = charset;
+		this.perLine = perLine;
+	}
+
+	/**
+	 * Read all the lines of the file in the default charset, passing each
+	 * through perLine (e.g., to intern it) on the thread that decoded it.
+	 * @throws java.nio.file.NoSuchFileException if there is no such file
+	 */
+	static List<String> load(String fileName, UnaryOperator<String> perLine) throws IOException {
+		Path path = Paths.get(fileName);
+		Charset charset = Charset.defaultCharset();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (!canLoad(channel)) {
+				List<String> lines = new ArrayList<>();
+				try (LineReader rdr = new LineReader(Compression.open(channel), charset)) {
+					String line;
+					while ((line = rdr.readLine()) != null) {
+						lines.add(perLine.apply(line));
+					}
+				}
+				return lines;
+			}
+			return load(channel, perLine);
+		}
+	}
+
+	/** Can the file open on channel be read in parallel, i.e., is it neither gzip'd nor in an unsafe charset? */
+	static boolean canLoad(FileChannel channel) throws IOException {
+		return isNewlineSafe(Charset.defaultCharset()) && !Compression.isGzip(channel);
+	}
+
+	/** Read the lines of a file for which canLoad is true; the channel is left open */
+	static List<String> load(FileChannel channel, UnaryOperator<String> perLine) throws IOException {
+		return new ParallelLineLoader(channel, Charset.defaultCharset(), perLine).load();
+	}
+
+	static boolean isNewlineSafe(Charset charset) {
+		return charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1;
+	}
+
+	private List<String> load() throws IOException {
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, fileSize / (parallelism * 4L) + 1));
+		List<ChunkTask> tasks = new ArrayList<>();
+		for (long start = 0; start < fileSize; start += chunk) {
+			tasks.add(new ChunkTask(start, Math.min(start + chunk, fileSize)));
+		}
+		if (tasks.isEmpty()) {
+			return new ArrayList<>();
+		}
+		if (tasks.size() == 1) {
+			try {
+				return tasks.get(0).compute();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		try {
+			ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected Void compute() {
+					invokeAll(tasks);
+					return null;
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		int total = 0;
+		for (ChunkTask task : tasks) {
+			total += task.join().size();
+		}
+		List<String> lines = new ArrayList<>(total);
+		for (ChunkTask task : tasks) {
+			lines.addAll(task.join());
+		}
+		return lines;
+	}
+
+	/** The position just after the first \n at or after pos, or the end of the file */
+	private long nextLineStart(long pos) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+		while (pos < fileSize) {
+			block.clear();
+			int n = channel.read(block, pos);
+			if (n <= 0) {
+				break;
+			}
+			int nl = NewlineScanner.indexOf(block.array(), 0, n);
+			if (nl >= 0) {
+				return pos + nl + 1;
+			}
+			pos += n;
+		}
+		return fileSize;
+	}
+
+	/** Finds, reads and decodes the lines starting in [start, end) */
+	private class ChunkTask extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+		final long start, end;
+
+		ChunkTask(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected List<String> compute() {
+			try {
+				long from = start == 0 ? 0 : nextLineStart(start - 1);
+				long to = end == fileSize ? fileSize : nextLineStart(end - 1);
+				if (from >= to) {
+					return Collections.emptyList();
+				}
+				if (to - from > Integer.MAX_VALUE - 8) {
+					throw new IOException("Line too long at offset " + from);
+				}
+				byte[] bytes = new byte[(int) (to - from)];
+				ByteBuffer bb = ByteBuffer.wrap(bytes);
+				while (bb.hasRemaining()) {
+					if (channel.read(bb, from + bb.position()) < 0) {
+						throw new IOException("File shrank while being read");
+					}
+				}
+				return split(bytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private List<String> split(byte[] bytes) {
+			List<String> lines = new ArrayList<>(NewlineScanner.count(bytes, 0, bytes.length) + 1);
+			int lineStart = 0;
+			for (int i = NewlineScanner.indexOf(bytes, 0, bytes.length); i >= 0;
+					i = NewlineScanner.indexOf(bytes, lineStart, bytes.length)) {
+				lines.add(line(bytes, lineStart, i));
+				lineStart = i + 1;
+			}
+			if (lineStart < bytes.length) {		// last line, with no \n
+				lines.add(line(bytes, lineStart, bytes.length));
+			}
+			return lines;
+		}
+
+		private String line(byte[] bytes, int from, int to) {
+			if (to > from && bytes[to - 1] == '\r') {
+				--to;
+			}
+			return perLine.apply(new String(bytes, from, to - from, charset));
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package edj;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * An immutable list of lines, kept as a persistent AVL tree.
+ * Every "mutation" returns a new list, which shares all but
+ * O(log n) of its nodes with the old one; the old list is
+ * unchanged and still usable. So keeping an old version around,
+ * for undo, autosave or a reader in another thread, costs
+ * nothing but the reference, and each edit allocates only
+ * the nodes on the paths it changes.
+ * Indices here are 0-based, as in List.
+ */
+public final class PersistentLineList extends AbstractList<String> implements RandomAccess {
+
+	private static final class Node {
+		final Node left, right;
+		final String line;
+		final int size;
+		final int height;
+
+		Node(Node left, String line, Node right) {
+			this.left = left;
+			this.line = line;
+			this.right = right;
+			this.size = size(left) + 1 + size(right);
+			this.height = Math.max(height(left), height(right)) + 1;
+		}
+	}
+
+	public static final PersistentLineList EMPTY = new PersistentLineList(null);
+
+	private final Node root;
+
+	private PersistentLineList(Node root) {
+		this.root = root;
+	}
+
+	/** Make a list holding the given lines, in O(n) */
+	public static PersistentLineList of(List<String> lines) {
+		return lines.isEmpty() ? EMPTY : new PersistentLineList(build(lines, 0, lines.size()));
+	}
+
+	private static int size(Node n) {
+		return n == null ? 0 : n.size;
+	}
+
+	private static int height(Node n) {
+		return n == null ? 0 : n.height;
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		Node n = root;
+		while (true) {
+			int leftSize = size(n.left);
+			if (index < leftSize) {
+				n = n.left;
+			} else if (index == leftSize) {
+				return n.line;
+			} else {
+				index -= leftSize + 1;
+				n = n.right;
+			}
+		}
+	}
+
+	/** In-order walk, cheaper than the default get()-per-element iteration */
+	@Override
+	public void forEach(Consumer<? super String> action) {
+		walk(root, action);
+	}
+
+	private static void walk(Node n, Consumer<? super String> action) {
+		while (n != null) {
+			walk(n.left, action);
+			action.accept(n.line);
+			n = n.right;
+		}
+	}
+
+	/** A new list with the lines inserted before index */
+	public PersistentLineList insert(int index, List<String> lines) {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		if (lines.isEmpty()) {
+			return this;
+		}
+		Node[] parts = split(root, index);
+		return new PersistentLineList(concat(concat(parts[0], build(lines, 0, lines.size())), parts[1]));
+	}
+
+	/** Lines [from, to) as a list of their own, sharing this list's nodes */
+	public PersistentLineList range(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, size());
+		if (from >= to) {
+			return EMPTY;
+		}
+		return new PersistentLineList(split(split(root, to)[0], from)[1]);
+	}
+
+	/** A new list with the lines of another list inserted before index, without copying them */
+	public PersistentLineList insert(int index, PersistentLineList lines) {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		Node[] parts = split(root, index);
+		return new PersistentLineList(concat(concat(parts[0], lines.root), parts[1]));
+	}
+
+	/** A new list without the lines [from, to) */
+	public PersistentLineList remove(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, size());
+		if (from >= to) {
+			return this;
+		}
+		Node[] parts = split(root, from);
+		Node[] rest = split(parts[1], to - from);
+		return new PersistentLineList(concat(parts[0], rest[1]));
+	}
+
+	/** A new list with lines [from, to) replaced by the given lines */
+	public PersistentLineList replace(int from, int to, List<String> lines) {
+		Node[] parts = split(root, from);
+		Node[] rest = split(parts[1], to - from);
+		Node middle = lines.isEmpty() ? null : build(lines, 0, lines.size());
+		return new PersistentLineList(concat(concat(parts[0], middle), rest[1]));
+	}
+
+	/** A new list with the line at index changed, copying only one path */
+	public PersistentLineList with(int index, String line) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		return new PersistentLineList(set(root, index, line));
+	}
+
+	private static Node set(Node n, int index, String line) {
+		int leftSize = size(n.left);
+		if (index < leftSize) {
+			return new Node(set(n.left, index, line), n.line, n.right);
+		} else if (index == leftSize) {
+			return new Node(n.left, line, n.right);
+		} else {
+			return new Node(n.left, n.line, set(n.right, index - leftSize - 1, line));
+		}
+	}
+
+	private static Node build(List<String> lines, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+		int mid = (from + to) >>> 1;
+		return new Node(build(lines, from, mid), lines.get(mid), build(lines, mid + 1, to));
+	}
+
+	/** Split into the first k lines and the rest */
+	private static Node[] split(Node n, int k) {
+		if (n == null) {
+			return new Node[2];
+		}
+		int leftSize = size(n.left);
+		if (k <= leftSize) {
+			Node[] parts = split(n.left, k);
+			parts[1] = join(parts[1], n.line, n.right);
+			return parts;
+		}
+		Node[] parts = split(n.right, k - leftSize - 1);
+		parts[0] = join(n.left, n.line, parts[0]);
+		return parts;
+	}
+
+	private static Node concat(Node l, Node r) {
+		if (l == null) {
+			return r;
+		}
+		if (r == null) {
+			return l;
+		}
+		Node[] parts = split(r, 1);
+		Node first = parts[0];
+		return join(l, first.line, parts[1]);
+	}
+
+	/** Join two trees with a line between them, rebalancing on the way up */
+	private static Node join(Node l, String line, Node r) {
+		if (height(l) > height(r) + 1) {
+			return balance(l.left, l.line, join(l.right, line, r));
+		}
+		if (height(r) > height(l) + 1) {
+			return balance(join(l, line, r.left), r.line, r.right);
+		}
+		return new Node(l, line, r);
+	}
+
+	/** Make a node, doing the AVL rotation if the subtrees differ in height by 2 */
+	private static Node balance(Node l, String line, Node r) {
+		if (height(l) > height(r) + 1) {
+			if (height(l.left) >= height(l.right)) {
+				return new Node(l.left, l.line, new Node(l.right, line, r));
+			}
+			Node lr = l.right;
+			return new Node(new Node(l.left, l.line, lr.left), lr.line, new Node(lr.right, line, r));
+		}
+		if (height(r) > height(l) + 1) {
+			if (height(r.right) >= height(r.left)) {
+				return new Node(new Node(l, line, r.left), r.line, r.right);
+			}
+			Node rl = r.left;
+			return new Node(new Node(l, line, rl.left), rl.line, new Node(rl.right, r.line, r.right));
+		}
+		return new Node(l, line, r);
+	}
+}
@@ -0,0 +1,316 @@
+package edj;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+import edu.snow.kylern.Collections.GapList;
+
+/**
+ * A whole editing session in one file: the buffer's lines, the current
+ * line, the file name and the undo history, so that an editor can be
+ * quit and started again where it left off.
+ *
+ * The image is: a header (magic, version, where the line table is, the
+ * number of lines, the current line, the file name), the undo entries
+ * (each an UndoableCommand's op, line numbers and any edits, and which
+ * lines of the image are its lines), the text of every line, in UTF-8, buffer lines
+ * first, then the undo entries' lines, and a table of where each line
+ * starts. Only undo entries recorded as data can be saved, so the history
+ * saved stops at the newest one that is only a Runnable.
+ *
+ * The image is memory-mapped to restore it, and nothing is read but the
+ * header and undo entries: the buffer and the undo entries' lines are
+ * Lines lists, which decode a line from the image only when it is got,
+ * so restoring is quick whatever the size of the buffer. The first change
+ * to the buffer copies it into a GapList. Images are limited to 2GB.
+ */
+final class SessionImage {
+
+	private static final int MAGIC = 0x45444A53;		// "EDJS"
+	private static final int VERSION = 1;
+	private static final int TABLE_AT = 2 * Integer.BYTES;	// where the header has the table's offset
+
+	private final ByteBuffer image;
+	private final int table, bufferLines;
+	final int current;
+	final String fileName;
+	final List<Entry> undo = new ArrayList<>();
+
+	/** One saved undo entry; its lines are lines [first, first+count) of the image, if count >= 0 */
+	static class Entry {
+		final String name;
+		final byte op;
+		final int a, b, c, first, count;
+		final int[] edits;
+
+		Entry(String name, byte op, int a, int b, int c, int first, int count, int[] edits) {
+			this.name = name;
+			this.op = op;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.first = first;
+			this.count = count;
+			this.edits = edits;
+		}
+	}
+
+	/**
+	 * Write an image of the lines, current line, file name and the undo
+	 * entries (oldest first) to path, under another name first and then
+	 * renamed, so the old image is good until the new one is.
+	 */
+	static void write(Path path, List<String> lines, int current, String fileName,
+			List<BufferPrimsWithUndo.UndoableCommand> undo) throws IOException {
+		List<List<String>> all = new ArrayList<>();
+		all.add(lines);
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(0);		// the table's offset, once known
+		int total = lines.size();
+		header.writeInt(lines.size());
+		header.writeInt(current);
+		writeString(header, fileName);
+		header.writeInt(undo.size());
+		for (BufferPrimsWithUndo.UndoableCommand u : undo) {
+			writeString(header, u.name);
+			header.writeByte(u.op);
+			header.writeInt(u.a);
+			header.writeInt(u.b);
+			header.writeInt(u.c);
+			header.writeInt(u.lines == null ? -1 : total);
+			header.writeInt(u.lines == null ? -1 : u.lines.size());
+			header.writeInt(u.edits == null ? -1 : u.edits.length);
+			if (u.edits != null) {
+				for (int e : u.edits) {
+					header.writeInt(e);
+				}
+			}
+			if (u.lines != null) {
+				all.add(u.lines);
+				total += u.lines.size();
+			}
+		}
+		header.writeInt(total);
+		header.flush();
+
+		Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				int[] starts = new int[total + 1];
+				long pos = headerBytes.size();
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+				out.write(headerBytes.toByteArray());
+				int n = 0;
+				for (List<String> list : all) {
+					for (String line : list) {
+						starts[n++] = (int) pos;
+						byte[] b = line.getBytes(StandardCharsets.UTF_8);
+						out.write(b);
+						pos += b.length;
+						if (pos + (long) Integer.BYTES * (total + 1) > Integer.MAX_VALUE) {
+							throw new IOException("Session too big for an image");
+						}
+					}
+				}
+				starts[n] = (int) pos;
+				DataOutputStream tableOut = new DataOutputStream(out);
+				for (int start : starts) {
+					tableOut.writeInt(start);
+				}
+				tableOut.flush();
+				channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) pos), TABLE_AT);
+				channel.force(false);
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temp = null;
+		} finally {
+			if (temp != null) {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/** Map an image and read its header and undo entries, but none of its lines */
+	SessionImage(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < 6 * Integer.BYTES || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is not a session image");
+			}
+			image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (image.getInt() != MAGIC) {
+				throw new IOException(path + " is not a session image");
+			}
+			int version = image.getInt();
+			if (version != VERSION) {
+				throw new IOException(path + " is a session image of an unknown version " + version);
+			}
+			table = image.getInt();
+			bufferLines = image.getInt();
+			current = image.getInt();
+			fileName = readString();
+			int n = image.getInt();
+			for (int i = 0; i < n; i++) {
+				undo.add(new Entry(readString(), image.get(), image.getInt(), image.getInt(), image.getInt(),
+					image.getInt(), image.getInt(), readInts()));
+			}
+			int total = image.getInt();
+			if (table < image.position() || table + (long) Integer.BYTES * (total + 1) > image.limit()) {
+				throw new IOException(path + " is damaged");
+			}
+		} catch (RuntimeException e) {
+			throw new IOException(path + " is damaged", e);
+		}
+	}
+
+	private int[] readInts() {
+		int n = image.getInt();
+		if (n < 0) {
+			return null;
+		}
+		int[] ints = new int[n];
+		image.asIntBuffer().get(ints);
+		image.position(image.position() + n * Integer.BYTES);
+		return ints;
+	}
+
+	private String readString() {
+		int n = image.getInt();
+		if (n < 0) {
+			return null;
+		}
+		byte[] b = new byte[n];
+		image.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/** Line k of the image, decoded from it */
+	private String line(int k) {
+		int start = image.getInt(table + k * Integer.BYTES), end = image.getInt(table + (k + 1) * Integer.BYTES);
+		byte[] b = new byte[end - start];
+		ByteBuffer in = image.duplicate();	// so concurrent readers don't share a position
+		in.position(start);
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/** The buffer's lines */
+	List<String> bufferLines() {
+		return new Lines(0, bufferLines);
+	}
+
+	/** The lines of an undo entry, or null if it has none */
+	List<String> linesOf(Entry e) {
+		return e.count < 0 ? null : new Lines(e.first, e.count);
+	}
+
+	/**
+	 * Lines [first, first+count) of the image, decoded as they are got;
+	 * the first change copies them all into a GapList, which is used
+	 * from then on.
+	 */
+	final class Lines extends AbstractList<String> implements RandomAccess {
+		private final int first, count;
+		private List<String> copy;
+
+		Lines(int first, int count) {
+			this.first = first;
+			this.count = count;
+		}
+
+		private List<String> copy() {
+			if (copy == null) {
+				List<String> c = new GapList<>(count + 16);
+				c.addAll(this);
+				copy = c;
+			}
+			++modCount;
+			return copy;
+		}
+
+		@Override
+		public String get(int index) {
+			if (copy != null) {
+				return copy.get(index);
+			}
+			Objects.checkIndex(index, count);
+			return line(first + index);
+		}
+
+		@Override
+		public int size() {
+			return copy != null ? copy.size() : count;
+		}
+
+		@Override
+		public String set(int index, String line) {
+			return copy().set(index, line);
+		}
+
+		@Override
+		public void add(int index, String line) {
+			copy().add(index, line);
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends String> lines) {
+			return copy().addAll(lines);
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends String> lines) {
+			return copy().addAll(index, lines);
+		}
+
+		@Override
+		public String remove(int index) {
+			return copy().remove(index);
+		}
+
+		@Override
+		protected void removeRange(int from, int to) {
+			copy().subList(from, to).clear();
+		}
+
+		@Override
+		public void clear() {
+			copy().clear();
+		}
+	}
+}
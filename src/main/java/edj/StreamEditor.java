@@ -1,10 +1,8 @@
 package edj;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,22 +10,71 @@ import java.util.List;
  * A trivial proof-of-concept for the editing code: show that we can easily
  * implement Unix 'sed' command using the editing code.
  * For now just implements sed's 's' command.
+ * Usage: StreamEditor [-b buffertype] [-f] [-e command]... [file...]
+ * Normally each line is edited as it is read; with -b, each file
+ * is instead loaded into a BufferPrims of that type and edited there,
+ * so that line ranges on the commands are honored.
+ * With -f, the last file is followed as "tail -f" does: once its lines
+ * are done, lines written to it afterwards are edited as they appear.
  */
 public class StreamEditor {
 
 	static List<ParsedCommand> commands = new ArrayList<>();
 
+	/** If non-null, each file is loaded into and edited in this buffer */
+	static BufferPrims buffPrims;
+
+	/** How long to wait before looking again for more lines in a followed file */
+	static final int FOLLOW_POLL_MILLIS = 250;
+
 	public static void main(String[] args) throws IOException {
-		int i;
-		for (i = 0; i < args.length; i++) {
+		boolean follow = false;
+		List<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-e")) {
 				addCommand(args[++i]);
+			} else if (args[i].equals("-b")) {
+				buffPrims = BufferPrimsFactory.create(args[++i]);
+			} else if (args[i].equals("-f")) {
+				follow = true;
 			} else {
-				processFile(args[i], new FileReader(args[i]));
+				files.add(args[i]);
 			}
 		}
-		if (i < args.length) {
-			processFile("-", new InputStreamReader(System.in));
+		if (follow && buffPrims != null) {
+			System.err.println("? -f edits each line as it is written; -b ignored");
+			buffPrims = null;
+		}
+		for (int i = 0; i < files.size(); i++) {
+			if (follow && i == files.size() - 1) {
+				followFile(files.get(i));
+			} else {
+				processFile(files.get(i), Compression.open(files.get(i)));
+			}
+		}
+		if (files.isEmpty()) {
+			processFile("-", System.in);
+		}
+	}
+
+	/**
+	 * Edit and print each line of the file, then keep the file open
+	 * and do the same for each line written to it, until killed.
+	 */
+	private static void followFile(String fileName) throws IOException {
+		try (FileFollower follower = new FileFollower(fileName)) {
+			while (true) {
+				int n = follower.poll(line -> System.out.println(editLine(line)),
+					() -> System.err.println(fileName + " was truncated or replaced, reading it again"));
+				if (n == 0) {
+					System.out.flush();
+					try {
+						Thread.sleep(FOLLOW_POLL_MILLIS);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
 		}
 	}
 
@@ -64,26 +111,68 @@ public class StreamEditor {
 		}
 	};
 	
-	private static void processFile(String fileName, Reader r) throws IOException {
+	private static void processFile(String fileName, InputStream in) throws IOException {
 		// System.out.printf("StreamEditor.processFile(%s)\n", fileName);
-		try (BufferedReader is = new BufferedReader(r)) {
+		if (buffPrims != null) {
+			processBuffer(in);
+			return;
+		}
+		try (LineReader is = new LineReader(in, Charset.defaultCharset())) {
 			String buffer;
 			while ((buffer = is.readLine()) != null) {
-				for (ParsedCommand pl : commands) {
-					switch(pl.cmdLetter) {
-					case 's':
-						ParsedSubstitute ps = (ParsedSubstitute) pl.opaque;
-						buffer = ps.global ?
-								ps.patt.matcher(buffer).replaceAll(ps.replacement) :
-								ps.patt.matcher(buffer).replaceFirst(ps.replacement);
-						break;
-					default:
-						System.err.println("? commdand not implemented");
-						break;
-					}
-				}
-				System.out.println(buffer);
+				System.out.println(editLine(buffer));
 			}
 		}
 	}
+
+	/** Apply the commands to one line */
+	private static String editLine(String buffer) {
+		for (ParsedCommand pl : commands) {
+			switch(pl.cmdLetter) {
+			case 's':
+				ParsedSubstitute ps = (ParsedSubstitute) pl.opaque;
+				buffer = ps.global ?
+						ps.patt.matcher(buffer).replaceAll(ps.replacement) :
+						ps.patt.matcher(buffer).replaceFirst(ps.replacement);
+				break;
+			default:
+				System.err.println("? commdand not implemented");
+				break;
+			}
+		}
+		return buffer;
+	}
+
+	/** Load all of the input into buffPrims, apply the commands there, then print it */
+	private static void processBuffer(InputStream in) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (LineReader is = new LineReader(in, Charset.defaultCharset())) {
+			String line;
+			while ((line = is.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		buffPrims.clearBuffer();
+		buffPrims.addLines(0, lines);
+		for (ParsedCommand pl : commands) {
+			// Line numbers were parsed against the empty miniPrims, so 0 means "all"
+			int start = Math.max(pl.startNum, 1);
+			int end = pl.endNum == 0 ? buffPrims.size() : Math.min(pl.endNum, buffPrims.size());
+			if (start > end) {
+				continue;
+			}
+			switch(pl.cmdLetter) {
+			case 's':
+				ParsedSubstitute ps = (ParsedSubstitute) pl.opaque;
+				buffPrims.replace(ps.pattStr, ps.replacement, ps.global, start, end);
+				break;
+			default:
+				System.err.println("? commdand not implemented");
+				break;
+			}
+		}
+		if (buffPrims.size() > 0) {
+			buffPrims.getLines(1, buffPrims.size()).forEach(System.out::println);
+		}
+	}
 }
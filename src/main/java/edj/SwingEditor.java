@@ -10,6 +10,7 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -26,6 +27,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
@@ -63,6 +65,10 @@ public class SwingEditor extends JFrame {
 	private UndoManager mUndoManager = new UndoManager();
 	private UndoAction undoAction;
 	private RedoAction redoAction;
+	// Background loading of files; only touched on the event thread
+	private BackgroundLoader loader;
+	private int loadGeneration;
+	private boolean appendingLoadedText;
 
 	/** The only Constructor */
 	SwingEditor(String fileName) {
@@ -159,6 +165,9 @@ public class SwingEditor extends JFrame {
 		redoAction.updateGuiState();
 
 		textView.getDocument().addUndoableEditListener(e -> {
+			if (appendingLoadedText) {
+				return;		// Loading a file is not an undoable edit
+			}
 			//Remember the edit and update the menus
 			mUndoManager.addEdit(e.getEdit());
 			undoAction.updateGuiState();
@@ -193,15 +202,74 @@ public class SwingEditor extends JFrame {
 	}
 
 	/**
-	 * Prompt the user to choose a file, then read it, replacing
-	 * the buffer contents. Turns off the listeners around this so we don't
-	 * get an insert event (might cause looping...).
+	 * Read the chosen file, replacing the buffer contents. The file is
+	 * read in the background and shown as it arrives, with the progress
+	 * in the title bar; the undo listener ignores these appends.
 	 * @param fileName
 	 */
 	private void openFile(String fileName) {
+		if (loader != null) {
+			loader.cancel();
+			loader = null;
+		}
 		textView.setText("");
 		buffer.clearBuffer();
-		commands.readFile(fileName);
+		((DigestHolder) buffer).setSavedDigest(LineBlockDigest.of(buffer));
+		mUndoManager.discardAllEdits();
+		undoAction.updateGuiState();
+		redoAction.updateGuiState();
+		final int generation = ++loadGeneration;
+		final String title = new File(fileName).getName();
+		try {
+			loader = new BackgroundLoader(fileName,
+				batch -> SwingUtilities.invokeLater(() -> appendLoaded(generation, batch, title)),
+				() -> SwingUtilities.invokeLater(() -> finishLoad(generation, title)));
+		} catch (BufferException e) {
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		loader.start();
+	}
+
+	/**
+	 * Show a batch of lines as soon as the BackgroundLoader has them,
+	 * so the top of a big file can be looked at (and edited) at once.
+	 * Batches from a load that has since been replaced are dropped.
+	 */
+	private void appendLoaded(int generation, List<String> batch, String title) {
+		if (generation != loadGeneration) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String line : batch) {
+			sb.append(line).append('\n');
+		}
+		appendingLoadedText = true;
+		try {
+			textView.append(sb.toString());
+		} finally {
+			appendingLoadedText = false;
+		}
+		if (loader != null) {
+			setTitle(String.format("%s (loading %.0f%%)", title, 100 * loader.getProgress()));
+		}
+	}
+
+	private void finishLoad(int generation, String title) {
+		if (generation != loadGeneration || loader == null) {
+			return;
+		}
+		BufferException failure = loader.getFailure();
+		loader = null;
+		if (!mUndoManager.canUndo()) {		// else the user has typed in it already
+			((DigestHolder) buffer).setSavedDigest(LineBlockDigest.of(buffer));
+		}
+		mUnsavedChanges = false;
+		setTitle(title);
+		undoAction.updateGuiState();
+		if (failure != null) {
+			JOptionPane.showMessageDialog(this, failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
 	}
 
 	/**
@@ -246,6 +314,7 @@ public class SwingEditor extends JFrame {
 			System.out.println("? Unknown command in " + line);
 		} else {
 			c.execute(pl);
+			undoAction.updateGuiState();	// e.g., 'w' has saved the changes
 			textView.repaint();
 		}
 	}
@@ -261,7 +330,6 @@ public class SwingEditor extends JFrame {
 			File file = chooser.getSelectedFile();
 			if (file.isFile()) {
 				openFile(file.getAbsolutePath());
-				setTitle(file.getName());
 				textView.repaint();
 			} else {
 				JOptionPane.showMessageDialog(this, "Not a file: " + file);
@@ -302,7 +370,7 @@ public class SwingEditor extends JFrame {
 				final boolean canUndo = mUndoManager.canUndo();
 				setEnabled(canUndo);
 				putValue(NAME, canUndo ? mUndoManager.getUndoPresentationName() : "Undo");
-				setUnsavedChanges(canUndo);
+				setUnsavedChanges(isModified());
 		}
 	};
 
@@ -327,6 +395,15 @@ public class SwingEditor extends JFrame {
 	};
 	
 
+	/**
+	 * Does the text really differ from the file as last read or written?
+	 * Unlike asking whether there are edits to undo, typing something and
+	 * deleting it again, or undoing back to the saved text, count as no change.
+	 */
+	protected boolean isModified() {
+		return ((DigestHolder) buffer).isModified();
+	}
+
 	/**
 	 * Set saved/unsaved status variable AND titlebar
 	 */
@@ -0,0 +1,273 @@
+package edj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.snow.kylern.Collections.GapList;
+
+import edj.BufferPrimsWithUndo.UndoableCommand;
+
+/**
+ * The undo stack of a BufferPrimsWithUndo, kept within a memory budget.
+ *
+ * Each entry's cost is estimated (mostly the lines it holds) as it is
+ * pushed. While the entries in memory cost more than the budget, the
+ * oldest are written out to a spill file, a stack of records under the
+ * ones in memory, until they cost no more than three quarters of it;
+ * popping past the ones in memory reads back the newest spilled record
+ * and cuts it off the file. So a deep history costs disk, not heap, and
+ * the disk is only read if the user undoes that far.
+ *
+ * The newest entry is never spilled. An entry that is only a Runnable
+ * can't be written out, so it stays in memory, and its record just says
+ * where to find it. The spill file is a temporary file, made when first
+ * needed and deleted when closed or the JVM exits.
+ */
+final class UndoHistory {
+
+	/** The default budget for undo entries in memory */
+	static final long DEFAULT_BUDGET = 64L << 20;
+
+	private final BufferPrimsWithUndo owner;
+	private long budget = DEFAULT_BUDGET;
+
+	/** The entries in memory, oldest first, and what they cost */
+	private final List<UndoableCommand> entries = new GapList<>();
+	private final List<Long> costs = new GapList<>();
+	private long heapBytes;
+
+	/** The spilled entries: where each starts in the file, oldest first */
+	private FileChannel spill;
+	private long[] offsets = new long[64];
+	private int spilled;
+	private final Map<Integer, UndoableCommand> opaque = new HashMap<>();
+
+	UndoHistory(BufferPrimsWithUndo owner) {
+		this.owner = owner;
+	}
+
+	void setBudget(long bytes) {
+		budget = bytes;
+		spillOldest();
+	}
+
+	long getBudget() {
+		return budget;
+	}
+
+	/** The estimated cost of the entries in memory */
+	long heapBytes() {
+		return heapBytes;
+	}
+
+	/** The number of entries written out to the spill file */
+	int spilledCount() {
+		return spilled;
+	}
+
+	int size() {
+		return spilled + entries.size();
+	}
+
+	boolean isEmpty() {
+		return size() == 0;
+	}
+
+	void push(UndoableCommand u) {
+		long cost = costOf(u);
+		entries.add(u);
+		costs.add(cost);
+		heapBytes += cost;
+		if (heapBytes > budget) {
+			spillOldest();
+		}
+	}
+
+	UndoableCommand pop() {
+		if (!entries.isEmpty()) {
+			heapBytes -= costs.remove(costs.size() - 1);
+			return entries.remove(entries.size() - 1);
+		}
+		if (spilled == 0) {
+			throw new IllegalStateException("Nothing to undo");
+		}
+		UndoableCommand u = read(spilled - 1, true);
+		try {
+			spill.truncate(offsets[spilled - 1]);
+		} catch (IOException e) {
+			throw new BufferException("Undo spill file failed during write", e);
+		}
+		--spilled;
+		return u;
+	}
+
+	/** Entry i, counting from the oldest, read back from the spill file if need be */
+	UndoableCommand get(int i) {
+		return i < spilled ? read(i, false) : entries.get(i - spilled);
+	}
+
+	/** Entries [from, size()), oldest first */
+	List<UndoableCommand> from(int from) {
+		List<UndoableCommand> list = new ArrayList<>(size() - from);
+		for (int i = from; i < size(); i++) {
+			list.add(get(i));
+		}
+		return list;
+	}
+
+	void clear() {
+		entries.clear();
+		costs.clear();
+		heapBytes = 0;
+		opaque.clear();
+		if (spilled > 0) {
+			spilled = 0;
+			try {
+				spill.truncate(0);
+			} catch (IOException e) {
+				// Leave it; the records are never read, and it goes when we do
+			}
+		}
+	}
+
+	/** Let go of the spill file */
+	void close() {
+		clear();
+		if (spill != null) {
+			try {
+				spill.close();
+			} catch (IOException e) {
+				// Deleted on exit anyway
+			}
+			spill = null;
+		}
+	}
+
+	/** A rough idea of the heap an entry holds: its lines, mostly */
+	static long costOf(UndoableCommand u) {
+		long cost = 64;
+		if (u.lines instanceof SessionImage.Lines) {
+			return cost + 16L * u.lines.size();		// mapped, not on the heap, until copied
+		}
+		if (u.lines != null) {
+			for (String line : u.lines) {
+				cost += 48 + line.length();
+			}
+		}
+		if (u.edits != null) {
+			cost += 16 + Integer.BYTES * u.edits.length;
+		}
+		return cost;
+	}
+
+	/** Write out the oldest entries in memory until they cost no more than 3/4 of the budget */
+	private void spillOldest() {
+		long target = budget - budget / 4;
+		try {
+			while (heapBytes > target && entries.size() > 1) {
+				byte[] record = encode(entries.get(0));
+				if (spill == null) {
+					spill = FileChannel.open(Files.createTempFile("edj", ".undo"),
+						StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+				}
+				long at = spill.size();
+				ByteBuffer buf = ByteBuffer.wrap(record);
+				while (buf.hasRemaining()) {
+					spill.write(buf, at + buf.position());
+				}
+				if (spilled == offsets.length) {
+					offsets = Arrays.copyOf(offsets, spilled * 2);
+				}
+				offsets[spilled] = at;
+				if (entries.get(0).op == BufferPrimsWithUndo.UNDO_RUNNABLE) {
+					opaque.put(spilled, entries.get(0));
+				}
+				++spilled;
+				entries.remove(0);
+				heapBytes -= costs.remove(0);
+			}
+		} catch (IOException e) {
+			// No room on disk, say: keep them in memory
+		}
+	}
+
+	private static byte[] encode(UndoableCommand u) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeUTF(u.name == null ? "" : u.name);
+			out.writeByte(u.op);
+			out.writeInt(u.a);
+			out.writeInt(u.b);
+			out.writeInt(u.c);
+			out.writeInt(u.lines == null ? -1 : u.lines.size());
+			if (u.lines != null) {
+				for (String line : u.lines) {
+					byte[] b = line.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(b.length);
+					out.write(b);
+				}
+			}
+			out.writeInt(u.edits == null ? -1 : u.edits.length);
+			if (u.edits != null) {
+				for (int e : u.edits) {
+					out.writeInt(e);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);	// can't happen, writing to memory
+		}
+		return bytes.toByteArray();
+	}
+
+	/** Read back spilled entry i; if it is being popped, let go of it if kept in memory */
+	private UndoableCommand read(int i, boolean popping) {
+		if (opaque.containsKey(i)) {
+			return popping ? opaque.remove(i) : opaque.get(i);
+		}
+		try {
+			long end = i + 1 < spilled ? offsets[i + 1] : spill.size();
+			ByteBuffer buf = ByteBuffer.allocate((int) (end - offsets[i]));
+			while (buf.hasRemaining() && spill.read(buf, offsets[i] + buf.position()) > 0) {
+				// keep reading
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.array()));
+			String name = in.readUTF();
+			byte op = in.readByte();
+			int a = in.readInt(), b = in.readInt(), c = in.readInt(), n = in.readInt();
+			List<String> lines = null;
+			if (n >= 0) {
+				lines = new ArrayList<>(n);
+				for (int k = 0; k < n; k++) {
+					byte[] text = new byte[in.readInt()];
+					in.readFully(text);
+					lines.add(new String(text, StandardCharsets.UTF_8));
+				}
+			}
+			int[] edits = null;
+			int ne = in.readInt();
+			if (ne >= 0) {
+				edits = new int[ne];
+				for (int k = 0; k < ne; k++) {
+					edits[k] = in.readInt();
+				}
+			}
+			return owner.new UndoableCommand(name, op, a, b, c, lines, edits);
+		} catch (IOException e) {
+			throw new BufferException("Undo spill file failed during read", e);
+		}
+	}
+}
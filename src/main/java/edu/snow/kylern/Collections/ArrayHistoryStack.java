@@ -145,9 +145,7 @@ public class ArrayHistoryStack<E> implements HistoryStack<E> {
     }
 
     private void clearDataRange(int startIdx, int endIdx) {
-        for (int i = endIdx; i >= startIdx; i--) {
-            data.remove(startIdx);
-        }
+        data.subList(startIdx, endIdx + 1).clear();
     }
 
     @Override
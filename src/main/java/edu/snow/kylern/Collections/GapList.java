@@ -0,0 +1,176 @@
+package edu.snow.kylern.Collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A List backed by a gap buffer: a single array with a "gap" of unused
+ * slots that is moved to wherever the list is being modified.
+ *
+ * Editing tends to cluster around one spot (the current line, in the case
+ * of an editor), so after the first change at a position the gap is already
+ * there, and inserting or removing nearby elements costs O(1) amortized
+ * instead of shifting the whole tail of the array as ArrayList does. Moving
+ * the gap costs one array copy of the elements between the old and new
+ * positions.
+ *
+ * Ranged removes (e.g. list.subList(from, to).clear()) and bulk inserts
+ * (addAll(index, c)) are done with a single gap move rather than one
+ * shift per element.
+ *
+ * @param <E>
+ */
+public class GapList<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] data;
+    private int gapStart;
+    private int gapEnd;     // exclusive
+
+    public GapList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public GapList(int numOfElements) {
+        data = new Object[Math.max(numOfElements, 1)];
+        gapStart = 0;
+        gapEnd = data.length;
+    }
+
+    public GapList(Collection<? extends E> c) {
+        this(c.size() + DEFAULT_CAPACITY);
+        addAll(c);
+    }
+
+    private int gapLength() {
+        return gapEnd - gapStart;
+    }
+
+    private int toArrayIndex(int index) {
+        return index < gapStart ? index : index + gapLength();
+    }
+
+    private void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    /**
+     * Move the gap so that it starts at the given index. Normally done
+     * as needed by the modifying methods, but may be called to pre-position
+     * the gap where editing is about to happen.
+     */
+    public void moveGapTo(int index) {
+        checkIndex(index, size() + 1);
+        if (index < gapStart) {
+            int n = gapStart - index;
+            System.arraycopy(data, index, data, gapEnd - n, n);
+            Arrays.fill(data, index, Math.min(gapStart, gapEnd - n), null);
+            gapStart = index;
+            gapEnd -= n;
+        } else if (index > gapStart) {
+            int n = index - gapStart;
+            System.arraycopy(data, gapEnd, data, gapStart, n);
+            Arrays.fill(data, Math.max(gapEnd, index), gapEnd + n, null);
+            gapStart = index;
+            gapEnd += n;
+        }
+    }
+
+    /** Make sure the gap has room for at least n more elements */
+    private void ensureGap(int n) {
+        if (gapLength() >= n)
+            return;
+        int size = size();
+        int newLength = Math.max(data.length * 2, size + n + DEFAULT_CAPACITY);
+        Object[] newData = new Object[newLength];
+        int tail = data.length - gapEnd;
+        System.arraycopy(data, 0, newData, 0, gapStart);
+        System.arraycopy(data, gapEnd, newData, newLength - tail, tail);
+        data = newData;
+        gapEnd = newLength - tail;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index, size());
+        return (E) data[toArrayIndex(index)];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        checkIndex(index, size());
+        int ix = toArrayIndex(index);
+        E old = (E) data[ix];
+        data[ix] = element;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return data.length - gapLength();
+    }
+
+    @Override
+    public void add(int index, E element) {
+        moveGapTo(index);
+        ensureGap(1);
+        data[gapStart++] = element;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c) {
+        checkIndex(index, size() + 1);
+        Object[] a = c.toArray();
+        if (a.length == 0)
+            return false;
+        moveGapTo(index);
+        ensureGap(a.length);
+        System.arraycopy(a, 0, data, gapStart, a.length);
+        gapStart += a.length;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        return addAll(size(), c);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E remove(int index) {
+        checkIndex(index, size());
+        moveGapTo(index);
+        E old = (E) data[gapEnd];
+        data[gapEnd++] = null;
+        modCount++;
+        return old;
+    }
+
+    /** Remove a range with one gap move; used by subList(from, to).clear() */
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex)
+            return;
+        moveGapTo(fromIndex);
+        int n = toIndex - fromIndex;
+        Arrays.fill(data, gapEnd, gapEnd + n, null);
+        gapEnd += n;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(data, null);
+        gapStart = 0;
+        gapEnd = data.length;
+        modCount++;
+    }
+}
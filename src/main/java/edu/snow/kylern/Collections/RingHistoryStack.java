@@ -0,0 +1,305 @@
+package edu.snow.kylern.Collections;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A HistoryStack of bounded capacity, for edit or navigation histories
+ * that should not grow without limit, kept in a single circular array.
+ *
+ * The stack runs from the oldest element up to the top, and the history
+ * (the popped elements, most recently popped first) follows on directly
+ * above it, so pop and unpop only move the boundary between them, and
+ * push only writes one slot: all O(1). As in EditHistoryStack, a push
+ * clears the history; the cleared slots are nulled, but only as many as
+ * were popped into the history, so that is O(1) amortized over the pops.
+ *
+ * When a push finds the array full, the oldest element is evicted to make
+ * room and handed to the eviction callback, if there is one (e.g., to let
+ * go of what an evicted undo held). popHistory and popNoHistory, which
+ * take an element out from between the stack and the rest of the history,
+ * have to close the gap, so cost in proportion to the history size.
+ *
+ * The iterators walk the array directly, in the same order as those of
+ * EditHistoryStack (the top of the stack, or the most recently popped,
+ * first), fail on a concurrent change, and do not support remove().
+ *
+ * @param <E>
+ */
+public class RingHistoryStack<E> implements HistoryStack<E> {
+
+    private final Object[] items;
+    private final Consumer<? super E> onEvict;
+    private int bottom;        // the slot of the oldest element
+    private int size;          // elements on the stack
+    private int history;       // elements in the history, just above the stack
+    private int modCount;
+
+    public RingHistoryStack(int capacity) {
+        this(capacity, null);
+    }
+
+    /** A stack of at most capacity elements, that passes each element evicted to onEvict */
+    public RingHistoryStack(int capacity, Consumer<? super E> onEvict) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        this.items = new Object[capacity];
+        this.onEvict = onEvict;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    /** The slot of the i'th element from the oldest, counting the history after the stack */
+    private int slot(int i) {
+        int s = bottom + i;
+        return s < items.length ? s : s - items.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E at(int i) {
+        return (E) items[slot(i)];
+    }
+
+    @Override
+    public void push(E e) {
+        clearHistory();
+        E evicted = null;
+        boolean full = size == items.length;
+        if (full) {
+            evicted = at(0);
+            items[bottom] = null;
+            bottom = slot(1);
+            size--;
+        }
+        items[slot(size)] = e;
+        size++;
+        modCount++;
+        if (full && onEvict != null)
+            onEvict.accept(evicted);
+    }
+
+    @Override
+    public E pop() {
+        if (size == 0)
+            return null;
+        size--;
+        history++;
+        modCount++;
+        return at(size);
+    }
+
+    @Override
+    public E peek() {
+        return size == 0 ? null : at(size - 1);
+    }
+
+    @Override
+    public E unpop() {
+        if (history == 0)
+            return null;
+        history--;
+        size++;
+        modCount++;
+        return at(size - 1);
+    }
+
+    @Override
+    public E popHistory() {
+        if (history == 0)
+            return null;
+        return removeAt(size);
+    }
+
+    @Override
+    public E popNoHistory() {
+        if (size == 0)
+            return null;
+        size--;
+        history++;
+        return removeAt(size);
+    }
+
+    /** Take out the history element at i, closing the gap by moving the older history down */
+    private E removeAt(int i) {
+        E e = at(i);
+        int end = size + history;
+        for (; i < end - 1; i++)
+            items[slot(i)] = items[slot(i + 1)];
+        items[slot(end - 1)] = null;
+        history--;
+        modCount++;
+        return e;
+    }
+
+    @Override
+    public E peekHistory() {
+        return history == 0 ? null : at(size);
+    }
+
+    @Override
+    public int historySize() {
+        return history;
+    }
+
+    @Override
+    public boolean isHistoryEmpty() {
+        return history == 0;
+    }
+
+    @Override
+    public void clearHistory() {
+        for (int i = size; i < size + history; i++)
+            items[slot(i)] = null;
+        history = 0;
+        modCount++;
+    }
+
+    @Override
+    public void clearRetainHistory() {
+        for (int i = 0; i < size; i++)
+            items[slot(i)] = null;
+        bottom = slot(size);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        clearHistory();
+        clearRetainHistory();
+        bottom = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        for (int i = 0; i < size; i++)
+            if (Objects.equals(o, at(i)))
+                return true;
+        return false;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> collection) {
+        for (Object o : collection)
+            if (!contains(o))
+                return false;
+        return true;
+    }
+
+    /** Walks elements from..to of the ring (inclusive), up or down */
+    private class RingIterator implements Iterator<E> {
+        private int next;
+        private final int last, step;
+        private final int expectedModCount = modCount;
+
+        RingIterator(int from, int to) {
+            this.next = from;
+            this.last = to;
+            this.step = from <= to ? 1 : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != last + step;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            E e = at(next);
+            next += step;
+            return e;
+        }
+    }
+
+    private static final Iterator<Object> EMPTY = new Iterator<Object>() {
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public Object next() {
+            throw new NoSuchElementException();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private Iterator<E> iterator(int from, int to, int count) {
+        return count == 0 ? (Iterator<E>) EMPTY : new RingIterator(from, to);
+    }
+
+    /** From the top of the stack down */
+    @Override
+    public Iterator<E> iterator() {
+        return iterator(size - 1, 0, size);
+    }
+
+    /** From the bottom of the stack up */
+    @Override
+    public Iterator<E> descendingIterator() {
+        return iterator(0, size - 1, size);
+    }
+
+    /** From the most recently popped */
+    @Override
+    public Iterator<E> historyIterator() {
+        return iterator(size, size + history - 1, history);
+    }
+
+    /** From the first popped */
+    @Override
+    public Iterator<E> historyDescendingIterator() {
+        return iterator(size + history - 1, size, history);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[size]);
+    }
+
+    @Override
+    public <T> T[] toArray(T[] ts) {
+        return copyOut(iterator(), size, ts);
+    }
+
+    @Override
+    public Object[] historyToArray() {
+        return historyToArray(new Object[history]);
+    }
+
+    @Override
+    public <T> T[] historyToArray(T[] ts) {
+        return copyOut(historyIterator(), history, ts);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] copyOut(Iterator<?> it, int n, T[] ts) {
+        T[] out = ts.length >= n ? ts : (T[]) Array.newInstance(ts.getClass().getComponentType(), n);
+        for (int i = 0; i < n; i++)
+            out[i] = (T) it.next();
+        if (out.length > n)
+            out[n] = null;
+        return out;
+    }
+}
@@ -0,0 +1,135 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferPrimsAsyncLoadTest {
+
+	static final int LINES = 200_000;
+
+	File file;
+	List<String> expected = new ArrayList<>();
+	BufferPrimsAsyncLoad target = new BufferPrimsAsyncLoad(new BufferPrimsWithUndo());
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("edj", ".txt");
+		for (int i = 1; i <= LINES; i++) {
+			expected.add("Line " + i);
+		}
+		Files.write(file.toPath(), expected);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testFirstLinesThenAll() {
+		target.readBuffer(file.getPath());
+		assertEquals("Line 1", target.getLine(1));
+		assertEquals("Line 300", target.getLines(300, 300).get(0));
+		target.awaitLines(BufferPrims.INF);
+		assertFalse(target.isLoading());
+		assertEquals(1.0, target.getLoadProgress(), 0);
+		assertEquals(LINES, target.size());
+		assertEquals(expected, target.getLines(1, LINES));
+	}
+
+	@Test
+	public void testEditWaitsForLoadAndIsUndoable() {
+		target.readBuffer(file.getPath());
+		target.deleteLines(1, 1);
+		assertEquals(LINES - 1, target.size());
+		assertEquals("Line 2", target.getLine(1));
+		target.undo();
+		assertEquals(LINES, target.size());
+		target.undo();		// loading itself is not undone
+		assertEquals(LINES, target.size());
+	}
+
+	@Test
+	public void testDollarWaitsForAll() {
+		target.readBuffer(file.getPath());
+		ParsedCommand pc = LineParser.parse("$p", target);
+		assertEquals(LINES, pc.startNum);
+	}
+
+	@Test
+	public void testDollarDestinationWaitsForAll() {
+		target.readBuffer(file.getPath());
+		String first = target.getLine(1);
+		new Commands(target);
+		Commands.commands['t'].execute(LineParser.parse("1t$", target));
+		assertEquals(LINES + 1, target.size());
+		assertEquals(first, target.getLine(LINES + 1));
+	}
+
+	@Test
+	public void testEditAgainReplaces() throws Exception {
+		target.readBuffer(file.getPath());
+		target.getLine(1);
+		Files.write(file.toPath(), Arrays.asList("one", "two"));
+		target.clearBuffer();		// as e does
+		target.readBuffer(file.getPath());
+		target.awaitLines(BufferPrims.INF);
+		assertEquals(Arrays.asList("one", "two"), target.getLines(1, 2));
+		assertEquals(2, target.size());
+	}
+
+	@Test
+	public void testReadIntoNonEmptyAppends() throws Exception {
+		File small = File.createTempFile("edj", ".txt");
+		try {
+			Files.write(small.toPath(), Arrays.asList("one", "two"));
+			target.readBuffer(file.getPath());
+			target.getLine(1);
+			target.readBuffer(small.getPath());		// as r does
+			assertEquals(LINES + 2, target.size());
+			assertEquals(expected, target.getLines(1, LINES));
+			assertEquals(Arrays.asList("one", "two"), target.getLines(LINES + 1, LINES + 2));
+			target.undo();
+			assertEquals(expected, target.getLines(1, target.size()));
+		} finally {
+			small.delete();
+		}
+	}
+
+	@Test
+	public void testAbandonedLoadAddsNothing() throws Exception {
+		File small = File.createTempFile("edj", ".txt");
+		try {
+			Files.write(small.toPath(), Arrays.asList("one", "two"));
+			for (int i = 0; i < 20; i++) {
+				target.readBuffer(file.getPath());
+				target.getLine(1);		// the big load is well under way
+				target.clearBuffer();
+				target.readBuffer(small.getPath());
+				target.awaitLines(BufferPrims.INF);
+				Thread.sleep(5);		// give an abandoned loader time to hand over a stray batch
+				assertEquals(2, target.size());
+				assertEquals(Arrays.asList("one", "two"), target.getLines(1, 2));
+			}
+		} finally {
+			small.delete();
+		}
+	}
+
+	@Test(expected=BufferException.class)
+	public void testMissingFile() {
+		assertTrue(file.delete());
+		target.readBuffer(file.getPath());
+	}
+}
@@ -0,0 +1,149 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferPrimsJournaledTest {
+
+	File dir, file;
+	BufferPrimsJournaled target = new BufferPrimsJournaled(new BufferPrimsWithUndo());
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("edj").toFile();
+		file = new File(dir, "file.txt");
+		List<String> lines = new ArrayList<>();
+		for (int i = 1; i <= 100; i++) {
+			lines.add("Line " + i);
+		}
+		Files.write(file.toPath(), lines);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		target.close();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/** Edit, "crash" (abandon the buffer without closing), and recover into a new one */
+	private BufferPrimsJournaled editAndCrash() {
+		target.readBuffer(file.getPath());
+		target.popUndo();
+		target.deleteLines(10, 19);
+		target.goToLine(5);
+		target.addLine("added after 5");
+		target.replace("Line", "LINE", false, 50, 60);
+		target.addLines(0, Arrays.asList("first", "second"));
+		target.moveLines(1, 2, 20);
+		target.replace("8", "eight", true);
+		target.addLine("the last edit");
+		target.syncJournal();
+		return new BufferPrimsJournaled(new BufferPrimsWithUndo());
+	}
+
+	@Test
+	public void testRecoverReplaysEdits() {
+		BufferPrimsJournaled recovered = editAndCrash();
+		assertTrue(BufferPrimsJournaled.hasJournal(file.getPath()));
+		assertEquals(7, recovered.recover(file.getPath()));
+		assertEquals(target.size(), recovered.size());
+		assertEquals(target.getLines(1, target.size()), recovered.getLines(1, recovered.size()));
+		assertEquals(target.getCurrentLineNumber(), recovered.getCurrentLineNumber());
+
+		// The undo stack came back too, and edits after recovery are journaled in turn
+		target.undo();
+		recovered.undo();
+		recovered.deleteLines(1, 1);
+		recovered.syncJournal();
+		target.deleteLines(1, 1);
+		BufferPrimsJournaled again = new BufferPrimsJournaled(new BufferPrimsWithUndo());
+		again.recover(file.getPath());
+		assertEquals(target.getLines(1, target.size()), again.getLines(1, again.size()));
+	}
+
+	@Test
+	public void testSaveCompactsJournal() {
+		editAndCrash();
+		target.writeBuffer(file.getPath());
+		assertFalse(BufferPrimsJournaled.hasJournal(file.getPath()));
+		target.addLine("after the save");
+		target.syncJournal();
+		BufferPrimsJournaled recovered = new BufferPrimsJournaled(new BufferPrimsWithUndo());
+		assertEquals(1, recovered.recover(file.getPath()));
+		assertEquals(target.getLines(1, target.size()), recovered.getLines(1, recovered.size()));
+	}
+
+	@Test
+	public void testTornRecordIsIgnored() throws Exception {
+		editAndCrash();
+		Path journal = EditJournal.pathFor(file.toPath());
+		try (FileChannel ch = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+			ch.truncate(ch.size() - 3);		// the last edit was cut short
+		}
+		List<String> expected = target.getLines(1, target.size());
+		expected.remove("the last edit");
+		BufferPrimsJournaled recovered = new BufferPrimsJournaled(new BufferPrimsWithUndo());
+		assertEquals(6, recovered.recover(file.getPath()));
+		assertEquals(expected, recovered.getLines(1, recovered.size()));
+	}
+
+	@Test
+	public void testJournalOfChangedFileIsNotReplayed() throws Exception {
+		editAndCrash();
+		Files.write(file.toPath(), Arrays.asList("someone else's", "version"));
+		assertFalse(BufferPrimsJournaled.hasJournal(file.getPath()));
+		BufferPrimsJournaled recovered = new BufferPrimsJournaled(new BufferPrimsWithUndo());
+		assertEquals(0, recovered.recover(file.getPath()));
+		assertEquals(2, recovered.size());
+	}
+
+	@Test
+	public void testStartupPopIsNotAnEdit() {
+		target.readBuffer(file.getPath());
+		target.popUndo();		// as LineEditor does after reading the file it was started on
+		target.syncJournal();
+		assertFalse(BufferPrimsJournaled.hasJournal(file.getPath()));
+		assertEquals(0, new BufferPrimsJournaled(new BufferPrimsWithUndo()).recover(file.getPath()));
+	}
+
+	@Test
+	public void testReadIntoBufferRecordsOnlyNewLines() throws Exception {
+		File more = new File(dir, "more.txt");
+		Files.write(more.toPath(), Arrays.asList("more 1", "more 2"));
+		target.readBuffer(file.getPath());
+		target.goToLine(3);
+		target.readBuffer(more.getPath());
+		target.syncJournal();
+		assertTrue(Files.size(EditJournal.pathFor(file.toPath())) < 200);
+		BufferPrimsJournaled recovered = new BufferPrimsJournaled(new BufferPrimsWithUndo());
+		assertEquals(1, recovered.recover(file.getPath()));
+		assertEquals(102, recovered.size());
+		assertEquals(target.getLines(1, target.size()), recovered.getLines(1, recovered.size()));
+		assertEquals(target.getCurrentLineNumber(), recovered.getCurrentLineNumber());
+	}
+
+	@Test
+	public void testCloseRemovesJournal() {
+		target.readBuffer(file.getPath());
+		target.deleteLines(1, 1);
+		target.close();
+		assertFalse(Files.exists(EditJournal.pathFor(file.toPath())));
+	}
+}
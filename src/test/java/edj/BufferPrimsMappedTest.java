@@ -0,0 +1,103 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Only test code specific to the memory-mapped version of BufferPrims */
+public class BufferPrimsMappedTest {
+
+	BufferPrimsMapped target;
+
+	@Before
+	public void setUp() throws Exception {
+		target = new BufferPrimsMapped();
+		target.readBuffer("lorem.txt");
+	}
+
+	@Test
+	public void testReadIsLazy() {
+		assertTrue(target.isUnedited());
+		assertEquals("Lorem ipsum dolor sit amet, consectetur adipisicing elit, sed do eiusmod",
+			target.getLine(1));
+		assertEquals(target.getLine(target.size()),
+			target.getLines(1, target.size()).get(target.size() - 1));
+		assertTrue(target.isUnedited());
+	}
+
+	@Test
+	public void testEditsGoToOverlay() {
+		int n = target.size();
+		String line2 = target.getLine(2), line3 = target.getLine(3);
+		target.addLines(1, Arrays.asList("new line"));
+		assertFalse(target.isUnedited());
+		target.deleteLines(3, 3);
+		assertEquals(n, target.size());
+		assertEquals(Arrays.asList("new line", line3), target.getLines(2, 3));
+		assertFalse(line2.equals(target.getLine(3)));
+	}
+
+	@Test
+	public void testReplaceOnlyChangesMatches() {
+		target.replace("^Lorem", "LOREM", false, 1, target.size());
+		assertTrue(target.getLine(1).startsWith("LOREM ipsum"));
+		assertEquals("tempor", target.getLine(2).substring(0, 6));
+	}
+
+	@Test
+	public void testReplaceManyScatteredLines() throws Exception {
+		File file = File.createTempFile("edj", ".txt");
+		try {
+			List<String> lines = new ArrayList<>();
+			for (int i = 1; i <= 200_000; i++) {
+				lines.add((i % 2 == 0 ? "even " : "odd ") + i);
+			}
+			Files.write(file.toPath(), lines);
+			BufferPrimsMapped big = new BufferPrimsMapped();
+			big.readBuffer(file.getPath());
+			big.replace("^even", "EVEN", false, 1, big.size());
+			big.replace("^odd 1", "ODD 1", false, 1, big.size());
+			List<String> expected = new ArrayList<>();
+			for (String line : lines) {
+				expected.add(line.replaceFirst("^even", "EVEN").replaceFirst("^odd 1", "ODD 1"));
+			}
+			assertEquals(expected, big.getLines(1, big.size()));
+			assertEquals("EVEN 200000", big.getLine(200_000));
+			big.deleteLines(2, 3);
+			big.addLines(1, Arrays.asList("x", "y"));
+			assertEquals(Arrays.asList("ODD 1", "x", "y", "EVEN 4", "odd 5"), big.getLines(1, 5));
+			assertEquals(200_000, big.size());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMoveAndCopyLeaveLinesMapped() {
+		int n = target.size();
+		List<String> expected = new ArrayList<>(target.getLines(1, n));
+		target.replace("^Lorem", "LOREM", false, 1, 1);
+		expected.set(0, expected.get(0).replaceFirst("^Lorem", "LOREM"));
+		target.moveLines(1, 3, n - 1);
+		List<String> block = new ArrayList<>(expected.subList(0, 3));
+		expected.subList(0, 3).clear();
+		expected.addAll(n - 4, block);
+		target.copyLines(2, 5, 0);
+		expected.addAll(0, new ArrayList<>(expected.subList(1, 5)));
+		assertEquals(expected, target.getLines(1, target.size()));
+		target.replaceLines(3, 6, Arrays.asList("new"));
+		expected.subList(2, 6).clear();
+		expected.add(2, "new");
+		assertEquals(expected, target.getLines(1, target.size()));
+		assertEquals(3, target.getCurrentLineNumber());
+	}
+}
@@ -0,0 +1,115 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Only test code specific to the paged version of BufferPrims */
+public class BufferPrimsPagedTest {
+
+	static final int LINES = 5 * BufferPrimsPaged.PAGE_LINES + 10;
+
+	File file;
+	BufferPrimsPaged target;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("paged", ".txt");
+		List<String> lines = new ArrayList<>();
+		for (int i = 1; i <= LINES; i++) {
+			lines.add("Line " + i);
+		}
+		Files.write(file.toPath(), lines);
+		// Room for about one page
+		target = new BufferPrimsPaged(BufferPrimsPaged.PAGE_LINES * 80);
+		target.readBuffer(file.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		target.clearBuffer();
+		file.delete();
+	}
+
+	@Test
+	public void testReadIsLazy() {
+		assertEquals(LINES, target.size());
+		assertEquals(0, target.getResidentPages());
+		assertEquals("Line " + LINES, target.getLine(LINES));
+		assertEquals(1, target.getResidentPages());
+	}
+
+	@Test
+	public void testDirtyPagesSpillAndComeBack() {
+		target.replace("Line", "Row", false, 1, LINES);
+		assertTrue(target.getEvictions() > 0);
+		long faults = target.getPageFaults();
+		assertEquals("Row 1", target.getLine(1));
+		assertEquals("Row " + LINES, target.getLine(LINES));
+		assertTrue(target.getPageFaults() > faults);
+	}
+
+	@Test
+	public void testEditsAcrossPages() {
+		int page = BufferPrimsPaged.PAGE_LINES;
+		target.deleteLines(10, 3 * page);
+		assertEquals(LINES - 3 * page + 9, target.size());
+		assertEquals(Arrays.asList("Line 9", "Line " + (3 * page + 1)), target.getLines(9, 10));
+		List<String> many = new ArrayList<>();
+		for (int i = 0; i < 3 * page; i++) {
+			many.add("New " + i);
+		}
+		target.addLines(9, many);
+		assertEquals("New 0", target.getLine(10));
+		assertEquals("Line " + (3 * page + 1), target.getLine(10 + 3 * page));
+		assertEquals(LINES + 9, target.size());
+	}
+
+	@Test
+	public void testSpillFileDoesNotJustGrow() {
+		target.replace("Line", "Row", false, 1, LINES);
+		target.getLine(1);		// spill the rest
+		long once = target.getSpillBytes();
+		assertTrue(once > 0);
+		for (int i = 0; i < 10; i++) {
+			target.replace("Row", "Line", false, 1, LINES);
+			target.replace("Line", "Row", false, 1, LINES);
+			target.deleteLines(1, 1);
+			target.addLines(0, Arrays.asList("Row 1"));
+		}
+		target.getLine(LINES);
+		assertTrue("spill " + target.getSpillBytes() + " after " + once, target.getSpillBytes() <= 3 * once);
+		for (int ln = 1; ln <= LINES; ln += 997) {
+			assertEquals("Row " + ln, target.getLine(ln));
+		}
+		assertEquals("Row " + LINES, target.getLine(LINES));
+	}
+
+	@Test
+	public void testMoveAndCopyWholePages() {
+		int page = BufferPrimsPaged.PAGE_LINES;
+		List<String> expected = new ArrayList<>(target.getLines(1, LINES));
+		target.moveLines(page + 10, 3 * page + 20, 5);
+		List<String> block = new ArrayList<>(expected.subList(page + 9, 3 * page + 20));
+		expected.subList(page + 9, 3 * page + 20).clear();
+		expected.addAll(5, block);
+		assertEquals(5 + block.size(), target.getCurrentLineNumber());
+		target.copyLines(1, 2 * page, LINES);
+		expected.addAll(expected.subList(0, 2 * page));
+		assertEquals(LINES + 2 * page, target.size());
+		assertEquals(expected, target.getLines(1, target.size()));
+		target.replaceLines(2, 3 * page, Arrays.asList("one", "two"));
+		expected.subList(1, 3 * page).clear();
+		expected.addAll(1, Arrays.asList("one", "two"));
+		assertEquals(expected, target.getLines(1, target.size()));
+	}
+}
@@ -0,0 +1,81 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Only test code specific to the piece table version of BufferPrims */
+public class BufferPrimsPieceTableTest {
+
+	BufferPrimsPieceTable target;
+
+	@Before
+	public void setUp() throws Exception {
+		target = new BufferPrimsPieceTable();
+		target.readBuffer("9lines.txt");
+	}
+
+	@Test
+	public void testReadBuffer() {
+		assertEquals(9, target.size());
+		assertEquals(9, target.getCurrentLineNumber());
+		assertEquals("Line 1", target.getLine(1));
+		assertEquals("Line 9", target.getLine(9));
+	}
+
+	@Test
+	public void testInsertInMiddleOfOriginal() {
+		target.addLines(4, Arrays.asList("New A", "New B"));
+		assertEquals(11, target.size());
+		assertEquals(6, target.getCurrentLineNumber());
+		assertEquals(Arrays.asList("Line 4", "New A", "New B", "Line 5"),
+			target.getLines(4, 7));
+	}
+
+	@Test
+	public void testDeleteAcrossPieces() {
+		target.addLines(4, Arrays.asList("New A", "New B"));
+		target.deleteLines(3, 8);
+		assertEquals(Arrays.asList("Line 1", "Line 2", "Line 7", "Line 8", "Line 9"),
+			target.getLines(1, target.size()));
+	}
+
+	@Test
+	public void testReplaceOnlyMatchingLines() {
+		target.replace("[37]", "x", false, 1, 9);
+		assertEquals("Line x", target.getLine(3));
+		assertEquals("Line 4", target.getLine(4));
+		assertEquals("Line x", target.getLine(7));
+		assertEquals(9, target.size());
+	}
+
+	@Test
+	public void testReadAppends() {
+		target.readBuffer("3lines.txt");
+		assertEquals(12, target.size());
+		assertEquals("Line Three", target.getLine(12));
+	}
+
+	@Test
+	public void testSummaryCountsLineChars() throws Exception {
+		File file = File.createTempFile("edj", ".txt");
+		PrintStream out = System.out;
+		ByteArrayOutputStream said = new ByteArrayOutputStream();
+		try {
+			Files.write(file.toPath(), "ab\r\nc\n\nlast".getBytes());
+			System.setOut(new PrintStream(said, true));
+			new BufferPrimsPieceTable().readBuffer(file.getPath());
+		} finally {
+			System.setOut(out);
+			file.delete();
+		}
+		assertEquals("4L, 7C", said.toString().trim());
+	}
+}
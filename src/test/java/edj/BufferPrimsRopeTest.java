@@ -0,0 +1,72 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Only test code specific to the rope version of BufferPrims */
+public class BufferPrimsRopeTest {
+
+	BufferPrimsRope target;
+
+	@Before
+	public void setUp() throws Exception {
+		target = new BufferPrimsRope();
+		target.addLines(Arrays.asList("abc", "def", "ghi", "klm"));
+	}
+
+	@Test
+	public void testFindLineOffset() {
+		assertEquals("find line", 0, target.findLineOffset(1));
+		assertEquals("find line", 4, target.findLineOffset(2));
+		assertEquals("find line", 8, target.findLineOffset(3));
+		assertEquals("find line", 12, target.findLineOffset(4));
+		assertEquals("find line at end", 16, target.findLineOffset(5));
+		assertEquals("find line off end", -1, target.findLineOffset(999));
+	}
+
+	@Test
+	public void testManyChunks() {
+		target.clearBuffer();
+		for (int i = 1; i <= 5000; i++) {
+			target.addLine("Line " + i);
+		}
+		assertEquals(5000, target.size());
+		assertEquals("Line 4321", target.getLine(4321));
+		target.deleteLines(2, 4999);
+		assertEquals("Line 1\nLine 5000\n", target.toString());
+	}
+
+	@Test
+	public void testAddLinesInside() {
+		target.addLines(2, Arrays.asList("middle"));
+		assertEquals("abc\ndef\nmiddle\nghi\nklm\n", target.toString());
+		assertEquals(3, target.getCurrentLineNumber());
+	}
+
+	@Test
+	public void testMoveAndCopyAcrossChunks() {
+		target.clearBuffer();
+		List<String> expected = new ArrayList<>();
+		for (int i = 1; i <= 5000; i++) {
+			target.addLine("Line " + i);
+			expected.add("Line " + i);
+		}
+		target.moveLines(100, 3000, 4000);
+		List<String> block = new ArrayList<>(expected.subList(99, 3000));
+		expected.subList(99, 3000).clear();
+		expected.addAll(4000 - block.size(), block);
+		assertEquals(4000, target.getCurrentLineNumber());
+		target.copyLines(10, 2000, 0);
+		expected.addAll(0, new ArrayList<>(expected.subList(9, 2000)));
+		assertEquals(expected, target.getLines(1, target.size()));
+		target.replaceLines(1, 1991, Arrays.asList("first"));
+		assertEquals(expected.subList(1991, expected.size()), target.getLines(2, target.size()));
+		assertEquals("first", target.getLine(1));
+	}
+}
@@ -0,0 +1,86 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Only test code specific to the slab version of BufferPrims */
+public class BufferPrimsSlabTest {
+
+	BufferPrimsSlab target;
+
+	@Before
+	public void setUp() throws Exception {
+		target = new BufferPrimsSlab();
+	}
+
+	@Test
+	public void testReadSameAsNoUndo() {
+		BufferPrims expected = new BufferPrimsNoUndo();
+		expected.readBuffer("lorem.txt");
+		target.readBuffer("lorem.txt");
+		assertEquals(expected.size(), target.size());
+		assertEquals(expected.getLines(1, expected.size()), target.getLines(1, target.size()));
+	}
+
+	@Test
+	public void testNonAsciiAndLongLines() {
+		char[] big = new char[LineSlabStore.SLAB_SIZE];
+		Arrays.fill(big, 'x');
+		target.addLines(Arrays.asList("café naïve", new String(big), "日本"));
+		assertEquals("café naïve", target.getLine(1));
+		assertEquals(big.length, target.getLine(2).length());
+		assertEquals("日本", target.getLine(3));
+	}
+
+	@Test
+	public void testGarbageIsCompacted() {
+		for (int i = 0; i < 100_000; i++) {
+			target.addLine("Line number " + i);
+		}
+		long full = target.heapBytes();
+		target.deleteLines(1, 99_990);
+		target.replace("Line", "Row", false, 1, target.size());
+		assertEquals(10, target.size());
+		assertEquals("Row number 99999", target.getLine(10));
+		assertTrue("compacted", target.heapBytes() < full);
+	}
+
+	@Test
+	public void testSummaryCountsChars() throws Exception {
+		List<String> lines = Arrays.asList("café naïve", "日本", "\uD83D\uDE00 smile");
+		for (String line : lines) {
+			byte[] utf8 = line.getBytes(StandardCharsets.UTF_8);
+			assertEquals(line, line.length(), BufferUtils.charCount(utf8, 0, utf8.length));
+		}
+		File file = File.createTempFile("edj", ".txt");
+		try {
+			Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+			List<String> said = new ArrayList<>();
+			new BufferPrimsNoUndo() {
+				@Override
+				public void println(String s) {
+					said.add(s);
+				}
+			}.readBuffer(file.getPath());
+			new BufferPrimsSlab() {
+				@Override
+				public void println(String s) {
+					said.add(s);
+				}
+			}.readBuffer(file.getPath());
+			assertEquals("same as decoding the lines", said.get(0), said.get(1));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -79,4 +79,29 @@ public class BufferPrimsStringBufferTest {
 		target.deleteLines(2, 3);
 		assertEquals(2, target.size());
 	}
+
+	@Test
+	public void testReplaceInRange() {
+		target.setBuffer(FOUR_LINES);
+		target.replace("[a-z]", "X", true, 2, 3);
+		assertEquals("abc\nXXX\nXXX\nklm\n", target.toString());
+		assertEquals(12, target.findLineOffset(4));
+		target.replace("^k", "", false, 4, 4);
+		assertEquals("lm", target.getLine(4));
+	}
+
+	@Test
+	public void testIndexFollowsEdits() {
+		target.setBuffer(FOUR_LINES);
+		target.addLines(3, Arrays.asList("new1", "new2"));
+		target.deleteLines(1, 1);
+		assertEquals(5, target.size());
+		assertEquals(Arrays.asList("def", "new1", "new2", "ghi", "klm"), target.getLines(1, 5));
+		for (int i = 0; i < 2000; i++) {
+			target.addLine("line " + i);
+		}
+		target.deleteLines(100, 1500);
+		assertEquals(604, target.size());
+		assertEquals("line 1495", target.getLine(100));
+	}
 }
@@ -2,8 +2,15 @@ package edj;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import javax.swing.JTextArea;
 
@@ -35,6 +42,12 @@ public class BufferPrimsTest {
 			BufferPrimsNoUndo.class, 
 			BufferPrimsWithUndo.class,
 			BufferPrimsJText.class,
+			BufferPrimsPieceTable.class,
+			BufferPrimsRope.class,
+			BufferPrimsMapped.class,
+			BufferPrimsSlab.class,
+			BufferPrimsPaged.class,
+			BufferPrimsPersistent.class,
 			};
 	}
 
@@ -79,19 +92,25 @@ public class BufferPrimsTest {
 			return;
 		}
 		target.addLines(THREE_LINES);
-		((BufferPrimsWithUndo) target).printTOS();
+		printTOS();
 		assertEquals(3, target.size());
 		target.deleteLines(1, 1);
-		((BufferPrimsWithUndo) target).printTOS();
+		printTOS();
 		assertEquals(2, target.size());
 		target.undo();	// undo delete
-		((BufferPrimsWithUndo) target).printTOS();
+		printTOS();
 		assertEquals(3, target.size());
 		target.undo();	// undo addLines
-		((BufferPrimsWithUndo) target).printTOS();
+		printTOS();
 		assertEquals(0, target.size());
 	}
 	
+	private void printTOS() {
+		if (target instanceof BufferPrimsWithUndo) {
+			((BufferPrimsWithUndo) target).printTOS();
+		}
+	}
+
 	@Test
 	public void getGetOneLine() {
 		target.addLines(THREE_LINES);
@@ -145,4 +164,125 @@ public class BufferPrimsTest {
 			assertEquals("Type " + i, target.getLine(i));
 		}
 	}
+
+	private void addNumberedLines(int n) {
+		for (int i = 1; i <= n; i++)
+			target.addLine("Line " + i);
+	}
+
+	@Test
+	public void testReplaceLines() {
+		addNumberedLines(5);
+		target.replaceLines(2, 4, Arrays.asList("New A", "New B"));
+		assertEquals(Arrays.asList("Line 1", "New A", "New B", "Line 5"), target.getLines(1, target.size()));
+		assertEquals(3, target.getCurrentLineNumber());
+		if (!target.isUndoSupported()) {
+			return;
+		}
+		target.undo();
+		assertEquals("Line 4", target.getLine(4));
+		assertEquals(5, target.size());
+	}
+
+	@Test
+	public void testMoveLinesDown() {
+		addNumberedLines(6);
+		target.moveLines(1, 2, 4);
+		assertEquals(Arrays.asList("Line 3", "Line 4", "Line 1", "Line 2", "Line 5", "Line 6"),
+			target.getLines(1, target.size()));
+		assertEquals(4, target.getCurrentLineNumber());
+		if (!target.isUndoSupported()) {
+			return;
+		}
+		target.undo();
+		assertEquals("Line 1", target.getLine(1));
+		assertEquals("Line 4", target.getLine(4));
+	}
+
+	@Test
+	public void testMoveLinesUp() {
+		addNumberedLines(6);
+		target.moveLines(4, 5, 0);
+		assertEquals(Arrays.asList("Line 4", "Line 5", "Line 1", "Line 2", "Line 3", "Line 6"),
+			target.getLines(1, target.size()));
+		assertEquals(2, target.getCurrentLineNumber());
+		if (!target.isUndoSupported()) {
+			return;
+		}
+		target.undo();
+		for (int i = 1; i <= 6; i++) {
+			assertEquals("Line " + i, target.getLine(i));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMoveLinesIntoItself() {
+		addNumberedLines(6);
+		target.moveLines(2, 4, 3);
+	}
+
+	@Test
+	public void testCopyLines() {
+		addNumberedLines(3);
+		target.copyLines(1, 2, 3);
+		assertEquals(Arrays.asList("Line 1", "Line 2", "Line 3", "Line 1", "Line 2"),
+			target.getLines(1, target.size()));
+		assertEquals(5, target.getCurrentLineNumber());
+		if (!target.isUndoSupported()) {
+			return;
+		}
+		target.undo();
+		assertEquals(3, target.size());
+	}
+
+	@Test
+	public void testForEachLine() {
+		addNumberedLines(5);
+		List<String> seen = new ArrayList<>();
+		target.forEachLine(2, 4, line -> seen.add(line.toString()));
+		assertEquals(Arrays.asList("Line 2", "Line 3", "Line 4"), seen);
+		seen.clear();
+		target.forEachLine(4, BufferPrims.INF, line -> seen.add(line.toString()));
+		assertEquals(Arrays.asList("Line 4", "Line 5"), seen);
+	}
+
+	@Test
+	public void testLinesStream() {
+		addNumberedLines(1000);
+		List<String> expected = target.getLines(10, 990);
+		assertEquals(expected,
+			target.lines(10, 990).map(CharSequence::toString).collect(Collectors.toList()));
+		assertEquals(expected,
+			target.lines(10, 990).parallel().map(CharSequence::toString).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testWriteBuffer() throws Exception {
+		addNumberedLines(100);
+		File f = File.createTempFile("edj", ".txt");
+		try {
+			target.writeBuffer(f.getPath());
+			assertEquals(target.getLines(1, target.size()), Files.readAllLines(f.toPath()));
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testGzipRoundTrip() throws Exception {
+		addNumberedLines(100);
+		List<String> expected = target.getLines(1, target.size());
+		File f = File.createTempFile("edj", ".txt.gz");
+		try {
+			target.writeBuffer(f.getPath());
+			try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+				assertEquals(expected.size(), new String(in.readAllBytes()).split("\n").length);
+			}
+			target.clearBuffer();
+			target.readBuffer(f.getPath());
+			assertEquals(expected, target.getLines(1, target.size()));
+		} finally {
+			f.delete();
+		}
+	}
 }
@@ -0,0 +1,97 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferReloaderTest {
+
+	File dir, file;
+	List<String> lines = new ArrayList<>();
+	BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("edj").toFile();
+		file = new File(dir, "file.txt");
+		for (int i = 1; i <= 5000; i++) {
+			lines.add("Line " + i);
+		}
+		Files.write(file.toPath(), lines);
+		buffer.readBuffer(file.getPath());
+		buffer.popUndo();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private void assertBufferIsFile() throws Exception {
+		assertEquals(Files.readAllLines(file.toPath()), buffer.getLines(1, buffer.size()));
+	}
+
+	@Test
+	public void testAppend() throws Exception {
+		Files.write(file.toPath(), Arrays.asList("new 1", "new 2"), StandardOpenOption.APPEND);
+		assertEquals(2, BufferReloader.reload(buffer, file.getPath()));
+		assertBufferIsFile();
+		assertFalse(buffer.isModified());
+	}
+
+	@Test
+	public void testChangeInMiddleIsOneUndoableChange() throws Exception {
+		List<String> changed = new ArrayList<>(lines);
+		changed.set(2500, "changed");
+		changed.add(3000, "inserted");
+		Files.write(file.toPath(), changed);
+		// One region, from the first change to the last: 500 lines out, 501 in
+		assertEquals(1001, BufferReloader.reload(buffer, file.getPath()));
+		assertBufferIsFile();
+		buffer.undo();
+		assertEquals(lines, buffer.getLines(1, buffer.size()));
+	}
+
+	@Test
+	public void testDeleteAndUnchanged() throws Exception {
+		List<String> shorter = new ArrayList<>(lines.subList(0, 1000));
+		shorter.addAll(lines.subList(2000, lines.size()));
+		Files.write(file.toPath(), shorter);
+		assertEquals(1000, BufferReloader.reload(buffer, file.getPath()));
+		assertBufferIsFile();
+		assertEquals(0, BufferReloader.reload(buffer, file.getPath()));
+	}
+
+	@Test
+	public void testWatcherSeesOthersChangesNotOurs() throws Exception {
+		try (FileWatcher watcher = new FileWatcher()) {
+			watcher.watch(file.getPath());
+			buffer.writeBuffer(file.getPath());
+			watcher.noteCurrent();
+			assertFalse(watcher.hasChanged());
+			Thread.sleep(20);		// so the time differs even on coarse clocks
+			Files.write(file.toPath(), Arrays.asList("theirs"), StandardOpenOption.APPEND);
+			boolean changed = false;
+			for (int i = 0; i < 200 && !changed; i++) {
+				Thread.sleep(50);
+				changed = watcher.hasChanged();
+			}
+			assertTrue(changed);
+			assertFalse(watcher.hasChanged());
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.swing.JTextArea;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferWriterTest {
+
+	File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("edj").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testLongAndManyLinesRoundTrip() throws Exception {
+		char[] big = new char[BufferWriter.CHAR_BATCH * 3 + 7];
+		Arrays.fill(big, 'x');
+		BufferPrims buffer = new BufferPrimsNoUndo();
+		buffer.addLine(new String(big));
+		for (int i = 0; i < 200_000; i++) {
+			buffer.addLine("Line number " + i);
+		}
+		File f = new File(dir, "out.txt");
+		buffer.writeBuffer(f.getPath());
+		assertEquals(buffer.getLines(1, buffer.size()), Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+	}
+
+	@Test
+	public void testReplacesFileAndLeavesNoTemp() throws Exception {
+		File f = new File(dir, "out.txt");
+		Files.write(f.toPath(), Arrays.asList("old", "contents", "here"));
+		BufferPrims buffer = new BufferPrimsWithUndo();
+		buffer.addLines(Arrays.asList("new"));
+		buffer.writeBuffer(f.getPath());
+		assertEquals(Arrays.asList("new"), Files.readAllLines(f.toPath()));
+		assertEquals(1, dir.listFiles().length);
+	}
+
+	@Test
+	public void testFailedWriteKeepsOldFile() throws Exception {
+		File f = new File(dir, "out.txt");
+		Files.write(f.toPath(), Arrays.asList("old"));
+		BufferPrims buffer = new BufferPrimsNoUndo() {
+			@Override
+			public void forEachLine(int start, int end, Consumer<? super CharSequence> action) {
+				action.accept("half");
+				throw new IllegalStateException("boom");
+			}
+		};
+		buffer.addLine("doomed");
+		try {
+			buffer.writeBuffer(f.getPath());
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList("old"), Files.readAllLines(f.toPath()));
+		assertEquals(1, dir.listFiles().length);
+		assertFalse(new File(dir, "out.txt.tmp").exists());
+	}
+
+	/** A file of this many lines, in the buffer and on disk */
+	private File bigFile(BufferPrims buffer, int n) throws Exception {
+		List<String> lines = new ArrayList<>();
+		for (int i = 1; i <= n; i++) {
+			lines.add("Line number " + i);
+		}
+		File f = new File(dir, "big.txt");
+		Files.write(f.toPath(), lines, Charset.defaultCharset());
+		buffer.readBuffer(f.getPath());
+		return f;
+	}
+
+	@Test
+	public void testIncrementalSaveOfChangedLine() throws Exception {
+		BufferPrimsNoUndo buffer = new BufferPrimsNoUndo();
+		File f = bigFile(buffer, 10_000);
+		assertFalse(buffer.isModified());
+		assertTrue(buffer.getSavedDigest().getBlocks().get(0).isCopyable());
+		buffer.replace("Line number", "Changed line", false, 5_000, 5_000);
+		assertTrue(buffer.isModified());
+		buffer.writeBuffer(f.getPath());
+		assertEquals(buffer.getLines(1, buffer.size()), Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+		assertFalse(buffer.isModified());
+		assertEquals(1, dir.listFiles().length);
+
+		// Saving again copies from the file just written
+		buffer.addLines(7_000, Arrays.asList("inserted", "lines"));
+		buffer.deleteLines(10, 12);
+		buffer.writeBuffer(f.getPath());
+		assertEquals(buffer.getLines(1, buffer.size()), Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+	}
+
+	@Test
+	public void testUndoneEditIsNotModified() throws Exception {
+		BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+		bigFile(buffer, 3_000);
+		buffer.replace("number", "NUMBER", false, 100, 200);
+		assertTrue(buffer.isModified());
+		buffer.undo();
+		assertFalse(buffer.isModified());
+	}
+
+	@Test
+	public void testUnchangedSaveLeavesFileAlone() throws Exception {
+		BufferPrimsNoUndo buffer = new BufferPrimsNoUndo();
+		File f = bigFile(buffer, 3_000);
+		Object key = Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+		buffer.writeBuffer(f.getPath());
+		assertEquals(key, Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey());
+	}
+
+	@Test
+	public void testCrLfAndNoFinalNewlineAreRewritten() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= 2_500; i++) {
+			sb.append("Line ").append(i).append(i == 1_500 ? "\r\n" : "\n");
+		}
+		sb.append("no newline");
+		File f = new File(dir, "odd.txt");
+		Files.write(f.toPath(), sb.toString().getBytes(Charset.defaultCharset()));
+		BufferPrimsNoUndo buffer = new BufferPrimsNoUndo();
+		buffer.readBuffer(f.getPath());
+		List<LineBlockDigest.Block> blocks = buffer.getSavedDigest().getBlocks();
+		assertTrue(blocks.get(0).isCopyable());
+		assertFalse(blocks.get(1).isCopyable());
+		assertFalse(blocks.get(2).isCopyable());
+		buffer.replace("Line", "Changed", false, 10, 10);
+		buffer.writeBuffer(f.getPath());
+		assertEquals(buffer.getLines(1, buffer.size()), Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+	}
+
+	@Test
+	public void testFileRewrittenInPlaceIsNotCopied() throws Exception {
+		BufferPrimsNoUndo buffer = new BufferPrimsNoUndo();
+		File f = bigFile(buffer, 5_000);
+		// Someone else overwrites it in place, same size, different bytes
+		byte[] bytes = Files.readAllBytes(f.toPath());
+		Arrays.fill(bytes, 0, 4, (byte) 'X');
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+			ch.write(ByteBuffer.wrap(bytes), 0);
+		}
+		Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+		assertFalse(buffer.getSavedDigest().canCopyTo(Charset.defaultCharset()));
+
+		buffer.replace("Line number", "Changed line", false, 4_000, 4_000);
+		buffer.writeBuffer(f.getPath());
+		assertEquals(buffer.getLines(1, buffer.size()), Files.readAllLines(f.toPath(), Charset.defaultCharset()));
+	}
+
+	@Test
+	public void testTrackedChangesCompareOnlyTouchedBlocks() throws Exception {
+		BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+		bigFile(buffer, 5_000);
+		LineBlockDigest digest = buffer.getSavedDigest();
+		digest.trackChanges();
+		assertTrue(digest.matches(buffer));
+
+		// Changed behind the digest's back: not seen, as no change was reported
+		buffer.replace("number", "NUMBER", false, 10, 10);
+		assertTrue(digest.matches(buffer));
+		buffer.undo();
+
+		// A line deleted and another added further on: the lines between have moved
+		buffer.deleteLines(100, 100);
+		digest.changed(99, 1, 0);
+		buffer.addLines(3_000, Arrays.asList("new"));
+		digest.changed(3_000, 0, 1);
+		assertEquals(5_000, buffer.size());
+		assertFalse(digest.matches(buffer));
+	}
+
+	@Test
+	public void testJTextReportsItsChanges() throws Exception {
+		BufferPrimsJText buffer = new BufferPrimsJText(new JTextArea());
+		File f = bigFile(buffer, 3_000);
+		assertFalse(buffer.isModified());
+		String line = buffer.getLine(2_500);
+		buffer.replaceLines(2_500, 2_500, Arrays.asList("changed"));
+		assertTrue(buffer.isModified());
+		buffer.replaceLines(2_500, 2_500, Arrays.asList(line));
+		assertFalse(buffer.isModified());
+		buffer.deleteLines(10, 10);
+		buffer.addLines(1_000, Arrays.asList("moved down"));
+		assertTrue(buffer.isModified());
+		buffer.readBuffer(f.getPath());
+		assertFalse(buffer.isModified());
+	}
+}
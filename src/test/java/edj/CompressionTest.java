@@ -0,0 +1,78 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressionTest {
+
+	File file;
+	List<String> expected = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("edj", ".log");	// not named .gz: found by its magic number
+		for (int i = 0; i < 100_000; i++) {
+			expected.add("Log line " + i + (i % 7 == 0 ? " ERROR" : " ok"));
+		}
+		try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+			os.write((String.join("\n", expected) + "\n").getBytes());
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testReadGzip() throws Exception {
+		assertTrue(Compression.isGzip(file.toPath()));
+		assertEquals(expected, ParallelLineLoader.load(file.getPath(), UnaryOperator.identity()));
+	}
+
+	@Test
+	public void testReadStopsEarly() throws Exception {
+		try (LineReader rdr = new LineReader(file.getPath())) {
+			assertEquals(expected.get(0), rdr.readLine());
+		}	// the inflater must not be left blocked
+	}
+
+	@Test
+	public void testReplacingGzipKeepsItGzipped() throws Exception {
+		BufferPrims buffer = new BufferPrimsNoUndo();
+		buffer.readBuffer(file.getPath());
+		buffer.deleteLines(1, 10);
+		buffer.writeBuffer(file.getPath());
+		assertTrue(Compression.isGzip(file.toPath()));
+		assertEquals(expected.subList(10, expected.size()),
+			ParallelLineLoader.load(file.getPath(), UnaryOperator.identity()));
+	}
+
+	@Test(expected=BufferException.class)
+	public void testCorruptGzip() throws Exception {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+		new BufferPrimsNoUndo().readBuffer(file.getPath());
+	}
+
+	@Test
+	public void testPlainFileIsNotGzip() throws Exception {
+		Files.write(file.toPath(), expected);
+		assertFalse(Compression.isGzip(file.toPath()));
+		assertFalse(Compression.wantsGzip(file.toPath()));
+	}
+}
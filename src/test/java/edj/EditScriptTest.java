@@ -0,0 +1,67 @@
+package edj;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EditScriptTest {
+
+	@Test
+	public void testKeepsOnlyWhatDiffers() {
+		EditScript script = new EditScript();
+		script.add(7, "the quick brown fox", "the slow brown fox");
+		script.add(9, "abc", "abcdef");
+		script.add(12, "hello", "");
+		assertArrayEquals(new int[] { 7, 4, 5, 4, 9, 3, 0, 3, 12, 0, 5, 0 }, script.edits());
+		assertEquals("quickhello", script.oldText());
+		assertEquals("the quick brown fox", EditScript.undo("the slow brown fox", 4, 4, "quickhello", 0, 5));
+		assertEquals("hello", EditScript.undo("", 0, 0, "quickhello", 5, 5));
+	}
+
+	@Test
+	public void testRepeatedChars() {
+		EditScript script = new EditScript();
+		script.add(1, "aaaa", "aa");
+		int[] e = script.edits();
+		assertEquals("aaaa", EditScript.undo("aa", e[1], e[3], script.oldText(), 0, e[2]));
+	}
+
+	@Test
+	public void testSubstituteUndoKeepsOnlyChangedLines() {
+		BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+		List<String> lines = new ArrayList<>();
+		for (int i = 1; i <= 10_000; i++) {
+			lines.add((i % 100 == 0 ? "needle " : "hay ") + i + " " + "x".repeat(80));
+		}
+		buffer.addLines(0, lines);
+		buffer.popUndo();
+		long before = buffer.undoables.heapBytes();
+		buffer.replace("needle", "pin", true, 1, buffer.size());
+		assertEquals("pin 100 " + "x".repeat(80), buffer.getLine(100));
+		long cost = buffer.undoables.heapBytes() - before;
+		assertTrue("undo cost " + cost, cost < 4096);
+		buffer.undo();
+		assertEquals(lines, buffer.getLines(1, buffer.size()));
+	}
+
+	@Test
+	public void testUndoReplaceKeepsEarlierUndo() {
+		BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+		buffer.addLine("one");
+		buffer.addLine("two two");
+		buffer.replace("two", "2", true);
+		buffer.replace("o", "0", false, 1, 2);
+		assertEquals("0ne", buffer.getLine(1));
+		assertEquals("2 2", buffer.getLine(2));
+		buffer.undo();
+		assertEquals("one", buffer.getLine(1));
+		buffer.undo();
+		assertEquals("two two", buffer.getLine(2));
+		assertEquals(2, buffer.undoables.size());
+	}
+}
@@ -0,0 +1,107 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileFollowerTest {
+
+	File dir, file;
+	List<String> lines = new ArrayList<>();
+	int restarts;
+	FileFollower target;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("edj").toFile();
+		file = new File(dir, "log.txt");
+		write("one\ntwo\r\nthree\n", false);
+		target = new FileFollower(file.getPath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		target.close();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private void write(String s, boolean append) throws IOException {
+		Files.write(file.toPath(), s.getBytes(Charset.defaultCharset()),
+			append ? new StandardOpenOption[] { StandardOpenOption.APPEND } : new StandardOpenOption[0]);
+	}
+
+	private int poll() throws IOException {
+		return target.poll(lines::add, () -> restarts++);
+	}
+
+	@Test
+	public void testOnlyNewCompleteLines() throws Exception {
+		assertEquals(3, poll());
+		assertEquals(Arrays.asList("one", "two", "three"), lines);
+		assertEquals(0, poll());
+		write("four\nfi", true);
+		assertEquals(1, poll());
+		assertEquals(0, poll());		// "fi" is not yet a line
+		write("ve\n", true);
+		assertEquals(1, poll());
+		assertEquals(Arrays.asList("one", "two", "three", "four", "five"), lines);
+		assertEquals(0, restarts);
+	}
+
+	@Test
+	public void testTruncationRestarts() throws Exception {
+		poll();
+		write("new\n", false);
+		lines.clear();
+		assertEquals(1, poll());
+		assertEquals(1, restarts);
+		assertEquals(Arrays.asList("new"), lines);
+	}
+
+	@Test
+	public void testRotationRestartsAfterOldLines() throws Exception {
+		poll();
+		write("last of old\n", true);
+		File rotated = new File(dir, "new.txt");
+		Files.write(rotated.toPath(), Arrays.asList("first of new", "and more"));
+		Files.move(rotated.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		lines.clear();
+		assertEquals(3, poll());
+		assertEquals(1, restarts);
+		assertEquals(Arrays.asList("last of old", "first of new", "and more"), lines);
+	}
+
+	@Test
+	public void testLongLine() throws Exception {
+		poll();
+		char[] big = new char[FileFollower.BLOCK * 3];
+		Arrays.fill(big, 'x');
+		write(new String(big) + "\nshort\n", true);
+		lines.clear();
+		assertEquals(2, poll());
+		assertEquals(big.length, lines.get(0).length());
+		assertEquals("short", lines.get(1));
+	}
+
+	@Test(expected=IOException.class)
+	public void testGzipCantBeFollowed() throws Exception {
+		File gz = new File(dir, "log.gz");
+		Files.write(gz.toPath(), new byte[] { 0x1f, (byte) 0x8b, 8, 0 });
+		new FileFollower(gz.getPath()).close();
+	}
+}
@@ -0,0 +1,59 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineInternerTest {
+
+	LineInterner interner;
+
+	@Before
+	public void setUp() throws Exception {
+		interner = new LineInterner(1024);
+	}
+
+	@Test
+	public void testSharesEqualLines() {
+		String a = new String("log: connection reset");
+		String b = new String("log: connection reset");
+		assertSame(a, interner.intern(a));
+		assertSame(a, interner.intern(b));
+		assertEquals(2, interner.getLookups());
+		assertEquals(1, interner.getHits());
+		assertEquals(0.5, interner.getDedupRatio(), 0.0001);
+	}
+
+	@Test
+	public void testBufferAndUndoShareLines() {
+		BufferPrimsWithUndo target = new BufferPrimsWithUndo();
+		target.setInterner(interner);
+		target.readBuffer("lorem.txt");
+		String line = target.getLine(2);
+		target.deleteLines(1, 3);
+		target.undo();
+		boolean found = false;
+		for (String s : target.getLines(1, target.size())) {
+			found |= s == line;
+		}
+		assertTrue("undo restored the pooled instance", found);
+		assertTrue(interner.getHits() > 0);
+	}
+
+	@Test
+	public void testOnlyReadAndInsertLookUp() {
+		BufferPrimsWithUndo target = new BufferPrimsWithUndo();
+		target.setInterner(interner);
+		target.readBuffer("lorem.txt");
+		long lookups = interner.getLookups();
+		target.deleteLines(1, 3);
+		target.replaceLines(1, 2, Arrays.asList("one", "two"));
+		assertEquals("only the two lines inserted", lookups + 2, interner.getLookups());
+		assertSame(interner.intern("one"), target.getLine(1));
+	}
+}
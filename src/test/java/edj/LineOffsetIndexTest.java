@@ -0,0 +1,112 @@
+package edj;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineOffsetIndexTest {
+
+	File dir, file;
+	List<String> lines = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		LineOffsetIndex.setEnabled(true);
+		LineOffsetIndex.setMinFileSize(0);
+		dir = Files.createTempDirectory("edj").toFile();
+		file = new File(dir, "big.txt");
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10_000; i++) {
+			String line = "Line " + i + " " + "x".repeat(i % 300);
+			lines.add(line);
+			sb.append(line).append('\n');
+		}
+		Files.write(file.toPath(), sb.toString().getBytes());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		LineOffsetIndex.setEnabled(false);
+		LineOffsetIndex.setMinFileSize(LineOffsetIndex.DEFAULT_MIN_FILE_SIZE);
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private LineOffsetIndex load() throws Exception {
+		try (FileChannel ch = FileChannel.open(file.toPath())) {
+			return LineOffsetIndex.load(file.toPath(), ch);
+		}
+	}
+
+	private void checkBuffer(BufferPrims buffer) {
+		buffer.readBuffer(file.getPath());
+		assertEquals(lines.size(), buffer.size());
+		assertEquals(lines.get(0), buffer.getLine(1));
+		assertEquals(lines.get(4097), buffer.getLine(4098));
+		assertEquals(lines, buffer.getLines(1, buffer.size()));
+	}
+
+	@Test
+	public void testScanSavesIndexAndReopenUsesIt() throws Exception {
+		assertNull(load());
+		checkBuffer(new BufferPrimsMapped());
+		Path sidecar = LineOffsetIndex.pathFor(file.toPath());
+		assertTrue(Files.exists(sidecar));
+		assertTrue(Files.size(sidecar) < Files.size(file.toPath()) / 100);
+		LineOffsetIndex index = load();
+		assertNotNull(index);
+		assertEquals(lines.size(), index.lines);
+		assertEquals(0, index.starts[0]);
+		assertEquals(lines.subList(0, LineOffsetIndex.STRIDE).stream().mapToInt(s -> s.length() + 1).sum(),
+			index.starts[1]);
+		checkBuffer(new BufferPrimsMapped());
+		checkBuffer(new BufferPrimsPaged());
+	}
+
+	@Test
+	public void testChangedFileIsRescanned() throws Exception {
+		checkBuffer(new BufferPrimsPaged());
+		long[] before = load().starts;
+		Thread.sleep(20);
+		Files.write(file.toPath(), Arrays.asList("appended"), StandardOpenOption.APPEND);
+		lines.add("appended");
+		assertNull(load());
+		checkBuffer(new BufferPrimsMapped());
+		assertArrayEquals(before, Arrays.copyOf(load().starts, before.length));
+	}
+
+	@Test
+	public void testDamagedIndexIsIgnored() throws Exception {
+		checkBuffer(new BufferPrimsMapped());
+		Path sidecar = LineOffsetIndex.pathFor(file.toPath());
+		byte[] b = Files.readAllBytes(sidecar);
+		b[b.length / 2] ^= 0x55;
+		Files.write(sidecar, b);
+		assertNull(load());
+		checkBuffer(new BufferPrimsPaged());
+	}
+
+	@Test
+	public void testDisabledMakesNoIndex() throws Exception {
+		LineOffsetIndex.setEnabled(false);
+		checkBuffer(new BufferPrimsMapped());
+		assertTrue(!Files.exists(LineOffsetIndex.pathFor(file.toPath())));
+	}
+}
@@ -0,0 +1,82 @@
+package edj;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Not a unit test: compares NewlineScanner and LineReader with the
+ * per-byte, per-charAt and BufferedReader scanning they replaced.
+ * Run with e.g. java -cp target/classes:target/test-classes edj.NewlineScannerBenchmark [MB]
+ */
+public class NewlineScannerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int mb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		StringBuilder sb = new StringBuilder(mb << 20);
+		for (int i = 0; sb.length() < mb << 20; i++) {
+			sb.append("The quick brown fox, line ").append(i);
+			for (int j = i % 61; j > 0; j--) {
+				sb.append(' ');
+			}
+			sb.append('\n');
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.US_ASCII);
+		StringBuffer chars = new StringBuffer(sb);
+
+		for (int round = 0; round < 3; round++) {
+			System.out.println("Round " + round + ", " + mb + "MB");
+			time("count bytes, per byte", () -> {
+				long n = 0;
+				for (byte b : bytes) {
+					if (b == '\n') {
+						++n;
+					}
+				}
+				return n;
+			});
+			time("count bytes, SWAR", () -> NewlineScanner.count(bytes, 0, bytes.length));
+			time("count StringBuffer, charAt", () -> {
+				long n = 0;
+				for (int i = 0; i < chars.length(); i++) {
+					if (chars.charAt(i) == '\n') {
+						++n;
+					}
+				}
+				return n;
+			});
+			time("count StringBuffer, blocks", () -> NewlineScanner.count(chars));
+			time("read lines, BufferedReader", () -> {
+				long n = 0;
+				try (BufferedReader rdr = new BufferedReader(new InputStreamReader(
+						new ByteArrayInputStream(bytes), StandardCharsets.US_ASCII))) {
+					while (rdr.readLine() != null) {
+						++n;
+					}
+				}
+				return n;
+			});
+			time("read lines, LineReader", () -> {
+				long n = 0;
+				try (LineReader rdr = new LineReader(new ByteArrayInputStream(bytes), StandardCharsets.US_ASCII)) {
+					while (rdr.readLine() != null) {
+						++n;
+					}
+				}
+				return n;
+			});
+		}
+	}
+
+	interface Job {
+		long run() throws Exception;
+	}
+
+	static void time(String name, Job job) throws Exception {
+		long start = System.nanoTime();
+		long n = job.run();
+		long ms = (System.nanoTime() - start) / 1_000_000;
+		System.out.println(String.format("  %-30s %6d ms (%d newlines)", name, ms, n));
+	}
+}
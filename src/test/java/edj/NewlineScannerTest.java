@@ -0,0 +1,113 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NewlineScannerTest {
+
+	/** Mostly not newlines, with bytes either side of '\n' and with the top bit set */
+	byte[] randomBytes(int n) {
+		Random r = new Random(42);
+		byte[] bytes = new byte[n];
+		byte[] choices = { 'a', '\n', '\n' - 1, '\n' + 1, (byte) 0x8A, 0, (byte) 0xFF };
+		for (int i = 0; i < n; i++) {
+			bytes[i] = choices[r.nextInt(choices.length * 3) % choices.length];
+		}
+		return bytes;
+	}
+
+	int naiveIndexOf(byte[] bytes, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void testBytesAtEveryAlignment() {
+		byte[] bytes = randomBytes(300);
+		for (int from = 0; from < 40; from++) {
+			for (int to = from; to <= bytes.length; to += 7) {
+				assertEquals(naiveIndexOf(bytes, from, to), NewlineScanner.indexOf(bytes, from, to));
+				int n = 0;
+				for (int i = from; i < to; i++) {
+					if (bytes[i] == '\n') {
+						++n;
+					}
+				}
+				assertEquals(n, NewlineScanner.count(bytes, from, to));
+			}
+		}
+	}
+
+	@Test
+	public void testOnlyNewlineMatches() {
+		for (int b = 0; b < 256; b++) {
+			byte[] bytes = new byte[16];
+			Arrays.fill(bytes, (byte) b);
+			assertEquals(b == '\n' ? 16 : 0, NewlineScanner.count(bytes, 0, 16));
+		}
+	}
+
+	@Test
+	public void testByteBufferEitherOrder() {
+		byte[] bytes = randomBytes(200);
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			ByteBuffer buf = ByteBuffer.wrap(bytes).order(order);
+			for (int from = 0; from < 20; from++) {
+				assertEquals(naiveIndexOf(bytes, from, 200), NewlineScanner.indexOf(buf, from, 200));
+			}
+		}
+	}
+
+	@Test
+	public void testChars() {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < 5000; i++) {
+			sb.append(i % 13 == 0 ? '\n' : 'x');
+		}
+		assertEquals(sb.toString().indexOf('\n', 1), NewlineScanner.indexOf(sb, 1, sb.length()));
+		assertEquals(-1, NewlineScanner.indexOf(sb, 1, 13));
+		assertEquals(sb.toString().split("\n", -1).length - 1, NewlineScanner.count(sb));
+		List<Integer> seen = new ArrayList<>();
+		NewlineScanner.forEachNewline("a\n\nb\n", seen::add);
+		assertEquals(Arrays.asList(1, 2, 4), seen);
+	}
+
+	@Test
+	public void testLineReader() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < LineReader.BLOCK / 10; i++) {
+			sb.append("line ").append(i).append(i % 3 == 0 ? "\r\n" : "\n");
+		}
+		for (int i = 0; i < LineReader.BLOCK * 3; i++) {
+			sb.append('y');		// longer than the buffer
+		}
+		sb.append("\n\nlast");
+		String text = sb.toString();
+		List<String> expected = Arrays.asList(text.split("\r?\n", -1));
+		List<String> actual = new ArrayList<>();
+		try (LineReader rdr = new LineReader(
+				new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)), StandardCharsets.US_ASCII)) {
+			String s;
+			while ((s = rdr.readLine()) != null) {
+				actual.add(s);
+			}
+			assertNull(rdr.readLine());
+		}
+		assertEquals(expected, actual);
+	}
+}
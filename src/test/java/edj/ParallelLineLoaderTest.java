@@ -0,0 +1,54 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelLineLoaderTest {
+
+	File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("edj", ".txt");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testManyChunksSameAsReadAllLines() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < ParallelLineLoader.MIN_CHUNK * 3.5; i++) {
+			sb.append("Line ").append(i);
+			for (int j = i % 97; j > 0; j--) {
+				sb.append(' ');
+			}
+			sb.append(i % 5 == 0 ? "\r\n" : "\n");
+			if (i % 1000 == 0) {
+				sb.append('\n');	// an empty line
+			}
+		}
+		sb.append("no newline at end");
+		Files.write(file.toPath(), sb.toString().getBytes());
+		List<String> expected = Files.readAllLines(file.toPath());
+		assertEquals(expected, ParallelLineLoader.load(file.getPath(), UnaryOperator.identity()));
+	}
+
+	@Test
+	public void testEmptyAndTinyFiles() throws Exception {
+		assertEquals(new ArrayList<String>(), ParallelLineLoader.load(file.getPath(), UnaryOperator.identity()));
+		Files.write(file.toPath(), "\n".getBytes());
+		assertEquals(1, ParallelLineLoader.load(file.getPath(), UnaryOperator.identity()).size());
+	}
+}
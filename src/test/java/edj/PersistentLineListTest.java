@@ -0,0 +1,76 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentLineListTest {
+
+	@Test
+	public void testOldVersionsUnchanged() {
+		PersistentLineList v1 = PersistentLineList.of(Arrays.asList("a", "b", "c"));
+		PersistentLineList v2 = v1.insert(1, Arrays.asList("x", "y"));
+		PersistentLineList v3 = v2.remove(0, 2).with(0, "Y");
+		assertEquals(Arrays.asList("a", "b", "c"), v1);
+		assertEquals(Arrays.asList("a", "x", "y", "b", "c"), v2);
+		assertEquals(Arrays.asList("Y", "b", "c"), v3);
+	}
+
+	@Test
+	public void testRandomEditsMatchArrayList() {
+		Random r = new Random(42);
+		List<String> expected = new ArrayList<>();
+		PersistentLineList actual = PersistentLineList.EMPTY;
+		for (int op = 0; op < 2000; op++) {
+			int size = expected.size();
+			int at = r.nextInt(size + 1);
+			switch (r.nextInt(4)) {
+			case 0: case 1:
+				List<String> more = new ArrayList<>();
+				for (int i = r.nextInt(20); i >= 0; i--) {
+					more.add("line " + op + "." + i);
+				}
+				expected.addAll(at, more);
+				actual = actual.insert(at, more);
+				break;
+			case 2:
+				int to = Math.min(size, at + r.nextInt(10));
+				expected.subList(at, to).clear();
+				actual = actual.remove(at, to);
+				break;
+			case 3:
+				if (at < size) {
+					expected.set(at, "changed " + op);
+					actual = actual.with(at, "changed " + op);
+				}
+				break;
+			}
+			assertEquals(expected.size(), actual.size());
+		}
+		assertEquals(expected, actual);
+		List<String> walked = new ArrayList<>();
+		actual.forEach(walked::add);
+		assertEquals(expected, walked);
+	}
+
+	@Test
+	public void testSnapshotUnaffectedByEdits() {
+		BufferPrimsPersistent target = new BufferPrimsPersistent();
+		target.readBuffer("lorem.txt");
+		PersistentLineList snap = target.snapshot();
+		List<String> before = new ArrayList<>(snap);
+		target.replace("e", "E", true, 1, target.size());
+		target.deleteLines(2, 4);
+		assertEquals(before, snap);
+		assertTrue(target.getLine(1).contains("E"));
+		target.undo();
+		target.undo();
+		assertEquals(before, target.getLines(1, target.size()));
+	}
+}
@@ -0,0 +1,116 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionImageTest {
+
+	File dir, image;
+	BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+	List<String> lines = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("edj").toFile();
+		image = new File(dir, "session.img");
+		for (int i = 1; i <= 1000; i++) {
+			lines.add("Line " + i + " été " + "x".repeat(i % 50));
+		}
+		buffer.addLines(0, lines);
+		buffer.popUndo();
+		buffer.goToLine(500);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private BufferPrimsWithUndo saveAndRestore(String fileName) {
+		buffer.saveSession(image.getPath(), fileName);
+		BufferPrimsWithUndo restored = new BufferPrimsWithUndo();
+		assertEquals(fileName, restored.restoreSession(image.getPath()));
+		return restored;
+	}
+
+	@Test
+	public void testRestoresLinesAndCurrent() {
+		BufferPrimsWithUndo restored = saveAndRestore("notes.txt");
+		assertTrue("lines read lazily", restored.buffer instanceof SessionImage.Lines);
+		assertEquals(lines, restored.getLines(1, restored.size()));
+		assertEquals(500, restored.getCurrentLineNumber());
+		assertEquals(lines.get(499), restored.getCurrentLine());
+	}
+
+	@Test
+	public void testRestoresUndoHistory() {
+		buffer.replace("Line", "Row", false, 10, 20);
+		buffer.replaceLines(100, 102, Arrays.asList("one", "two"));
+		buffer.moveLines(1, 5, 900);
+		buffer.copyLines(30, 31, 0);
+		buffer.goToLine(700);
+		buffer.addLine("new");
+		List<String> edited = buffer.getLines(1, buffer.size());
+
+		BufferPrimsWithUndo restored = saveAndRestore(null);
+		assertEquals(edited, restored.getLines(1, restored.size()));
+		assertEquals(5, restored.undoables.size());
+		for (int i = 0; i < 5; i++) {
+			restored.undo();
+		}
+		assertEquals(lines, restored.getLines(1, restored.size()));
+	}
+
+	@Test
+	public void testHistoryStopsAtRunnable() {
+		buffer.replace("Line", "Row", false, 1, 1);
+		buffer.pushUndo("opaque", () -> { });
+		buffer.replace("Line", "Row", false, 2, 2);
+		BufferPrimsWithUndo restored = saveAndRestore(null);
+		assertEquals(1, restored.undoables.size());
+		restored.undo();
+		assertEquals("Row 1", restored.getLine(1).substring(0, 5));
+		assertEquals(lines.get(1), restored.getLine(2));
+	}
+
+	@Test
+	public void testEditAndSaveOverRestoredImage() {
+		BufferPrimsWithUndo restored = saveAndRestore("a.txt");
+		restored.deleteLines(1, 10);
+		restored.addLine("added");
+		buffer = restored;
+		BufferPrimsWithUndo again = saveAndRestore("b.txt");
+		assertEquals(lines.size() - 9, again.size());
+		assertEquals(lines.get(10), again.getLine(1));
+		assertEquals("added", again.getLine(again.size()));
+		assertEquals(restored.getLines(1, restored.size()), again.getLines(1, again.size()));
+	}
+
+	@Test
+	public void testEmptyBuffer() {
+		buffer.clearBuffer();
+		BufferPrimsWithUndo restored = saveAndRestore(null);
+		assertEquals(0, restored.size());
+		assertNull(restored.restoreSession(image.getPath()));
+	}
+
+	@Test(expected=BufferException.class)
+	public void testNotAnImage() throws Exception {
+		Files.write(image.toPath(), "not an image at all, just text\n".getBytes());
+		new BufferPrimsWithUndo().restoreSession(image.getPath());
+	}
+}
@@ -0,0 +1,114 @@
+package edj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UndoHistoryTest {
+
+	static final long BUDGET = 16 * 1024;
+
+	BufferPrimsWithUndo buffer = new BufferPrimsWithUndo();
+	List<String> lines = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		for (int i = 1; i <= 200; i++) {
+			lines.add("Line " + i + " " + "x".repeat(100));
+		}
+		buffer.addLines(0, lines);
+		buffer.popUndo();
+		buffer.setUndoBudget(BUDGET);
+	}
+
+	@After
+	public void tearDown() {
+		buffer.undoables.close();
+	}
+
+	/** Each replaces 20 lines, so holds about 3K of old lines */
+	private void edit(int i) {
+		int start = 1 + (i * 20) % 180;
+		List<String> newLines = new ArrayList<>();
+		for (int k = 0; k < 20; k++) {
+			newLines.add("Edit " + i + " line " + k + " " + "y".repeat(100));
+		}
+		buffer.replaceLines(start, start + 19, newLines);
+	}
+
+	@Test
+	public void testStaysWithinBudget() {
+		for (int i = 0; i < 50; i++) {
+			edit(i);
+			assertTrue("heap " + buffer.undoables.heapBytes(), buffer.undoables.heapBytes() <= BUDGET);
+		}
+		assertEquals(50, buffer.undoables.size());
+		assertTrue(buffer.undoables.spilledCount() > 40);
+	}
+
+	@Test
+	public void testUndoPagesBackIn() {
+		List<List<String>> states = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			states.add(buffer.getLines(1, buffer.size()));
+			edit(i);
+		}
+		buffer.pushUndo("opaque", () -> { });	// a Runnable, to be kept in memory while spilled
+		for (int i = 0; i < 30; i++) {
+			edit(100 + i);
+		}
+		for (int i = 0; i < 30; i++) {
+			buffer.undo();
+		}
+		assertEquals(states.get(29).size(), buffer.size());
+		buffer.popUndo();		// the Runnable
+		for (int i = 29; i >= 0; i--) {
+			buffer.undo();
+			assertEquals("after undoing edit " + i, states.get(i), buffer.getLines(1, buffer.size()));
+		}
+		assertEquals(lines, buffer.getLines(1, buffer.size()));
+		assertEquals(0, buffer.undoables.size());
+		assertEquals(0, buffer.undoables.spilledCount());
+	}
+
+	@Test
+	public void testSessionIncludesSpilled() throws Exception {
+		for (int i = 0; i < 30; i++) {
+			edit(i);
+		}
+		assertTrue(buffer.undoables.spilledCount() > 0);
+		File image = File.createTempFile("edj", ".img");
+		try {
+			buffer.saveSession(image.getPath(), null);
+			BufferPrimsWithUndo restored = new BufferPrimsWithUndo();
+			restored.restoreSession(image.getPath());
+			assertEquals(30, restored.undoables.size());
+			for (int i = 0; i < 30; i++) {
+				restored.undo();
+			}
+			assertEquals(lines, restored.getLines(1, restored.size()));
+		} finally {
+			image.delete();
+		}
+	}
+
+	@Test
+	public void testClearDropsSpilled() {
+		for (int i = 0; i < 30; i++) {
+			edit(i);
+		}
+		buffer.clearBuffer();
+		assertEquals(0, buffer.undoables.size());
+		assertEquals(0, buffer.undoables.spilledCount());
+		buffer.addLines(0, Arrays.asList("a", "b"));
+		assertEquals(1, buffer.undoables.size());
+	}
+}
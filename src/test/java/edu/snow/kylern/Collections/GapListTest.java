@@ -0,0 +1,87 @@
+package edu.snow.kylern.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GapListTest {
+
+    List<Integer> gapList;
+
+    @Before
+    public void setUp() throws Exception {
+        gapList = new GapList<>(2);
+        gapList.addAll(Arrays.asList(1, 2, 3, 4, 5));
+    }
+
+    @Test
+    public void size() {
+        assertTrue(gapList.size() == 5);
+    }
+
+    @Test
+    public void addInMiddle() {
+        gapList.add(2, 99);
+        gapList.add(3, 100);
+        assertEquals(Arrays.asList(1, 2, 99, 100, 3, 4, 5), gapList);
+    }
+
+    @Test
+    public void removeRange() {
+        gapList.subList(1, 4).clear();
+        assertEquals(Arrays.asList(1, 5), gapList);
+    }
+
+    @Test
+    public void addAllAtIndex() {
+        gapList.addAll(0, Arrays.asList(-1, 0));
+        gapList.addAll(gapList.size(), Arrays.asList(6));
+        assertEquals(Arrays.asList(-1, 0, 1, 2, 3, 4, 5, 6), gapList);
+    }
+
+    @Test
+    public void remove() {
+        int removed = gapList.remove(4);
+        assertTrue(removed == 5);
+        removed = gapList.remove(0);
+        assertTrue(removed == 1);
+        assertEquals(Arrays.asList(2, 3, 4), gapList);
+    }
+
+    @Test
+    public void sameAsArrayList() {
+        List<Integer> expected = new ArrayList<>(gapList);
+        Random r = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int ix = r.nextInt(expected.size() + 1);
+            switch (r.nextInt(4)) {
+                case 0:
+                    expected.add(ix, i);
+                    gapList.add(ix, i);
+                    break;
+                case 1:
+                    if (ix < expected.size()) {
+                        assertEquals(expected.remove(ix), gapList.remove(ix));
+                    }
+                    break;
+                case 2:
+                    int to = Math.min(ix + r.nextInt(5), expected.size());
+                    expected.subList(ix, to).clear();
+                    gapList.subList(ix, to).clear();
+                    break;
+                default:
+                    expected.addAll(ix, Arrays.asList(i, -i));
+                    gapList.addAll(ix, Arrays.asList(i, -i));
+                    break;
+            }
+        }
+        assertEquals(expected, gapList);
+    }
+}
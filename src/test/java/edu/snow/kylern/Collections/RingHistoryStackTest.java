@@ -0,0 +1,143 @@
+package edu.snow.kylern.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RingHistoryStackTest {
+
+    HistoryStack<Integer> histStack;
+    List<Integer> evicted = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        histStack = new RingHistoryStack<>(4, evicted::add);
+        histStack.add(1);
+        histStack.add(2);
+        histStack.add(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        histStack.clear();
+    }
+
+    @Test
+    public void size() {
+        assertTrue(histStack.size() == 3);
+    }
+
+    @Test
+    public void unpop() {
+        histStack.pop();
+        histStack.pop();
+        assertTrue(histStack.size() == 1);
+        int unPopped = histStack.unpop();
+        assertTrue(unPopped == 2);
+        assertTrue(histStack.peek() == 2);
+        assertTrue(histStack.historySize() == 1);
+        assertTrue(histStack.size() == 2);
+    }
+
+    @Test
+    public void pushClearsHistory() {
+        histStack.pop();
+        histStack.push(4);
+        assertTrue(histStack.size() == 3);
+        assertTrue(histStack.peek() == 4);
+        assertTrue(histStack.isHistoryEmpty());
+        assertNull(histStack.unpop());
+    }
+
+    @Test
+    public void pushEvictsOldest() {
+        histStack.push(4);
+        assertTrue(evicted.isEmpty());
+        histStack.push(5);
+        histStack.push(6);
+        assertEquals(List.of(1, 2), evicted);
+        assertTrue(histStack.size() == 4);
+        assertArrayEquals(new Object[] { 6, 5, 4, 3 }, histStack.toArray());
+        for (int i = 6; i >= 3; i--) {
+            assertTrue(histStack.pop() == i);
+        }
+        assertNull(histStack.pop());
+        assertTrue(histStack.historySize() == 4);
+    }
+
+    @Test
+    public void wrapsAround() {
+        for (int i = 4; i <= 10; i++) {
+            histStack.push(i);
+            histStack.pop();
+            histStack.unpop();
+        }
+        assertArrayEquals(new Object[] { 10, 9, 8, 7 }, histStack.toArray());
+        histStack.pop();
+        histStack.pop();
+        assertArrayEquals(new Object[] { 9, 10 }, histStack.historyToArray());
+        assertArrayEquals(new Integer[] { 10, 9 }, toList(histStack.historyDescendingIterator()).toArray(new Integer[0]));
+        assertArrayEquals(new Integer[] { 7, 8 }, toList(histStack.descendingIterator()).toArray(new Integer[0]));
+    }
+
+    @Test
+    public void popHistory() {
+        histStack.pop();
+        histStack.pop();
+        assertTrue(histStack.size() == 1);
+        int histPopped = histStack.popHistory();
+        assertTrue(histPopped == 2);
+        assertTrue(histStack.historySize() == 1);
+        assertTrue(histStack.peekHistory() == 3);
+        assertTrue(histStack.size() == 1);
+    }
+
+    @Test
+    public void popNoHistory() {
+        histStack.pop();
+        int popped = histStack.popNoHistory();
+        assertTrue(popped == 2);
+        assertTrue(histStack.size() == 1);
+        assertTrue(histStack.historySize() == 1);
+        assertTrue(histStack.unpop() == 3);
+        assertArrayEquals(new Object[] { 3, 1 }, histStack.toArray());
+    }
+
+    @Test
+    public void clearRetainHistory() {
+        histStack.pop();
+        histStack.clearRetainHistory();
+        assertTrue(histStack.isEmpty());
+        assertTrue(histStack.unpop() == 3);
+        assertTrue(histStack.size() == 1);
+    }
+
+    @Test
+    public void contains() {
+        histStack.pop();
+        assertTrue(histStack.contains(2));
+        assertFalse(histStack.contains(3));
+        assertTrue(histStack.containsAll(List.of(1, 2)));
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailsFast() {
+        Iterator<Integer> it = histStack.iterator();
+        it.next();
+        histStack.pop();
+        it.next();
+    }
+
+    private static List<Integer> toList(Iterator<Integer> it) {
+        List<Integer> list = new ArrayList<>();
+        it.forEachRemaining(list::add);
+        return list;
+    }
+}